@@ -0,0 +1,78 @@
+/*
+	This file is part of the OSM Route Manager and History Viewer.
+
+	OSM Route Manager and History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager and History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.cdauth.osm.benchmarks;
+
+import eu.cdauth.osm.lib.LonLat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link LonLat#getDistance} on pairs of points from a seeded random generator, most of them close to each
+ * other like consecutive nodes of a way.
+ * @author cdauth
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark
+{
+	public static final int PAIRS = 1024;
+
+	private LonLat[] m_from;
+	private LonLat[] m_to;
+
+	@Setup
+	public void setUp()
+	{
+		Random random = new Random(4711);
+		m_from = new LonLat[PAIRS];
+		m_to = new LonLat[PAIRS];
+		for(int i=0; i<PAIRS; i++)
+		{
+			double lon = random.nextDouble()*360-180;
+			double lat = random.nextDouble()*170-85;
+			double distance = (i%8 == 0 ? 10 : 0.001);
+			m_from[i] = new LonLat(lon, lat);
+			m_to[i] = new LonLat(lon+random.nextGaussian()*distance, Math.max(-90, Math.min(90, lat+random.nextGaussian()*distance)));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAIRS)
+	public double getDistance()
+	{
+		double ret = 0;
+		for(int i=0; i<PAIRS; i++)
+			ret += m_from[i].getDistance(m_to[i]);
+		return ret;
+	}
+}
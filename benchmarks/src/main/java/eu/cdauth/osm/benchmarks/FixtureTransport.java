@@ -0,0 +1,91 @@
+/*
+	This file is part of the OSM Route Manager and History Viewer.
+
+	OSM Route Manager and History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager and History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.cdauth.osm.benchmarks;
+
+import eu.cdauth.osm.lib.APIError;
+import eu.cdauth.osm.lib.api06.API06Transport;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answers API requests with fixed responses, so that the benchmarks run offline.
+ * @author cdauth
+ */
+public class FixtureTransport implements API06Transport
+{
+	public static final String PREFIX = "http://localhost/api/0.6";
+
+	private final Map<String,byte[]> m_responses = new HashMap<String,byte[]>();
+
+	/**
+	 * Sets the response to a request.
+	 * @param a_path The requested path below the API prefix, for example “/relation/1/full”.
+	 * @param a_response The XML response.
+	 */
+	public void put(String a_path, String a_response)
+	{
+		try
+		{
+			m_responses.put(a_path, a_response.getBytes("UTF-8"));
+		}
+		catch(UnsupportedEncodingException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public InputStream get(String a_url, String a_userAgent) throws APIError, IOException
+	{
+		byte[] response = m_responses.get(a_url.substring(PREFIX.length()));
+		if(response == null)
+			throw new APIError("No fixture for URL "+a_url+".");
+		return new ByteArrayInputStream(response);
+	}
+
+	/**
+	 * Reads a fixture from the class path.
+	 * @param a_name The name of the resource, relative to this class.
+	 * @return The content of the resource.
+	 * @throws IOException The resource could not be read.
+	 */
+	public static byte[] readResource(String a_name) throws IOException
+	{
+		InputStream in = FixtureTransport.class.getResourceAsStream(a_name);
+		if(in == null)
+			throw new IOException("Fixture "+a_name+" not found.");
+		try
+		{
+			ByteArrayOutputStream ret = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1)
+				ret.write(buffer, 0, read);
+			return ret.toByteArray();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
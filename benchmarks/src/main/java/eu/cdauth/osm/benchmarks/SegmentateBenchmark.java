@@ -0,0 +1,76 @@
+/*
+	This file is part of the OSM Route Manager and History Viewer.
+
+	OSM Route Manager and History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager and History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.cdauth.osm.benchmarks;
+
+import eu.cdauth.osm.lib.ID;
+import eu.cdauth.osm.lib.Relation;
+import eu.cdauth.osm.lib.api06.API06API;
+import eu.cdauth.osm.web.osmrm.RelationSegment;
+import eu.cdauth.osm.web.osmrm.RouteAnalyser;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link RouteAnalyser#segmentate} on a {@link SyntheticRoute}. All objects are in the caches of the API,
+ * so only the analysis is measured.
+ * @author cdauth
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class SegmentateBenchmark
+{
+	public static final long SEED = 4711;
+
+	@Param({ "1000", "10000", "100000" })
+	public int ways;
+
+	private Relation m_relation;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		FixtureTransport transport = new FixtureTransport();
+		transport.put("/relation/"+SyntheticRoute.RELATION_ID+"/full", SyntheticRoute.makeFullXML(SEED, ways));
+		API06API api = new API06API(FixtureTransport.PREFIX, transport);
+		api.setCacheMaxWeight(Long.MAX_VALUE);
+
+		ID id = new ID(Long.valueOf(SyntheticRoute.RELATION_ID));
+		api.getRelationFactory().downloadFull(id);
+		m_relation = api.getRelationFactory().fetch(id);
+	}
+
+	@Benchmark
+	public RelationSegment[] segmentate() throws Exception
+	{
+		return RouteAnalyser.segmentate(m_relation);
+	}
+}
@@ -0,0 +1,137 @@
+/*
+	This file is part of the OSM Route Manager and History Viewer.
+
+	OSM Route Manager and History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager and History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.cdauth.osm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates the API response of a full relation download (<code>/relation/1/full</code>) that contains a route of
+ * the given number of ways. The route is a random walk made of ways with 2 to 8 nodes that are connected at their
+ * ends. Every 50th way starts a new, unconnected part of the route, every 200th way is a roundabout. The output only
+ * depends on the seed, so the benchmarks are reproducible without storing huge fixture files.
+ * @author cdauth
+ */
+public class SyntheticRoute
+{
+	public static final long RELATION_ID = 1;
+
+	private static final String ATTRIBUTES = " version=\"1\" changeset=\"1\" user=\"bench\" uid=\"1\" visible=\"true\" timestamp=\"2010-01-01T00:00:00Z\"";
+
+	private final Random m_random;
+	private final StringBuilder m_nodes = new StringBuilder();
+	private long m_nextNode = 1;
+	private double m_lon = 10;
+	private double m_lat = 50;
+	private double m_heading;
+
+	private SyntheticRoute(long a_seed)
+	{
+		m_random = new Random(a_seed);
+		m_heading = m_random.nextDouble()*2*Math.PI;
+	}
+
+	private long makeNode(double a_lon, double a_lat)
+	{
+		long id = m_nextNode++;
+		m_nodes.append(String.format(Locale.ROOT, "<node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"%s/>\n", id, a_lat, a_lon, ATTRIBUTES));
+		return id;
+	}
+
+	private long step()
+	{
+		m_heading += m_random.nextGaussian()*0.3;
+		m_lon += Math.cos(m_heading)*0.001;
+		m_lat += Math.sin(m_heading)*0.001;
+		return makeNode(m_lon, m_lat);
+	}
+
+	/**
+	 * Generates the XML of a full relation download.
+	 * @param a_seed The seed of the random generator.
+	 * @param a_ways The number of ways of the route.
+	 * @return The XML document.
+	 */
+	public static String makeFullXML(long a_seed, int a_ways)
+	{
+		return new SyntheticRoute(a_seed).make(a_ways);
+	}
+
+	private String make(int a_ways)
+	{
+		StringBuilder ways = new StringBuilder();
+		StringBuilder relation = new StringBuilder();
+		relation.append("<relation id=\"").append(RELATION_ID).append("\"").append(ATTRIBUTES).append(">\n");
+
+		long lastNode = 0;
+		for(int i=1; i<=a_ways; i++)
+		{
+			if(i%50 == 0)
+			{
+				m_lon += m_random.nextDouble()*0.01;
+				m_lat += m_random.nextDouble()*0.01;
+				lastNode = 0;
+			}
+
+			List<Long> members = new ArrayList<Long>();
+			String highway;
+			if(i%200 == 0)
+			{
+				// A roundabout whose first node is the end of the previous way, the next way starts on its other side
+				highway = "primary";
+				double centreLon = m_lon+Math.cos(m_heading)*0.0003;
+				double centreLat = m_lat+Math.sin(m_heading)*0.0003;
+				members.add(lastNode == 0 ? makeNode(m_lon, m_lat) : lastNode);
+				for(int j=1; j<6; j++)
+				{
+					double angle = m_heading+Math.PI+j*Math.PI/3;
+					members.add(makeNode(centreLon+Math.cos(angle)*0.0003, centreLat+Math.sin(angle)*0.0003));
+				}
+				members.add(members.get(0));
+				lastNode = members.get(3);
+				m_lon = centreLon*2-m_lon;
+				m_lat = centreLat*2-m_lat;
+			}
+			else
+			{
+				highway = (m_random.nextInt(4) == 0 ? "secondary" : "primary");
+				members.add(lastNode == 0 ? makeNode(m_lon, m_lat) : lastNode);
+				int count = 1+m_random.nextInt(7);
+				for(int j=0; j<count; j++)
+					members.add(step());
+				lastNode = members.get(members.size()-1);
+			}
+
+			ways.append("<way id=\"").append(i).append("\"").append(ATTRIBUTES).append(">\n");
+			for(Long member : members)
+				ways.append("<nd ref=\"").append(member).append("\"/>\n");
+			if(i%200 == 0)
+				ways.append("<tag k=\"junction\" v=\"roundabout\"/>\n");
+			ways.append("<tag k=\"highway\" v=\"").append(highway).append("\"/>\n");
+			ways.append("</way>\n");
+
+			relation.append("<member type=\"way\" ref=\"").append(i).append("\" role=\"\"/>\n");
+		}
+
+		relation.append("<tag k=\"type\" v=\"route\"/>\n<tag k=\"route\" v=\"road\"/>\n</relation>\n");
+
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<osm version=\"0.6\" generator=\"SyntheticRoute\">\n"+m_nodes+ways+relation+"</osm>\n";
+	}
+}
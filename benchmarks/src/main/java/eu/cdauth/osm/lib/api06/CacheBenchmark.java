@@ -0,0 +1,124 @@
+/*
+	This file is part of the OSM Route Manager and History Viewer.
+
+	OSM Route Manager and History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager and History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.cdauth.osm.lib.api06;
+
+import eu.cdauth.osm.benchmarks.FixtureTransport;
+import eu.cdauth.osm.lib.ID;
+import eu.cdauth.osm.lib.LonLat;
+import eu.cdauth.osm.lib.Node;
+import eu.cdauth.osm.lib.Version;
+import eu.cdauth.osm.lib.VersionedItemCache;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures lookups and inserts of {@link VersionedItemCache} while several threads use the same cache. The IDs are
+ * drawn from a skewed distribution, so that some nodes are much more popular than others like the members of
+ * popular routes. With a maximum weight below the number of nodes, the inserts also measure the eviction.
+ * @author cdauth
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class CacheBenchmark
+{
+	public static final int NODES = 100000;
+
+	@Param({ "1000000", "50000" })
+	public long maxWeight;
+
+	private VersionedItemCache<Node> m_cache;
+	private API06Node[] m_nodes;
+	private API06Node[] m_newVersions;
+
+	@State(Scope.Thread)
+	public static class ThreadState
+	{
+		private final Random m_random = new Random(Thread.currentThread().getId());
+
+		/**
+		 * Returns a node index, small indexes are drawn a lot more often.
+		 */
+		public int nextIndex()
+		{
+			double r = m_random.nextDouble();
+			return (int)(r*r*r*NODES);
+		}
+	}
+
+	private static API06Node makeNode(API06API a_api, long a_id, long a_version)
+	{
+		API06Node ret = new API06Node(a_api, new ID(Long.valueOf(a_id)), new Hashtable<String,String>(), new Date(), new Version(Long.valueOf(a_version)), new ID(Long.valueOf(1)), new LonLat(a_id%180, a_id%90));
+		ret.markAsCurrent();
+		return ret;
+	}
+
+	@Setup
+	public void setUp()
+	{
+		API06API api = new API06API(FixtureTransport.PREFIX, new FixtureTransport());
+		m_cache = new VersionedItemCache<Node>();
+		m_cache.setMaxWeight(maxWeight);
+		m_nodes = new API06Node[NODES];
+		m_newVersions = new API06Node[NODES];
+		for(int i=0; i<NODES; i++)
+		{
+			m_nodes[i] = makeNode(api, i+1, 1);
+			m_newVersions[i] = makeNode(api, i+1, 2);
+			m_cache.cacheObject(m_nodes[i]);
+		}
+	}
+
+	@Benchmark
+	public Node lookup(ThreadState a_state)
+	{
+		return m_cache.getObject(m_nodes[a_state.nextIndex()].getID());
+	}
+
+	@Benchmark
+	public Node lookupVersion(ThreadState a_state)
+	{
+		API06Node node = m_nodes[a_state.nextIndex()];
+		return m_cache.getObject(node.getID(), node.getVersion());
+	}
+
+	@Benchmark
+	public void insert(ThreadState a_state)
+	{
+		int index = a_state.nextIndex();
+		m_cache.cacheObject(a_state.m_random.nextBoolean() ? m_nodes[index] : m_newVersions[index]);
+	}
+}
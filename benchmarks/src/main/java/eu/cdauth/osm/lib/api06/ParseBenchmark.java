@@ -0,0 +1,71 @@
+/*
+	This file is part of the OSM Route Manager and History Viewer.
+
+	OSM Route Manager and History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager and History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.cdauth.osm.lib.api06;
+
+import eu.cdauth.osm.benchmarks.FixtureTransport;
+import eu.cdauth.osm.lib.Item;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link API06API#makeObjects} on recorded API responses. This class is in the package of the API
+ * implementation to be able to call the protected parser methods.
+ * @author cdauth
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark
+{
+	/**
+	 * The fixture to parse, a resource in the package of {@link FixtureTransport}.
+	 */
+	@Param({ "relation-full.osm", "history.osm" })
+	public String fixture;
+
+	private API06API m_api;
+	private byte[] m_xml;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		m_api = new API06API(FixtureTransport.PREFIX, new FixtureTransport());
+		m_xml = FixtureTransport.readResource(fixture);
+	}
+
+	@Benchmark
+	public List<Item> makeObjects() throws Exception
+	{
+		return m_api.makeObjects(API06API.makeXMLReader(new ByteArrayInputStream(m_xml)));
+	}
+}
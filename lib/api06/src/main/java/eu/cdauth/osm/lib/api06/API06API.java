@@ -25,30 +25,42 @@ import eu.cdauth.osm.lib.API;
 import eu.cdauth.osm.lib.APIError;
 import eu.cdauth.osm.lib.BoundingBox;
 import eu.cdauth.osm.lib.GeographicalItem;
+import eu.cdauth.osm.lib.ID;
 import eu.cdauth.osm.lib.Item;
+import eu.cdauth.osm.lib.ItemCache;
+import eu.cdauth.osm.lib.LonLat;
 import eu.cdauth.osm.lib.Node;
 import eu.cdauth.osm.lib.Relation;
+import eu.cdauth.osm.lib.User;
+import eu.cdauth.osm.lib.Version;
 import eu.cdauth.osm.lib.Way;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Hashtable;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides static methods to communicate with the OSM API 0.6. Handles the HTTP connection
- * and parses XML responses.
+ * and parses XML responses. Responses are decoded with a StAX pull parser in one pass while they are
+ * downloaded, no DOM tree is built.
  */
 
 public class API06API implements API
@@ -57,9 +69,104 @@ public class API06API implements API
 	protected static final int API_PORT = 443;
 	protected static final String API_PREFIX = "/api/0.6";
 
-	private static Logger sm_logger = Logger.getLogger(API06API.class.getName());
+	/**
+	 * The URL of the main OSM API server, see {@link #API06API(String)}.
+	 */
+	public static final String DEFAULT_API_URL = "https://"+API_SERVER+":"+API_PORT+API_PREFIX;
 
-	private String m_userAgent = "OSM Route Manager and History Viewer";
+	/**
+	 * The default maximum length of request URLs. Multi-fetch requests with longer URLs are split up into several
+	 * requests. Most web servers reject request lines longer than 8 KiB.
+	 */
+	public static final int DEFAULT_MAX_URL_LENGTH = 8000;
+
+	/**
+	 * The default number of requests that {@link #get(String[])} performs at the same time.
+	 */
+	public static final int DEFAULT_PARALLEL_REQUESTS = API06HttpTransport.DEFAULT_MAX_CONNECTIONS;
+
+	/**
+	 * Creates the StAX parsers for the API responses. A configured factory is thread-safe, so one instance is
+	 * shared instead of creating one for every request.
+	 */
+	private static final XMLInputFactory sm_xmlInputFactory = XMLInputFactory.newInstance();
+	static {
+		sm_xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		sm_xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		sm_xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private volatile String m_userAgent = "OSM Route Manager and History Viewer";
+
+	private final String m_apiPrefix;
+
+	private final API06Transport m_transport;
+
+	private volatile int m_maxURLLength = DEFAULT_MAX_URL_LENGTH;
+
+	private ThreadPoolExecutor m_executor = null;
+
+	/**
+	 * The requests of {@link #get(String)} that are currently running, indexed by their URL.
+	 */
+	private final ConcurrentHashMap<String,FutureTask<Item[]>> m_runningRequests = new ConcurrentHashMap<String,FutureTask<Item[]>>();
+	private int m_parallelRequests = DEFAULT_PARALLEL_REQUESTS;
+
+	/**
+	 * Creates an API object that talks to the main OSM API server. API objects are thread-safe, one instance can
+	 * be shared by all parts of an application so that they share the caches of the object factories.
+	 */
+	public API06API()
+	{
+		this(DEFAULT_API_URL);
+	}
+
+	/**
+	 * Creates an API object that talks to a different server, for example a local mirror.
+	 * @param a_apiPrefix The full API URL where a request like <code>/node/1</code> can be appended, for example
+	 *                    <code>http://localhost:3000/api/0.6</code>.
+	 */
+	public API06API(String a_apiPrefix)
+	{
+		this(a_apiPrefix, new API06HttpTransport());
+	}
+
+	/**
+	 * @param a_apiPrefix The full API URL where a request like <code>/node/1</code> can be appended.
+	 * @param a_transport Performs the HTTP requests.
+	 */
+	public API06API(String a_apiPrefix, API06Transport a_transport)
+	{
+		m_apiPrefix = a_apiPrefix;
+		m_transport = a_transport;
+	}
+
+	/**
+	 * Sets the maximum age of the current versions of objects in the caches of the object factories. Older ones
+	 * are downloaded again. Old versions and histories are also removed from the caches after this time by
+	 * {@link ItemCache#cleanUpAll}.
+	 * @param a_maxAge The maximum age in seconds.
+	 */
+	public void setCacheMaxAge(int a_maxAge)
+	{
+		getNodeFactory().getCache().setMaxAge(a_maxAge);
+		getWayFactory().getCache().setMaxAge(a_maxAge);
+		getRelationFactory().getCache().setMaxAge(a_maxAge);
+		getChangesetFactory().getCache().setMaxAge(a_maxAge);
+	}
+
+	/**
+	 * Sets the maximum weight of the caches of the object factories, see {@link ItemCache#setMaxWeight}. Each
+	 * object type has its own cache.
+	 * @param a_maxWeight The maximum weight of each cache, roughly the number of objects.
+	 */
+	public void setCacheMaxWeight(long a_maxWeight)
+	{
+		getNodeFactory().getCache().setMaxWeight(a_maxWeight);
+		getWayFactory().getCache().setMaxWeight(a_maxWeight);
+		getRelationFactory().getCache().setMaxWeight(a_maxWeight);
+		getChangesetFactory().getCache().setMaxWeight(a_maxWeight);
+	}
 
 	/**
 	 * Is set as root cause for APIErrors that were caused by an invalid status code sent by the server.
@@ -85,6 +192,20 @@ public class API06API implements API
 		}
 	}
 	
+	/**
+	 * Processes the XML response of an API request while it is being downloaded.
+	 */
+	protected static interface ResponseHandler<T>
+	{
+		/**
+		 * @param a_reader A reader positioned at the start of the XML document.
+		 * @return Any object that is passed through as return value of {@link #fetch(String, ResponseHandler)}.
+		 * @throws XMLStreamException The server sent invalid XML.
+		 * @throws APIError The response could not be processed.
+		 */
+		public T handle(XMLStreamReader a_reader) throws XMLStreamException, APIError;
+	}
+
 	/**
 	 * Sets the User-Agent HTTP request header for all future API requests.
 	 * @param a_userAgent The user agent to use.
@@ -107,20 +228,75 @@ public class API06API implements API
 	 * Returns the full API URL where a request like <code>/node/1</code> can be appended.
 	 * @return The full API URL.
 	 */
-	protected static String getAPIPrefix()
+	public String getAPIPrefix()
 	{
-		return "https://"+API_SERVER+":"+API_PORT+API_PREFIX;
+		return m_apiPrefix;
 	}
 
 	/**
-	 * Makes a HTTP request to the API and returns the XML root element of the response.
+	 * Sets the maximum length of the request URLs, including the API prefix. Multi-fetch requests for many objects
+	 * are split up into several requests so that their URLs do not exceed this length.
+	 * @param a_maxURLLength The maximum URL length in characters.
+	 */
+	public void setMaxURLLength(int a_maxURLLength)
+	{
+		m_maxURLLength = a_maxURLLength;
+	}
+
+	public int getMaxURLLength()
+	{
+		return m_maxURLLength;
+	}
+
+	/**
+	 * Sets the number of requests that are performed at the same time when several URLs are fetched at once using
+	 * {@link #get(String[])}. The number of connections is also limited by the transport.
+	 * @param a_parallelRequests The number of simultaneous requests, at least 1.
+	 */
+	public synchronized void setParallelRequests(int a_parallelRequests)
+	{
+		if(a_parallelRequests < 1)
+			throw new IllegalArgumentException("At least one request has to be allowed.");
+		m_parallelRequests = a_parallelRequests;
+		if(m_executor != null)
+		{
+			if(a_parallelRequests > m_executor.getMaximumPoolSize())
+			{
+				m_executor.setMaximumPoolSize(a_parallelRequests);
+				m_executor.setCorePoolSize(a_parallelRequests);
+			}
+			else
+			{
+				m_executor.setCorePoolSize(a_parallelRequests);
+				m_executor.setMaximumPoolSize(a_parallelRequests);
+			}
+		}
+	}
+
+	public synchronized int getParallelRequests()
+	{
+		return m_parallelRequests;
+	}
+
+	/**
+	 * Returns the transport that performs the HTTP requests of this API object.
+	 * @return The transport.
+	 */
+	public API06Transport getTransport()
+	{
+		return m_transport;
+	}
+
+	/**
+	 * Makes a HTTP request to the API and passes the XML response to the given handler.
 	 * @param a_url The URL to be appended to the API prefix, for example "/node/1"
-	 * @return The root DOM Element of the XML response.
+	 * @param a_handler Processes the XML response.
+	 * @return The return value of the handler.
 	 * @throws APIError There was a connection problem or the server sent unexpected data.
 	 */
-	protected Element fetch(String a_url) throws APIError
+	protected <T> T fetch(String a_url, ResponseHandler<T> a_handler) throws APIError
 	{
-		if(Thread.interrupted())
+		if(Thread.currentThread().isInterrupted())
 		{
 			throw new APIError("Thread interrupted. The operation probably took too long.");
 		}
@@ -128,153 +304,471 @@ public class API06API implements API
 		String url = getAPIPrefix()+a_url;
 		try
 		{
-			if(sm_logger.isLoggable(Level.FINE))
-				sm_logger.fine(url);
-
-			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-			connection.setRequestMethod("GET");
-			connection.setRequestProperty("User-Agent", getUserAgent());
-			connection.setRequestProperty("Accept-Encoding", "gzip");
-			System.out.println("API call "+connection.getURL().toString());
-			connection.connect();
-	
-			if(connection.getResponseCode() != 200)
-				throw new APIError("ResponseCode is "+connection.getResponseCode()+" for URL "+url+".", new StatusCodeError(connection.getResponseCode()));
-
-			InputStream in = connection.getInputStream();
-			String encoding = connection.getContentEncoding();
-			if("gzip".equalsIgnoreCase(encoding))
-				in = new GZIPInputStream(in);
-	
-			Document dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
-			Element root = null;
-			NodeList nodes = dom.getChildNodes();
-			for(int i=0; i<nodes.getLength(); i++)
+			InputStream in = getTransport().get(url, getUserAgent());
+			try
 			{
-				if(nodes.item(i).getNodeType() != org.w3c.dom.Node.ELEMENT_NODE)
-					continue;
-				root = (Element) nodes.item(i);
-				break;
+				XMLStreamReader reader = makeXMLReader(in);
+				try
+				{
+					return a_handler.handle(reader);
+				}
+				finally
+				{
+					reader.close();
+				}
+			}
+			finally
+			{
+				in.close();
 			}
-			
-			if(root == null)
-				throw new APIError("The API server sent no data.");
-			
-			return root;
 		}
 		catch(IOException e)
 		{
 			throw new APIError("Error fetching data from URL "+url, e);
 		}
-		catch(SAXException e)
+		catch(XMLStreamException e)
 		{
 			throw new APIError("Error fetching data from URL "+url, e);
 		}
-		catch(ParserConfigurationException e)
+	}
+
+	/**
+	 * Creates a StAX parser for an XML document.
+	 * @param a_in The XML document.
+	 * @return A reader positioned at the start of the document.
+	 * @throws XMLStreamException The parser could not be created.
+	 */
+	protected static XMLStreamReader makeXMLReader(InputStream a_in) throws XMLStreamException
+	{
+		return sm_xmlInputFactory.createXMLStreamReader(a_in);
+	}
+
+	/**
+	 * Moves the reader to the start tag of the next child element of the current element. Called at the start of
+	 * the document, moves the reader to the root element.
+	 * @param a_reader A reader positioned at a start tag or at the end tag of a previous child element.
+	 * @return true if the reader is positioned at the start tag of a child element, false if the end tag of the
+	 *         current element (or the end of the document) has been reached.
+	 * @throws XMLStreamException The XML is invalid.
+	 */
+	protected static boolean nextChildElement(XMLStreamReader a_reader) throws XMLStreamException
+	{
+		while(a_reader.hasNext())
+		{
+			int event = a_reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT)
+				return true;
+			else if(event == XMLStreamConstants.END_ELEMENT)
+				return false;
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the reader to the end tag of the current element, skipping all its content.
+	 * @param a_reader A reader positioned at a start tag.
+	 * @throws XMLStreamException The XML is invalid.
+	 */
+	protected static void skipElement(XMLStreamReader a_reader) throws XMLStreamException
+	{
+		int depth = 1;
+		while(depth > 0 && a_reader.hasNext())
 		{
-			throw new APIError("Error fetching data from URL "+url, e);
+			int event = a_reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if(event == XMLStreamConstants.END_ELEMENT)
+				depth--;
 		}
 	}
-	
+
 	/**
-	 * Makes OSM objects out of an XML element containing &lt;node&gt;, &lt;way&gt;,
-	 * &lt;relation&gt; and &lt;changeset&gt; elements. Do not forget to call {@link API06GeographicalItem#markAsCurrent}
-	 * afterwards if appropriate.
-	 * @param a_root The root element.
+	 * Returns the value of an attribute of the current element.
+	 * @param a_reader A reader positioned at a start tag.
+	 * @param a_name The name of the attribute.
+	 * @return The value of the attribute or an empty string if it is not set.
+	 */
+	protected static String getAttribute(XMLStreamReader a_reader, String a_name)
+	{
+		String ret = a_reader.getAttributeValue(null, a_name);
+		return ret == null ? "" : ret;
+	}
+
+	private static Date parseDate(String a_date)
+	{
+		try
+		{
+			return API06GeographicalItem.getDateFormat().parse(a_date);
+		}
+		catch(ParseException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Makes OSM objects out of the &lt;node&gt;, &lt;way&gt;, &lt;relation&gt; and &lt;changeset&gt; child elements
+	 * of the current XML element. Do not forget to call {@link API06GeographicalItem#markAsCurrent} afterwards if
+	 * appropriate.
+	 * @param a_reader A reader positioned at the start tag of the parent element or at the start of the document, in
+	 *                 which case the children of the root element are read. Is positioned at the end tag of the parent
+	 *                 element afterwards.
 	 * @return An ArrayList of OSM Objects.
+	 * @throws XMLStreamException The XML is invalid.
 	 */
-	protected ArrayList<Item> makeObjects(Element a_root)
+	protected ArrayList<Item> makeObjects(XMLStreamReader a_reader) throws XMLStreamException
 	{
 		ArrayList<Item> ret = new ArrayList<Item>();
 
-		NodeList nodes = a_root.getChildNodes();
-		for(int i=0; i<nodes.getLength(); i++)
+		if(a_reader.getEventType() != XMLStreamConstants.START_ELEMENT && !nextChildElement(a_reader))
+			return ret;
+
+		while(nextChildElement(a_reader))
 		{
-			if(nodes.item(i).getNodeType() != org.w3c.dom.Node.ELEMENT_NODE)
-				continue;
-			Element element = (Element)nodes.item(i);
+			Item item = makeObject(a_reader);
+			if(item != null)
+				ret.add(item);
+		}
+
+		return ret;
+	}
 
-			// visible=false elements are listed for example in the version history. They are actually deleted,
-			// so they really don’t exist, and their data attributes (for example lon and lat) are missing.
-			if("false".equals(element.getAttribute("visible")))
-				continue;
+	/**
+	 * Makes an OSM object out of a &lt;node&gt;, &lt;way&gt;, &lt;relation&gt; or &lt;changeset&gt; element.
+	 * @param a_reader A reader positioned at the start tag of the element. Is positioned at its end tag afterwards.
+	 * @return The OSM object or null if the element is unknown or represents a deleted object.
+	 * @throws XMLStreamException The XML is invalid.
+	 */
+	protected Item makeObject(XMLStreamReader a_reader) throws XMLStreamException
+	{
+		String type = a_reader.getLocalName();
 
-			if(element.getTagName().equals("node"))
+		// visible=false elements are listed for example in the version history. They are actually deleted,
+		// so they really don’t exist, and their data attributes (for example lon and lat) are missing.
+		if("false".equals(a_reader.getAttributeValue(null, "visible")) || !("node".equals(type) || "way".equals(type) || "relation".equals(type) || "changeset".equals(type)))
+		{
+			skipElement(a_reader);
+			return null;
+		}
+
+		// All attributes have to be read before the child elements
+		ID id = new ID(getAttribute(a_reader, "id"));
+		Date timestamp = null;
+		Version version = null;
+		ID changeset = null;
+		LonLat lonlat = null;
+		Date creation = null;
+		Date closing = null;
+		User user = null;
+		if("changeset".equals(type))
+		{
+			creation = parseDate(getAttribute(a_reader, "created_at"));
+			closing = parseDate(getAttribute(a_reader, "closed_at"));
+			user = new User(new ID(getAttribute(a_reader, "uid")), getAttribute(a_reader, "user"));
+		}
+		else
+		{
+			timestamp = parseDate(getAttribute(a_reader, "timestamp"));
+			String versionAttr = getAttribute(a_reader, "version");
+			if(!versionAttr.equals(""))
+				version = new Version(versionAttr);
+			changeset = new ID(getAttribute(a_reader, "changeset"));
+			if("node".equals(type))
+				lonlat = new LonLat(Double.parseDouble(getAttribute(a_reader, "lon")), Double.parseDouble(getAttribute(a_reader, "lat")));
+		}
+
+		Map<String,String> tags = new Hashtable<String,String>();
+		List<ID> wayMembers = null;
+		List<API06RelationMember> relationMembers = null;
+		if("way".equals(type))
+			wayMembers = new ArrayList<ID>();
+		else if("relation".equals(type))
+			relationMembers = new ArrayList<API06RelationMember>();
+
+		while(nextChildElement(a_reader))
+		{
+			String child = a_reader.getLocalName();
+			if("tag".equals(child))
+			{
+				String key = getAttribute(a_reader, "k");
+				String value = getAttribute(a_reader, "v");
+				String old = tags.get(key);
+				tags.put(key, old == null ? value : old+","+value);
+			}
+			else if("nd".equals(child) && wayMembers != null)
+				wayMembers.add(new ID(getAttribute(a_reader, "ref")));
+			else if("member".equals(child) && relationMembers != null)
+				relationMembers.add(new API06RelationMember(this, id, getAttribute(a_reader, "type"), new ID(getAttribute(a_reader, "ref")), getAttribute(a_reader, "role")));
+			skipElement(a_reader);
+		}
+
+		if("node".equals(type))
+			return new API06Node(this, id, tags, timestamp, version, changeset, lonlat);
+		else if("way".equals(type))
+			return new API06Way(this, id, tags, timestamp, version, changeset, wayMembers.toArray(new ID[wayMembers.size()]));
+		else if("relation".equals(type))
+			return new API06Relation(this, id, tags, timestamp, version, changeset, relationMembers.toArray(new API06RelationMember[relationMembers.size()]));
+		else
+			return new API06Changeset(this, id, tags, creation, closing, user);
+	}
+	
+	/**
+	 * Fetches OSM objects from the given API URL. Do not forget to call {@link API06GeographicalItem#markAsCurrent}
+	 * afterwards if appropriate.
+	 * If the same URL is already being fetched by another thread, no new request is made, but the result of the
+	 * running request is shared. As the URL identifies the type, the ID and the version or history of the requested
+	 * objects, this avoids downloading the same objects several times when multiple workers analyse the same
+	 * relations at the same time.
+	 * @param a_url For example "/node/1"
+	 * @return An array of OSM Objects. They can be cast to the sub-types using instanceof.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+
+	protected Item[] get(final String a_url) throws APIError
+	{
+		while(true)
+		{
+			FutureTask<Item[]> task = new FutureTask<Item[]>(new Callable<Item[]>() {
+				@Override
+				public Item[] call() throws APIError, InterruptedRequest
+				{
+					try
+					{
+						return getDirectly(a_url);
+					}
+					catch(APIError e)
+					{
+						// Other threads waiting for this request should not fail because this thread was interrupted
+						if(Thread.currentThread().isInterrupted())
+							throw new InterruptedRequest(e);
+						throw e;
+					}
+				}
+			});
+
+			FutureTask<Item[]> running = m_runningRequests.putIfAbsent(a_url, task);
+			boolean own = (running == null);
+			if(own)
 			{
-				API06Node el = new API06Node(element, this);
-				ret.add(el);
+				try
+				{
+					task.run();
+				}
+				finally
+				{
+					m_runningRequests.remove(a_url, task);
+				}
+				running = task;
 			}
-			else if(element.getTagName().equals("way"))
+
+			try
 			{
-				API06Way el = new API06Way(element, this);
-				ret.add(el);
+				return running.get().clone();
 			}
-			else if(element.getTagName().equals("relation"))
+			catch(InterruptedException e)
 			{
-				API06Relation el = new API06Relation(element, this);
-				ret.add(el);
+				Thread.currentThread().interrupt();
+				throw new APIError("Thread interrupted. The operation probably took too long.", e);
 			}
-			else if(element.getTagName().equals("changeset"))
+			catch(ExecutionException e)
 			{
-				API06Changeset el = new API06Changeset(element, this);
-				ret.add(el);
+				Throwable cause = e.getCause();
+				if(cause instanceof InterruptedRequest)
+				{
+					if(own)
+						throw ((InterruptedRequest)cause).getError();
+					// The thread that made the request was interrupted, try again
+					continue;
+				}
+				else if(cause instanceof APIError)
+					throw (APIError)cause;
+				else if(cause instanceof RuntimeException)
+					throw (RuntimeException)cause;
+				else if(cause instanceof Error)
+					throw (Error)cause;
+				else
+					throw new APIError("Error fetching data from URL "+a_url, cause);
 			}
 		}
+	}
 
-		return ret;
+	/**
+	 * Signals to threads that share a request in {@link #get(String)} that the request failed because the thread
+	 * that made it was interrupted.
+	 */
+	private static class InterruptedRequest extends Exception
+	{
+		public InterruptedRequest(APIError a_error)
+		{
+			super(a_error);
+		}
+
+		public APIError getError()
+		{
+			return (APIError)getCause();
+		}
 	}
-	
+
 	/**
-	 * Fetches OSM objects from the given API URL. Do not forget to call {@link API06GeographicalItem#markAsCurrent}
-	 * afterwards if appropriate.
+	 * Fetches OSM objects from the given API URL without sharing running requests.
 	 * @param a_url For example "/node/1"
-	 * @return An array of OSM Objects. They can be cast to the sub-types checking the Item.getDOM().getTagName() value.
+	 * @return An array of OSM Objects.
 	 * @throws APIError There was an error communicating with the API.
 	 */
-
-	protected Item[] get(String a_url) throws APIError
+	private Item[] getDirectly(String a_url) throws APIError
 	{
-		List<Item> ret = makeObjects(fetch(a_url));
+		List<Item> ret = fetch(a_url, new ResponseHandler<List<Item>>() {
+			@Override
+			public List<Item> handle(XMLStreamReader a_reader) throws XMLStreamException
+			{
+				return makeObjects(a_reader);
+			}
+		});
 		return ret.toArray(new Item[ret.size()]);
 	}
 
-	private transient API06ChangesetFactory m_changesetFactory = null;
+	/**
+	 * A thread of the executor of an API object. Requests made from within these threads are not passed to the
+	 * executor again, as waiting for other tasks of the same bounded executor could dead-lock.
+	 */
+	private static class RequestThread extends Thread
+	{
+		public final API06API api;
+
+		public RequestThread(API06API a_api, Runnable a_runnable, String a_name)
+		{
+			super(a_runnable, a_name);
+			api = a_api;
+		}
+	}
+
+	/**
+	 * Returns the executor that performs the parallel requests of {@link #get(String[])}. Its threads are daemon
+	 * threads that terminate when they are idle for some time.
+	 * @return The executor of this API object.
+	 */
+	protected synchronized ThreadPoolExecutor getExecutor()
+	{
+		if(m_executor == null)
+		{
+			m_executor = new ThreadPoolExecutor(m_parallelRequests, m_parallelRequests, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private int m_number = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable a_runnable)
+				{
+					Thread ret = new RequestThread(API06API.this, a_runnable, "API06API request "+(++m_number));
+					ret.setDaemon(true);
+					return ret;
+				}
+			});
+			m_executor.allowCoreThreadTimeOut(true);
+		}
+		return m_executor;
+	}
+
+	/**
+	 * Fetches OSM objects from several API URLs at the same time. The requests are performed on the executor of
+	 * this API object, the first one in the calling thread. If one request fails, the others are cancelled.
+	 * @param a_urls The URLs to fetch, for example "/node/1"
+	 * @return The objects of each URL, in the same order as the URLs.
+	 * @throws APIError One of the requests failed or the calling thread was interrupted.
+	 */
+	protected Item[][] get(String[] a_urls) throws APIError
+	{
+		Item[][] ret = new Item[a_urls.length][];
+		Thread current = Thread.currentThread();
+		if(a_urls.length < 2 || (current instanceof RequestThread && ((RequestThread)current).api == this))
+		{
+			for(int i=0; i<a_urls.length; i++)
+				ret[i] = get(a_urls[i]);
+			return ret;
+		}
+
+		ThreadPoolExecutor executor = getExecutor();
+		List<Future<Item[]>> futures = new ArrayList<Future<Item[]>>(a_urls.length);
+		boolean success = false;
+		try
+		{
+			futures.add(null);
+			for(int i=1; i<a_urls.length; i++)
+			{
+				final String url = a_urls[i];
+				futures.add(executor.submit(new Callable<Item[]>() {
+					@Override
+					public Item[] call() throws APIError
+					{
+						return get(url);
+					}
+				}));
+			}
+
+			ret[0] = get(a_urls[0]);
+			for(int i=1; i<a_urls.length; i++)
+				ret[i] = futures.get(i).get();
+
+			success = true;
+			return ret;
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new APIError("Thread interrupted. The operation probably took too long.", e);
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof APIError)
+				throw (APIError)cause;
+			else if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			else if(cause instanceof Error)
+				throw (Error)cause;
+			else
+				throw new APIError("Error fetching data from the API.", cause);
+		}
+		finally
+		{
+			if(!success)
+			{
+				for(Future<Item[]> future : futures)
+				{
+					if(future != null)
+						future.cancel(true);
+				}
+			}
+		}
+	}
+
+	private final API06ChangesetFactory m_changesetFactory = new API06ChangesetFactory(this);
 	
 	@Override
 	public API06ChangesetFactory getChangesetFactory()
 	{
-		if(m_changesetFactory == null)
-			m_changesetFactory = new API06ChangesetFactory(this);
 		return m_changesetFactory;
 	}
 
-	private transient API06NodeFactory m_nodeFactory = null;
+	private final API06NodeFactory m_nodeFactory = new API06NodeFactory(this);
 	
 	@Override
 	public API06NodeFactory getNodeFactory()
 	{
-		if(m_nodeFactory == null)
-			m_nodeFactory = new API06NodeFactory(this);
 		return m_nodeFactory;
 	}
 
-	private transient API06RelationFactory m_relationFactory = null;
+	private final API06RelationFactory m_relationFactory = new API06RelationFactory(this);
 	
 	@Override
 	public API06RelationFactory getRelationFactory()
 	{
-		if(m_relationFactory == null)
-			m_relationFactory = new API06RelationFactory(this);
 		return m_relationFactory;
 	}
 
-	private transient API06WayFactory m_wayFactory = null;
+	private final API06WayFactory m_wayFactory = new API06WayFactory(this);
 	
 	@Override
 	public API06WayFactory getWayFactory()
 	{
-		if(m_wayFactory == null)
-			m_wayFactory = new API06WayFactory(this);
 		return m_wayFactory;
 	}
 
@@ -22,13 +22,13 @@
 package eu.cdauth.osm.lib.api06;
 
 import eu.cdauth.osm.lib.*;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
-import java.text.ParseException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 
 public class API06Changeset extends API06Item implements Changeset
@@ -39,27 +39,31 @@ public class API06Changeset extends API06Item implements Changeset
 	private Date m_closing = null;
 	private User m_user = null;
 
-	protected API06Changeset(Element a_dom, API06API a_api)
+	/**
+	 * A reference to an object in the &lt;delete&gt; block of an osmChange document. Deleted objects are not fully
+	 * contained there, so only their type, ID and version are remembered to fetch them afterwards.
+	 */
+	private static class DeletedReference
 	{
-		super(a_dom, a_api);
+		public final String type;
+		public final ID id;
+		public final Version version;
 
-		try
-		{
-			m_creation = API06GeographicalItem.getDateFormat().parse(a_dom.getAttribute("created_at"));
-		}
-		catch(ParseException e)
+		public DeletedReference(String a_type, ID a_id, Version a_version)
 		{
+			type = a_type;
+			id = a_id;
+			version = a_version;
 		}
+	}
 
-		try
-		{
-			m_closing = API06GeographicalItem.getDateFormat().parse(a_dom.getAttribute("closed_at"));
-		}
-		catch(ParseException e)
-		{
-		}
+	protected API06Changeset(API06API a_api, ID a_id, Map<String,String> a_tags, Date a_creation, Date a_closing, User a_user)
+	{
+		super(a_api, a_id, a_tags);
 
-		m_user = new User(new ID(a_dom.getAttribute("uid")), a_dom.getAttribute("user"));
+		m_creation = a_creation;
+		m_closing = a_closing;
+		m_user = a_user;
 	}
 
 	@Override
@@ -111,40 +115,52 @@ public class API06Changeset extends API06Item implements Changeset
 		if(m_content != null)
 			return;
 
-		Element uncleanedDom = getAPI().fetch("/changeset/"+getID()+"/download");
-
-		NodeList createdNodes = uncleanedDom.getElementsByTagName("create");
-		NodeList modifiedNodes = uncleanedDom.getElementsByTagName("modify");
-		NodeList deletedNodes = uncleanedDom.getElementsByTagName("delete");
+		final ArrayList<Item> createdElements = new ArrayList<Item>();
+		final ArrayList<Item> modifiedElements = new ArrayList<Item>();
+		final ArrayList<DeletedReference> deletedReferences = new ArrayList<DeletedReference>();
 
-		ArrayList<Item> createdElements = new ArrayList<Item>();
-		ArrayList<Item> modifiedElements = new ArrayList<Item>();
-		ArrayList<Item> deletedElements = new ArrayList<Item>();
-
-		for(int i=0; i<createdNodes.getLength(); i++)
-			createdElements.addAll(getAPI().makeObjects((Element) createdNodes.item(i)));
-		for(int i=0; i<modifiedNodes.getLength(); i++)
-			modifiedElements.addAll(getAPI().makeObjects((Element) modifiedNodes.item(i)));
-		for(int i=0; i<deletedNodes.getLength(); i++)
-		{
-			// Deleted items are not fully contained in changeset, we need to download them manually
-			NodeList nodes = deletedNodes.item(i).getChildNodes();
-			for(int j=0; j<nodes.getLength(); j++)
+		getAPI().fetch("/changeset/"+getID()+"/download", new API06API.ResponseHandler<Object>() {
+			@Override
+			public Object handle(XMLStreamReader a_reader) throws XMLStreamException
 			{
-				if(nodes.item(j).getNodeType() != org.w3c.dom.Node.ELEMENT_NODE)
-					continue;
+				if(!API06API.nextChildElement(a_reader)) // Root element <osmChange>
+					return null;
 
-				Element el = (Element) nodes.item(j);
-				String tag = el.getTagName();
-				ID id = new ID(el.getAttribute("id"));
-				Version version = new Version(new Version(el.getAttribute("version")).asLong()-1);
-				if("node".equals(tag))
-					deletedElements.add(getAPI().getNodeFactory().fetch(id, version));
-				else if("way".equals(tag))
-					deletedElements.add(getAPI().getWayFactory().fetch(id, version));
-				else if("relation".equals(tag))
-					deletedElements.add(getAPI().getRelationFactory().fetch(id, version));
+				while(API06API.nextChildElement(a_reader))
+				{
+					String block = a_reader.getLocalName();
+					if("create".equals(block))
+						createdElements.addAll(getAPI().makeObjects(a_reader));
+					else if("modify".equals(block))
+						modifiedElements.addAll(getAPI().makeObjects(a_reader));
+					else if("delete".equals(block))
+					{
+						while(API06API.nextChildElement(a_reader))
+						{
+							String type = a_reader.getLocalName();
+							ID id = new ID(API06API.getAttribute(a_reader, "id"));
+							Version version = new Version(new Version(API06API.getAttribute(a_reader, "version")).asLong()-1);
+							deletedReferences.add(new DeletedReference(type, id, version));
+							API06API.skipElement(a_reader);
+						}
+					}
+					else
+						API06API.skipElement(a_reader);
+				}
+				return null;
 			}
+		});
+
+		// Deleted items are not fully contained in changeset, we need to download them manually
+		List<Item> deletedElements = new ArrayList<Item>();
+		for(DeletedReference it : deletedReferences)
+		{
+			if("node".equals(it.type))
+				deletedElements.add(getAPI().getNodeFactory().fetch(it.id, it.version));
+			else if("way".equals(it.type))
+				deletedElements.add(getAPI().getWayFactory().fetch(it.id, it.version));
+			else if("relation".equals(it.type))
+				deletedElements.add(getAPI().getRelationFactory().fetch(it.id, it.version));
 		}
 
 		ArrayList<Item> all = new ArrayList<Item>();
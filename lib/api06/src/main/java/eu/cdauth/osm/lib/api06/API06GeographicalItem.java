@@ -21,12 +21,11 @@
 
 package eu.cdauth.osm.lib.api06;
 
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 
 import eu.cdauth.osm.lib.*;
-import org.w3c.dom.Element;
 
 import eu.cdauth.osm.lib.GeographicalItem;
 import java.util.Arrays;
@@ -34,10 +33,18 @@ import java.util.SimpleTimeZone;
 
 abstract public class API06GeographicalItem extends API06Item implements VersionedItem, GeographicalItem
 {
-	private static final SimpleDateFormat sm_dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-	static {
-		sm_dateFormat.setTimeZone(new SimpleTimeZone(0, "UTC"));
-	}
+	/**
+	 * SimpleDateFormat is not thread-safe, so every thread that parses API responses gets its own instance.
+	 */
+	private static final ThreadLocal<SimpleDateFormat> sm_dateFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue()
+		{
+			SimpleDateFormat ret = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+			ret.setTimeZone(new SimpleTimeZone(0, "UTC"));
+			return ret;
+		}
+	};
 	
 	private boolean m_current = false; // FIXME: Serialize?
 
@@ -48,26 +55,16 @@ abstract public class API06GeographicalItem extends API06Item implements Version
 	
 	protected static SimpleDateFormat getDateFormat()
 	{
-		return sm_dateFormat;
+		return sm_dateFormat.get();
 	}
 	
-	protected API06GeographicalItem(Element a_dom, API06API a_api)
+	protected API06GeographicalItem(API06API a_api, ID a_id, Map<String,String> a_tags, Date a_timestamp, Version a_version, ID a_changeset)
 	{
-		super(a_dom, a_api);
-
-		try
-		{
-			m_timestamp = getDateFormat().parse(a_dom.getAttribute("timestamp"));
-		}
-		catch(ParseException e)
-		{
-		}
-
-		String version = a_dom.getAttribute("version");
-		if(!version.equals(""))
-			m_version = new Version(version);
+		super(a_api, a_id, a_tags);
 
-		m_changeset = new ID(a_dom.getAttribute("changeset"));
+		m_timestamp = a_timestamp;
+		m_version = a_version;
+		m_changeset = a_changeset;
 	}
 	
 	/**
@@ -34,7 +34,16 @@ abstract public class API06GeographicalItemFactory<T extends VersionedItem> exte
 	{
 		super(a_api, a_type);
 
-		m_cache = new VersionedItemCache<T>();
+		m_cache = makeCache();
+	}
+
+	/**
+	 * Creates the cache of this factory. Is called by the constructor.
+	 * @return A new cache.
+	 */
+	protected VersionedItemCache<T> makeCache()
+	{
+		return new VersionedItemCache<T>();
 	}
 	
 	@Override
@@ -46,14 +55,32 @@ abstract public class API06GeographicalItemFactory<T extends VersionedItem> exte
 	@Override
 	public T fetch(ID a_id, Date a_date) throws APIError
 	{
-		NavigableMap<Version,T> history = fetchHistory(a_id);
-		for(T historyEntry : history.descendingMap().values())
+		return prepare(fetchIndexedHistory(a_id).getVersionAt(a_date));
+	}
+
+	@Override
+	public Map<ID,T> fetch(ID[] a_ids, Date a_date) throws APIError
+	{
+		Hashtable<ID,T> ret = new Hashtable<ID,T>();
+		for(Map.Entry<ID,VersionedItemCache.History<T>> history : fetchIndexedHistories(a_ids).entrySet())
 		{
-			Date historyDate = historyEntry.getTimestamp();
-			if(historyDate.compareTo(a_date) <= 0)
-				return historyEntry;
+			T it = history.getValue().getVersionAt(a_date);
+			if(it != null)
+				ret.put(history.getKey(), prepare(it));
 		}
-		return null;
+		return ret;
+	}
+
+	/**
+	 * Sets the API of an object that might come from the cache.
+	 * @param a_object The object or null.
+	 * @return a_object
+	 */
+	protected T prepare(T a_object)
+	{
+		if(a_object instanceof API06XMLItem)
+			((API06XMLItem)a_object).setAPI(getAPI());
+		return a_object;
 	}
 
 	@Override
@@ -96,42 +123,95 @@ abstract public class API06GeographicalItemFactory<T extends VersionedItem> exte
 	@Override
 	public T fetch(ID a_id, Changeset a_changeset) throws APIError
 	{
-		ID changeset = a_changeset.getID();
-		NavigableMap<Version,T> history = fetchHistory(a_id);
-		for(T historyEntry : history.descendingMap().values())
-		{
-			ID entryChangeset = historyEntry.getChangeset();
-			if(entryChangeset.compareTo(changeset) < 0)
-				return historyEntry;
-		}
-		return null;
+		return prepare(fetchIndexedHistory(a_id).getVersionBefore(a_changeset.getID()));
 	}
 	
 	@Override
 	public NavigableMap<Version,T> fetchHistory(ID a_id) throws APIError
 	{
-		TreeMap<Version,T> cached = getCache().getHistory(a_id);
+		return fetchHistories(new ID[] { a_id }).get(a_id);
+	}
+
+	/**
+	 * Returns the histories of the given objects. Histories that are not cached are downloaded in parallel, the
+	 * number of simultaneous requests is limited by {@link API06API#setParallelRequests}.
+	 * <p>{@inheritDoc}
+	 */
+	@Override
+	public Map<ID,NavigableMap<Version,T>> fetchHistories(ID[] a_ids) throws APIError
+	{
+		Hashtable<ID,NavigableMap<Version,T>> ret = new Hashtable<ID,NavigableMap<Version,T>>();
+		for(Map.Entry<ID,VersionedItemCache.History<T>> history : fetchIndexedHistories(a_ids).entrySet())
+		{
+			TreeMap<Version,T> versions = history.getValue().getVersions();
+			for(T version : versions.values())
+				prepare(version);
+			ret.put(history.getKey(), versions);
+		}
+		return ret;
+	}
+
+	/**
+	 * Like {@link #fetchIndexedHistories}, but only for one object. Does not allocate anything if the history is
+	 * cached.
+	 * @param a_id The ID of the object.
+	 * @return The history of the object with its indexes.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+	protected VersionedItemCache.History<T> fetchIndexedHistory(ID a_id) throws APIError
+	{
+		VersionedItemCache.History<T> cached = getCache().getIndexedHistory(a_id);
 		if(cached != null)
+			return cached;
+		return fetchIndexedHistories(new ID[] { a_id }).get(a_id);
+	}
+
+	/**
+	 * Returns the histories of the given objects with the indexes of {@link VersionedItemCache.History}.
+	 * Histories that are not cached are downloaded in parallel. The API of the cached objects is not set.
+	 * @param a_ids The IDs of the objects.
+	 * @return The histories of the objects.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+	protected Map<ID,VersionedItemCache.History<T>> fetchIndexedHistories(ID[] a_ids) throws APIError
+	{
+		Hashtable<ID,VersionedItemCache.History<T>> ret = new Hashtable<ID,VersionedItemCache.History<T>>();
+		LinkedHashSet<ID> toFetch = new LinkedHashSet<ID>();
+		for(ID id : a_ids)
 		{
-			for(T cachedEnt : cached.values())
+			VersionedItemCache.History<T> cached = getCache().getIndexedHistory(id);
+			if(cached == null)
+				toFetch.add(id);
+			else
+				ret.put(id, cached);
+		}
+
+		if(toFetch.size() > 0)
+		{
+			ID[] ids = toFetch.toArray(new ID[toFetch.size()]);
+			String[] urls = new String[ids.length];
+			for(int i=0; i<ids.length; i++)
+				urls[i] = "/"+getType()+"/"+ids[i]+"/history";
+
+			Item[][] fetched = getAPI().get(urls);
+			for(int i=0; i<ids.length; i++)
 			{
-				if(cachedEnt instanceof API06XMLItem)
-					((API06XMLItem)cachedEnt).setAPI(getAPI());
+				TreeMap<Version,T> ordered = new TreeMap<Version,T>();
+				for(Item element : fetched[i])
+					ordered.put(((VersionedItem)element).getVersion(), (T)element);
+				if(ordered.size() < 1)
+					throw new APIError("Server sent no data for "+getType()+" "+ids[i]+".");
+
+				T lastEntry = ordered.lastEntry().getValue();
+				if(lastEntry instanceof API06GeographicalItem) // Should always be true
+					((API06GeographicalItem)lastEntry).markAsCurrent();
+
+				getCache().cacheHistory(ordered);
+				ret.put(ids[i], new VersionedItemCache.History<T>(ordered));
 			}
-			return cached;
 		}
 
-		Object[] historyElements = getAPI().get("/"+getType()+"/"+a_id+"/history");
-		TreeMap<Version,T> ordered = new TreeMap<Version,T>();
-		for(Object element : historyElements)
-			ordered.put(((VersionedItem)element).getVersion(), (T)element);
-		
-		T lastEntry = ordered.lastEntry().getValue();
-		if(lastEntry instanceof API06GeographicalItem) // Should always be true
-			((API06GeographicalItem)lastEntry).markAsCurrent();
-
-		getCache().cacheHistory(ordered);
-		return ordered;
+		return ret;
 	}
 
 	@Override
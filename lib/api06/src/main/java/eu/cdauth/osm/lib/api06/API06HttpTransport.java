@@ -0,0 +1,234 @@
+/*
+	Copyright © 2010 Candid Dauth
+
+	Permission is hereby granted, free of charge, to any person obtaining
+	a copy of this software and associated documentation files (the “Software”),
+	to deal in the Software without restriction, including without limitation
+	the rights to use, copy, modify, merge, publish, distribute, sublicense,
+	and/or sell copies of the Software, and to permit persons to whom the Software
+	is furnished to do so, subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+	INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+	PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+	HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+	OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+	SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package eu.cdauth.osm.lib.api06;
+
+import eu.cdauth.osm.lib.APIError;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Performs API requests using {@link HttpURLConnection}. The JVM keeps idle connections to the same server open
+ * and reuses them for later requests (HTTP keep-alive) as long as each response is read completely and its stream
+ * is closed, which is ensured by the streams returned by {@link #get}. The number of requests that are open at the
+ * same time is limited, further requests wait until a connection is released. The size of the JVM’s pool of idle
+ * connections per server is set by the <code>http.maxConnections</code> system property and should not be smaller
+ * than the limit of this transport.
+ */
+public class API06HttpTransport implements API06Transport
+{
+	/**
+	 * The default maximum number of simultaneous connections to the API.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+	/**
+	 * The default connect timeout in milliseconds.
+	 */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+
+	/**
+	 * The default read timeout in milliseconds. Some API requests (for example full relations) take a long time
+	 * before the first byte is sent.
+	 */
+	public static final int DEFAULT_READ_TIMEOUT = 300000;
+
+	/**
+	 * When an unread response is closed, at most this many bytes are read to make the connection reusable. Longer
+	 * responses are aborted instead.
+	 */
+	protected static final int MAX_DRAIN = 65536;
+
+	private static Logger sm_logger = Logger.getLogger(API06HttpTransport.class.getName());
+
+	private final Semaphore m_connections;
+	private int m_connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private int m_readTimeout = DEFAULT_READ_TIMEOUT;
+
+	public API06HttpTransport()
+	{
+		this(DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * @param a_maxConnections The maximum number of requests that are performed at the same time.
+	 */
+	public API06HttpTransport(int a_maxConnections)
+	{
+		if(a_maxConnections < 1)
+			throw new IllegalArgumentException("At least one connection is needed.");
+		m_connections = new Semaphore(a_maxConnections, true);
+	}
+
+	/**
+	 * Sets the connect timeout for all future requests.
+	 * @param a_timeout The timeout in milliseconds, 0 means infinite.
+	 */
+	public void setConnectTimeout(int a_timeout)
+	{
+		m_connectTimeout = a_timeout;
+	}
+
+	public int getConnectTimeout()
+	{
+		return m_connectTimeout;
+	}
+
+	/**
+	 * Sets the read timeout for all future requests.
+	 * @param a_timeout The timeout in milliseconds, 0 means infinite.
+	 */
+	public void setReadTimeout(int a_timeout)
+	{
+		m_readTimeout = a_timeout;
+	}
+
+	public int getReadTimeout()
+	{
+		return m_readTimeout;
+	}
+
+	@Override
+	public InputStream get(String a_url, String a_userAgent) throws APIError, IOException
+	{
+		try
+		{
+			m_connections.acquire();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new APIError("Thread interrupted. The operation probably took too long.", e);
+		}
+
+		boolean success = false;
+		HttpURLConnection connection = null;
+		try
+		{
+			if(sm_logger.isLoggable(Level.FINE))
+				sm_logger.fine("API call "+a_url);
+
+			connection = (HttpURLConnection) new URL(a_url).openConnection();
+			connection.setRequestMethod("GET");
+			connection.setConnectTimeout(m_connectTimeout);
+			connection.setReadTimeout(m_readTimeout);
+			connection.setRequestProperty("User-Agent", a_userAgent);
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+			connection.connect();
+
+			int code = connection.getResponseCode();
+			if(code != 200)
+			{
+				// Read the error response so that the connection can be reused
+				InputStream error = connection.getErrorStream();
+				if(error != null)
+					drain(error, connection);
+				throw new APIError("ResponseCode is "+code+" for URL "+a_url+".", new API06API.StatusCodeError(code));
+			}
+
+			InputStream raw = connection.getInputStream();
+			InputStream body = raw;
+			if("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+				body = new GZIPInputStream(raw);
+
+			InputStream ret = new ResponseStream(body, raw, connection);
+			success = true;
+			return ret;
+		}
+		finally
+		{
+			if(!success)
+			{
+				if(connection != null)
+					connection.disconnect();
+				m_connections.release();
+			}
+		}
+	}
+
+	/**
+	 * Reads the rest of a response and closes it, so that the underlying connection can be reused. If the response
+	 * is too long, the connection is closed instead.
+	 * @param a_in The raw response stream.
+	 * @param a_connection The connection the stream belongs to.
+	 */
+	protected static void drain(InputStream a_in, HttpURLConnection a_connection)
+	{
+		try
+		{
+			byte[] buffer = new byte[4096];
+			int drained = 0;
+			int read;
+			while(drained <= MAX_DRAIN && (read = a_in.read(buffer)) != -1)
+				drained += read;
+			a_in.close();
+			if(drained > MAX_DRAIN)
+				a_connection.disconnect();
+		}
+		catch(IOException e)
+		{
+			a_connection.disconnect();
+		}
+	}
+
+	/**
+	 * Wraps the response body. On closing, the rest of the response is read so that the connection can be reused,
+	 * and the connection slot is released.
+	 */
+	private class ResponseStream extends FilterInputStream
+	{
+		private final InputStream m_raw;
+		private final HttpURLConnection m_connection;
+		private boolean m_closed = false;
+
+		public ResponseStream(InputStream a_body, InputStream a_raw, HttpURLConnection a_connection)
+		{
+			super(a_body);
+			m_raw = a_raw;
+			m_connection = a_connection;
+		}
+
+		@Override
+		public synchronized void close()
+		{
+			if(m_closed)
+				return;
+			m_closed = true;
+
+			try
+			{
+				drain(m_raw, m_connection);
+			}
+			finally
+			{
+				m_connections.release();
+			}
+		}
+	}
+}
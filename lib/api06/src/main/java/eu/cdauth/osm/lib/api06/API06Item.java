@@ -22,12 +22,9 @@
 package eu.cdauth.osm.lib.api06;
 
 import eu.cdauth.osm.lib.Changeset;
-import java.util.Hashtable;
 import java.util.Map;
 
 import eu.cdauth.osm.lib.Item;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 import eu.cdauth.osm.lib.ID;
 import eu.cdauth.osm.lib.Node;
@@ -45,25 +42,18 @@ abstract public class API06Item extends API06XMLItem implements Item
 	private ID m_id = null;
 	private Map<String,String> m_tags = null;
 
-	protected API06Item(Element a_dom, API06API a_api)
+	/**
+	 * @param a_api The API that creates this object.
+	 * @param a_id The ID of this object.
+	 * @param a_tags The tags of this object. Multiple values of the same key are expected to be joined by a comma.
+	 *               The map is not copied, so it must not be modified afterwards.
+	 */
+	protected API06Item(API06API a_api, ID a_id, Map<String,String> a_tags)
 	{
-		super(a_dom, a_api);
-
-		m_id = new ID(a_dom.getAttribute("id"));
+		super(a_api);
 
-		m_tags = new Hashtable<String,String>();
-		NodeList tags = a_dom.getElementsByTagName("tag");
-		for(int i=0; i<tags.getLength(); i++)
-		{
-			if(tags.item(i).getNodeType() != org.w3c.dom.Node.ELEMENT_NODE)
-				continue;
-			Element item = (Element) tags.item(i);
-			String key = item.getAttribute("k");
-			if(m_tags.containsKey(key))
-				m_tags.put(key, m_tags.get(key)+","+item.getAttribute("v"));
-			else
-				m_tags.put(key, item.getAttribute("v"));
-		}
+		m_id = a_id;
+		m_tags = a_tags;
 	}
 	
 	/**
@@ -46,6 +46,19 @@ abstract public class API06ItemFactory<T extends Item> implements ItemFactory<T>
 		return m_cache;
 	}
 	
+	/**
+	 * Returns the current version of an object if it is cached, without contacting the API.
+	 * @param a_id The ID of the object.
+	 * @return The cached object or null if it is not cached.
+	 */
+	public T getCached(ID a_id)
+	{
+		T cached = getCache().getObject(a_id);
+		if(cached instanceof API06XMLItem)
+			((API06XMLItem)cached).setAPI(getAPI());
+		return cached;
+	}
+	
 	protected String getType()
 	{
 		return m_type;
@@ -56,27 +69,43 @@ abstract public class API06ItemFactory<T extends Item> implements ItemFactory<T>
 		return m_api;
 	}
 	
-	protected String makeFetchURL(ID[] a_ids)
+	/**
+	 * Makes the API URLs to fetch the given objects. If multiple objects are requested, they are split up into as
+	 * few multi-fetch requests as possible whose URLs do not exceed {@link API06API#getMaxURLLength}.
+	 * @param a_ids The IDs of the objects to fetch.
+	 * @return The URLs to fetch, for example "/node/1" or "/nodes/?nodes=1,2,3"
+	 */
+	protected String[] makeFetchURLs(ID[] a_ids)
 	{
 		if(a_ids.length == 1)
-			return "/"+getType()+"/"+a_ids[0];
-		else
+			return new String[] { "/"+getType()+"/"+a_ids[0] };
+
+		String prefix = "/"+getType()+"s/?"+getType()+"s=";
+		int maxLength = getAPI().getMaxURLLength()-getAPI().getAPIPrefix().length();
+		ArrayList<String> ret = new ArrayList<String>();
+		StringBuilder url = new StringBuilder(prefix);
+		for(ID id : a_ids)
 		{
-			StringBuilder url = new StringBuilder("/"+getType()+"s/?"+getType()+"s=");
-			for(int i=0; i<a_ids.length; i++)
+			String idString = id.toString();
+			boolean first = (url.length() == prefix.length());
+			if(!first && url.length()+1+idString.length() > maxLength)
 			{
-				if(i > 0) url.append(',');
-				url.append(a_ids[i]);
+				ret.add(url.toString());
+				url.setLength(prefix.length());
+				first = true;
 			}
-			return url.toString();
+			if(!first) url.append(',');
+			url.append(idString);
 		}
+		ret.add(url.toString());
+		return ret.toArray(new String[ret.size()]);
 	}
 
 	@Override
 	public Map<ID,T> fetch(ID[] a_ids) throws APIError
 	{
 		Hashtable<ID,T> ret = new Hashtable<ID,T>();
-		ArrayList<ID> toFetch = new ArrayList<ID>();
+		LinkedHashSet<ID> toFetch = new LinkedHashSet<ID>();
 		for(ID id : a_ids)
 		{
 			T cached = getCache().getObject(id);
@@ -92,11 +121,15 @@ abstract public class API06ItemFactory<T extends Item> implements ItemFactory<T>
 		
 		if(toFetch.size() > 0)
 		{
-			Item[] fetched = getAPI().get(makeFetchURL(toFetch.toArray(new ID[toFetch.size()])));
-			for(Item it : fetched)
+			// Large requests are split up into several requests that are performed in parallel
+			Item[][] fetched = getAPI().get(makeFetchURLs(toFetch.toArray(new ID[toFetch.size()])));
+			for(Item[] chunk : fetched)
 			{
-				ret.put(it.getID(), (T)it);
-				getCache().cacheObject((T)it);
+				for(Item it : chunk)
+				{
+					ret.put(it.getID(), (T)it);
+					getCache().cacheObject((T)it);
+				}
 			}
 		}
 		
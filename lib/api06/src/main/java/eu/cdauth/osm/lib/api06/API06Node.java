@@ -21,16 +21,17 @@
 
 package eu.cdauth.osm.lib.api06;
 
-import org.w3c.dom.Element;
-
 import eu.cdauth.osm.lib.APIError;
 import eu.cdauth.osm.lib.ID;
 import eu.cdauth.osm.lib.Item;
 import eu.cdauth.osm.lib.LonLat;
 import eu.cdauth.osm.lib.Node;
+import eu.cdauth.osm.lib.Version;
 import eu.cdauth.osm.lib.VersionedItemCache;
 import eu.cdauth.osm.lib.Way;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
 
 /**
  * Represents a Node in OpenStreetMap.
@@ -41,11 +42,11 @@ public class API06Node extends API06GeographicalItem implements Node
 	private LonLat m_lonlat = null;
 	private ID[] m_containingWays = null;
 
-	protected API06Node(Element a_dom, API06API a_api)
+	protected API06Node(API06API a_api, ID a_id, Map<String,String> a_tags, Date a_timestamp, Version a_version, ID a_changeset, LonLat a_lonlat)
 	{
-		super(a_dom, a_api);
+		super(a_api, a_id, a_tags, a_timestamp, a_version, a_changeset);
 
-		m_lonlat = new LonLat(Double.parseDouble(a_dom.getAttribute("lon")), Double.parseDouble(a_dom.getAttribute("lat")));
+		m_lonlat = a_lonlat;
 	}
 
 	@Override
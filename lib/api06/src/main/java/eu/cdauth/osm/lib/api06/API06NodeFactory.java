@@ -21,15 +21,105 @@
 
 package eu.cdauth.osm.lib.api06;
 
+import eu.cdauth.osm.lib.APIError;
+import eu.cdauth.osm.lib.ID;
+import eu.cdauth.osm.lib.LonLat;
+import eu.cdauth.osm.lib.LonLatStore;
 import eu.cdauth.osm.lib.Node;
 import eu.cdauth.osm.lib.NodeFactory;
+import eu.cdauth.osm.lib.Version;
+import eu.cdauth.osm.lib.VersionedItemCache;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class API06NodeFactory extends API06GeographicalItemFactory<Node> implements NodeFactory
 {
 	protected static final String TYPE = "node";
 
+	/**
+	 * The coordinates of the current versions of all cached nodes, they stay available when the nodes are evicted
+	 * from the cache. null if {@link LonLatStore#MAX_SIZE} is 0.
+	 */
+	private final LonLatStore m_lonLatStore = (LonLatStore.MAX_SIZE > 0 ? new LonLatStore(LonLatStore.MAX_SIZE) : null);
+
 	protected API06NodeFactory(API06API a_api)
 	{
 		super(a_api, TYPE);
 	}
+
+	@Override
+	protected VersionedItemCache<Node> makeCache()
+	{
+		return new VersionedItemCache<Node>() {
+			@Override
+			public void cacheObject(Node a_object)
+			{
+				super.cacheObject(a_object);
+				if(a_object.isCurrent())
+					storeLonLat(a_object);
+			}
+
+			@Override
+			public void cacheHistory(TreeMap<Version,Node> a_history)
+			{
+				super.cacheHistory(a_history);
+				if(a_history.size() > 0 && a_history.lastEntry().getValue().isCurrent())
+					storeLonLat(a_history.lastEntry().getValue());
+			}
+		};
+	}
+
+	private void storeLonLat(Node a_node)
+	{
+		Long id = a_node.getID().asLong();
+		if(m_lonLatStore != null && id != null)
+			m_lonLatStore.put(id, a_node.getLonLat());
+	}
+
+	/**
+	 * Looks up the coordinates of the current version of a node in the coordinate store and in the cache.
+	 * @param a_id The ID of the node.
+	 * @return The coordinates or null if the node is not cached.
+	 */
+	protected LonLat getCachedLonLat(ID a_id)
+	{
+		Long id = a_id.asLong();
+		if(m_lonLatStore != null && id != null)
+		{
+			LonLat ret = m_lonLatStore.get(id, getCache().getMaxAge());
+			if(ret != null)
+				return ret;
+		}
+		Node cached = getCache().getObject(a_id);
+		return (cached == null ? null : cached.getLonLat());
+	}
+
+	@Override
+	public LonLat[] fetchLonLat(ID[] a_ids) throws APIError
+	{
+		LonLat[] ret = new LonLat[a_ids.length];
+		ArrayList<ID> toFetch = new ArrayList<ID>();
+		for(int i=0; i<a_ids.length; i++)
+		{
+			ret[i] = getCachedLonLat(a_ids[i]);
+			if(ret[i] == null)
+				toFetch.add(a_ids[i]);
+		}
+
+		if(toFetch.size() > 0)
+		{
+			Map<ID,Node> fetched = fetch(toFetch.toArray(new ID[toFetch.size()]));
+			for(int i=0; i<a_ids.length; i++)
+			{
+				if(ret[i] != null)
+					continue;
+				Node node = fetched.get(a_ids[i]);
+				if(node != null)
+					ret[i] = node.getLonLat();
+			}
+		}
+
+		return ret;
+	}
 }
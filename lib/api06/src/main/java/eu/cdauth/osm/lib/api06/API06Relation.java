@@ -21,30 +21,128 @@
 
 package eu.cdauth.osm.lib.api06;
 
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import eu.cdauth.osm.lib.*;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 import eu.cdauth.osm.lib.GeographicalItem;
 import java.util.Arrays;
 
 public class API06Relation extends API06GeographicalItem implements Relation
 {
+	/**
+	 * How many results of {@link #getRecursiveMembers} are remembered per relation version. The callers usually
+	 * ask for the different member types of the same date one after another.
+	 */
+	protected static final int RECURSIVE_MEMBERS_CACHE_SIZE = 4;
+
 	private API06RelationMember[] m_members = null;
 
-	protected API06Relation(Element a_dom, API06API a_api)
+	/**
+	 * Maps the time of {@link #getRecursiveMembers} calls (null for the current versions) to their results. The
+	 * results are only softly referenced, as they are not counted in the weight of the object caches and this
+	 * relation object may stay reachable after it has been evicted.
+	 */
+	private transient Map<Long,SoftReference<RecursiveMembers>> m_recursiveMembers = null;
+
+	/**
+	 * The result of walking through the members of a relation and all of its sub-relations, split by type.
+	 */
+	public static class RecursiveMembers
+	{
+		private final Date m_date;
+		private final long m_created = System.currentTimeMillis();
+		private final GeographicalItem[] m_members;
+		private final Node[] m_nodes;
+		private final Way[] m_ways;
+		private final Relation[] m_relations;
+		private Segment[] m_segments = null;
+
+		protected RecursiveMembers(Date a_date, HashSet<GeographicalItem> a_members)
+		{
+			m_date = a_date;
+			m_members = a_members.toArray(new GeographicalItem[a_members.size()]);
+
+			ArrayList<Node> nodes = new ArrayList<Node>();
+			ArrayList<Way> ways = new ArrayList<Way>();
+			ArrayList<Relation> relations = new ArrayList<Relation>();
+			for(GeographicalItem member : m_members)
+			{
+				if(member instanceof Node)
+					nodes.add((Node) member);
+				else if(member instanceof Way)
+					ways.add((Way) member);
+				else if(member instanceof Relation)
+					relations.add((Relation) member);
+			}
+			m_nodes = nodes.toArray(new Node[nodes.size()]);
+			m_ways = ways.toArray(new Way[ways.size()]);
+			m_relations = relations.toArray(new Relation[relations.size()]);
+		}
+
+		public GeographicalItem[] getMembers()
+		{
+			return Arrays.copyOf(m_members, m_members.length);
+		}
+
+		public Node[] getNodes()
+		{
+			return Arrays.copyOf(m_nodes, m_nodes.length);
+		}
+
+		public Way[] getWays()
+		{
+			return Arrays.copyOf(m_ways, m_ways.length);
+		}
+
+		public Relation[] getRelations()
+		{
+			return Arrays.copyOf(m_relations, m_relations.length);
+		}
+
+		/**
+		 * Returns the ways converted to segments and the nodes as segments with two identical points.
+		 * @return The segments, calculated on the first call.
+		 * @throws APIError There was an error communicating with the API
+		 * @see Relation#getSegmentsRecursive
+		 */
+		public synchronized Segment[] getSegments() throws APIError
+		{
+			if(m_segments == null)
+			{
+				HashSet<Segment> ret = new HashSet<Segment>();
+
+				for(Node node : m_nodes)
+					ret.add(new Segment(node, node));
+
+				for(Way way : m_ways)
+				{
+					Node[] members = way.getMemberNodes(m_date);
+					Node lastNode = null;
+					for(Node member : members)
+					{
+						if(lastNode != null)
+							ret.add(new Segment(lastNode, member));
+						lastNode = member;
+					}
+				}
+
+				m_segments = ret.toArray(new Segment[ret.size()]);
+			}
+			return Arrays.copyOf(m_segments, m_segments.length);
+		}
+	}
+
+	protected API06Relation(API06API a_api, ID a_id, Map<String,String> a_tags, Date a_timestamp, Version a_version, ID a_changeset, API06RelationMember[] a_members)
 	{
-		super(a_dom, a_api);
+		super(a_api, a_id, a_tags, a_timestamp, a_version, a_changeset);
 
-		NodeList members = a_dom.getElementsByTagName("member");
-		m_members = new API06RelationMember[members.getLength()];
-		for(int i=0; i<members.getLength(); i++)
-			m_members[i] = new API06RelationMember((Element) members.item(i), getAPI(), getID());
+		m_members = a_members;
 	}
 
 	@Override
@@ -72,6 +170,8 @@ public class API06Relation extends API06GeographicalItem implements Relation
 		
 		if(a_date == null)
 			getAPI().getRelationFactory().downloadFull(getID());
+		else
+			fetchMemberHistories();
 
 		for(API06RelationMember it : getMembers())
 		{
@@ -89,83 +189,108 @@ public class API06Relation extends API06GeographicalItem implements Relation
 			}
 			else if(type.equals(Relation.class) && !a_ignoreRelations.contains(id))
 			{
-				a_members.add(a_date == null ? getAPI().getRelationFactory().fetch(id) : getAPI().getRelationFactory().fetch(id, a_date));
-				if(a_date == null)
-					((API06Relation)getAPI().getRelationFactory().fetch(id)).getMembersRecursive(a_date, a_members, a_ignoreRelations);
-				else
-					((API06Relation)getAPI().getRelationFactory().fetch(id, a_date)).getMembersRecursive(a_date, a_members, a_ignoreRelations);
+				Relation obj = (a_date == null ? getAPI().getRelationFactory().fetch(id) : getAPI().getRelationFactory().fetch(id, a_date));
+				a_members.add(obj);
+				((API06Relation)obj).getMembersRecursive(a_date, a_members, a_ignoreRelations);
 			}
 		}
 		return a_members;
 	}
+
+	/**
+	 * Downloads the histories of all members that are not cached yet at once, so that fetching the members for a
+	 * date does not make one request per member.
+	 * @throws APIError There was an error communicating with the API
+	 */
+	private void fetchMemberHistories() throws APIError
+	{
+		ArrayList<ID> nodes = new ArrayList<ID>();
+		ArrayList<ID> ways = new ArrayList<ID>();
+		ArrayList<ID> relations = new ArrayList<ID>();
+		for(API06RelationMember it : m_members)
+		{
+			Class<? extends GeographicalItem> type = it.getType();
+			if(type.equals(Node.class))
+				nodes.add(it.getReferenceID());
+			else if(type.equals(Way.class))
+				ways.add(it.getReferenceID());
+			else if(type.equals(Relation.class))
+				relations.add(it.getReferenceID());
+		}
+		getAPI().getNodeFactory().fetchHistories(nodes.toArray(new ID[nodes.size()]));
+		getAPI().getWayFactory().fetchHistories(ways.toArray(new ID[ways.size()]));
+		getAPI().getRelationFactory().fetchHistories(relations.toArray(new ID[relations.size()]));
+	}
+
+	/**
+	 * Walks once through this relation and all of its sub-relations and returns the members split by type.
+	 * The result is remembered for this relation version and the given date, so subsequent calls of
+	 * {@link #getMembersRecursive(Date)}, {@link #getNodesRecursive}, {@link #getWaysRecursive},
+	 * {@link #getRelationsRecursive} and {@link #getSegmentsRecursive} with the same date do not walk through
+	 * the relations again. The results expire after the maximum age of the relation cache, also the ones for a
+	 * date, which may be in the future. They may be discarded earlier when memory is low.
+	 * @param a_date The date to use to fetch the members. Set to null to fetch the current member versions.
+	 * @return The members of this relation and its sub-relations.
+	 * @throws APIError There was an error communicating with the API
+	 */
+	public RecursiveMembers getRecursiveMembers(Date a_date) throws APIError
+	{
+		Long key = (a_date == null ? null : a_date.getTime());
+		synchronized(this)
+		{
+			if(m_recursiveMembers != null)
+			{
+				SoftReference<RecursiveMembers> ref = m_recursiveMembers.get(key);
+				RecursiveMembers cached = (ref == null ? null : ref.get());
+				if(cached != null && System.currentTimeMillis()-cached.m_created < getAPI().getRelationFactory().getCache().getMaxAge()*1000L)
+					return cached;
+			}
+		}
+
+		RecursiveMembers ret = new RecursiveMembers(a_date, getMembersRecursive(a_date, null, null));
+		synchronized(this)
+		{
+			if(m_recursiveMembers == null)
+			{
+				m_recursiveMembers = new LinkedHashMap<Long,SoftReference<RecursiveMembers>>(RECURSIVE_MEMBERS_CACHE_SIZE*2, 0.75f, true) {
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<Long,SoftReference<RecursiveMembers>> a_eldest)
+					{
+						return size() > RECURSIVE_MEMBERS_CACHE_SIZE;
+					}
+				};
+			}
+			m_recursiveMembers.put(key, new SoftReference<RecursiveMembers>(ret));
+		}
+		return ret;
+	}
 	
 	@Override
 	public GeographicalItem[] getMembersRecursive(Date a_date) throws APIError
 	{
-		Set<GeographicalItem> ret = getMembersRecursive(a_date, null, null);
-		return ret.toArray(new GeographicalItem[ret.size()]);
+		return getRecursiveMembers(a_date).getMembers();
 	}
 
 	@Override
 	public Way[] getWaysRecursive(Date a_date) throws APIError
 	{
-		HashSet<GeographicalItem> members = getMembersRecursive(a_date, null, null);
-		ArrayList<Way> ret = new ArrayList<Way>();
-		for(GeographicalItem member : members)
-		{
-			if(member instanceof Way)
-				ret.add((Way) member);
-		}
-		return ret.toArray(new Way[ret.size()]);
+		return getRecursiveMembers(a_date).getWays();
 	}
 
 	@Override
 	public Node[] getNodesRecursive(Date a_date) throws APIError
 	{
-		HashSet<GeographicalItem> members = getMembersRecursive(a_date, null, null);
-		ArrayList<Node> ret = new ArrayList<Node>();
-		for(GeographicalItem member : members)
-		{
-			if(member instanceof Node)
-				ret.add((Node) member);
-		}
-		return ret.toArray(new Node[ret.size()]);
+		return getRecursiveMembers(a_date).getNodes();
 	}
 	
 	public Relation[] getRelationsRecursive(Date a_date) throws APIError
 	{
-		HashSet<GeographicalItem> members = getMembersRecursive(a_date, null, null);
-		ArrayList<Relation> ret = new ArrayList<Relation>();
-		for(GeographicalItem member : members)
-		{
-			if(member instanceof Relation)
-				ret.add((Relation) member);
-		}
-		return ret.toArray(new Relation[ret.size()]);
+		return getRecursiveMembers(a_date).getRelations();
 	}
 
 	@Override
 	public Segment[] getSegmentsRecursive(Date a_date) throws APIError
 	{
-		HashSet<Segment> ret = new HashSet<Segment>();
-
-		Node[] nodes = getNodesRecursive(a_date);
-		for(Node node : nodes)
-			ret.add(new Segment(node, node));
-		
-		Way[] ways = getWaysRecursive(a_date);
-		for(Way way : ways)
-		{
-			Node[] members = way.getMemberNodes(a_date);
-			Node lastNode = null;
-			for(Node member : members)
-			{
-				if(lastNode != null)
-					ret.add(new Segment(lastNode, member));
-				lastNode = member;
-			}
-		}
-		
-		return ret.toArray(new Segment[ret.size()]);
+		return getRecursiveMembers(a_date).getSegments();
 	}
 }
@@ -21,8 +21,6 @@
 
 package eu.cdauth.osm.lib.api06;
 
-import org.w3c.dom.Element;
-
 import eu.cdauth.osm.lib.GeographicalItem;
 import eu.cdauth.osm.lib.ID;
 import eu.cdauth.osm.lib.Node;
@@ -37,14 +35,14 @@ public class API06RelationMember extends API06XMLItem implements RelationMember
 	private ID m_relationID = null;
 	private String m_role = null;
 	
-	protected API06RelationMember(Element a_dom, API06API a_api, ID a_relation)
+	protected API06RelationMember(API06API a_api, ID a_relation, String a_type, ID a_referenceID, String a_role)
 	{
-		super(a_dom, a_api);
+		super(a_api);
 
 		m_relationID = a_relation;
-		m_type = a_dom.getAttribute("type");
-		m_referenceID = new ID(a_dom.getAttribute("ref"));
-		m_role = a_dom.getAttribute("role");
+		m_type = a_type;
+		m_referenceID = a_referenceID;
+		m_role = a_role;
 	}
 
 	@Override
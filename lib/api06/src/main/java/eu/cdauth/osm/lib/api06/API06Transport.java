@@ -0,0 +1,46 @@
+/*
+	Copyright © 2010 Candid Dauth
+
+	Permission is hereby granted, free of charge, to any person obtaining
+	a copy of this software and associated documentation files (the “Software”),
+	to deal in the Software without restriction, including without limitation
+	the rights to use, copy, modify, merge, publish, distribute, sublicense,
+	and/or sell copies of the Software, and to permit persons to whom the Software
+	is furnished to do so, subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+	INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+	PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+	HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+	OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+	SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package eu.cdauth.osm.lib.api06;
+
+import eu.cdauth.osm.lib.APIError;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Performs the HTTP requests of an {@link API06API}. The default implementation is {@link API06HttpTransport},
+ * other implementations can serve the responses from a local mirror or from fixed test data.
+ */
+public interface API06Transport
+{
+	/**
+	 * Performs a HTTP GET request.
+	 * @param a_url The full URL to request.
+	 * @param a_userAgent The value of the User-Agent HTTP request header.
+	 * @return The (already decompressed) body of the response. It has to be closed after use, this may return the
+	 *         connection to a pool.
+	 * @throws APIError The server sent an invalid status code, in this case the cause is an
+	 *                  {@link API06API.StatusCodeError}, or the request was interrupted.
+	 * @throws IOException There was a connection problem.
+	 */
+	public InputStream get(String a_url, String a_userAgent) throws APIError, IOException;
+}
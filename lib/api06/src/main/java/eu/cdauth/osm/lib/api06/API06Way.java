@@ -22,14 +22,13 @@
 package eu.cdauth.osm.lib.api06;
 
 import java.util.Date;
-
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import java.util.Map;
 
 import eu.cdauth.osm.lib.APIError;
 import eu.cdauth.osm.lib.ID;
 import eu.cdauth.osm.lib.LonLat;
 import eu.cdauth.osm.lib.Node;
+import eu.cdauth.osm.lib.Version;
 import eu.cdauth.osm.lib.Way;
 import java.util.Arrays;
 
@@ -37,14 +36,11 @@ public class API06Way extends API06GeographicalItem implements Way
 {
 	private ID[] m_members = null;
 
-	protected API06Way(Element a_dom, API06API a_api)
+	protected API06Way(API06API a_api, ID a_id, Map<String,String> a_tags, Date a_timestamp, Version a_version, ID a_changeset, ID[] a_members)
 	{
-		super(a_dom, a_api);
+		super(a_api, a_id, a_tags, a_timestamp, a_version, a_changeset);
 
-		NodeList members = a_dom.getElementsByTagName("nd");
-		m_members = new ID[members.getLength()];
-		for(int i=0; i<members.getLength(); i++)
-			m_members[i] = new ID(((Element)members.item(i)).getAttribute("ref"));
+		m_members = a_members;
 	}
 	
 	/**
@@ -63,30 +59,36 @@ public class API06Way extends API06GeographicalItem implements Way
 		if(a_date != null)
 			getAPI().getWayFactory().downloadFull(getID());
 		ID[] members = getMembers();
+		Map<ID,Node> nodes = (a_date == null ? getAPI().getNodeFactory().fetch(members) : getAPI().getNodeFactory().fetch(members, a_date));
 		Node[] ret = new Node[members.length];
 		for(int i=0; i<members.length; i++)
-			ret[i] = (a_date == null ? getAPI().getNodeFactory().fetch(members[i]) : getAPI().getNodeFactory().fetch(members[i], a_date));
+			ret[i] = nodes.get(members[i]);
 		return ret;
 	}
 	
+	@Override
+	public LonLat[] getMemberLonLats() throws APIError
+	{
+		return getAPI().getNodeFactory().fetchLonLat(m_members);
+	}
+	
 	@Override
 	public LonLat getRoundaboutCentre() throws APIError
 	{
-		Node[] nodes = getMemberNodes(null);
+		if(m_members.length < 1 || (m_members.length > 1 && !m_members[0].equals(m_members[m_members.length-1])))
+			return null;
+
+		LonLat[] nodes = getMemberLonLats();
 		
 		if(nodes.length == 1)
-			return nodes[0].getLonLat();
-
-		if(nodes.length < 1 || !nodes[0].equals(nodes[nodes.length-1]))
-			return null;
+			return nodes[0];
 		
 		double lon_sum = 0;
 		double lat_sum = 0;
 		for(int i=0; i<nodes.length-1; i++)
 		{
-			LonLat lonlat = nodes[i].getLonLat();
-			lon_sum += lonlat.getLon();
-			lat_sum += lonlat.getLat();
+			lon_sum += nodes[i].getLon();
+			lat_sum += nodes[i].getLat();
 		}
 		
 		return new LonLat(lon_sum/(nodes.length-1), lat_sum/(nodes.length-1));
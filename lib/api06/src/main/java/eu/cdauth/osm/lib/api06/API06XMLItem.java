@@ -21,23 +21,20 @@
 
 package eu.cdauth.osm.lib.api06;
 
-import org.w3c.dom.Element;
-
 import java.io.*;
 
 /**
- * Abstract class for all objects whose information is saved in an XML DOM element.
+ * Abstract class for all objects that are created from the XML responses of the API.
  */
 abstract public class API06XMLItem implements Serializable
 {
 	private transient API06API m_api;
 	
 	/**
-	 * @param a_dom The DOM element.
 	 * @param a_api The API that creates this object.
 	*/
 
-	protected API06XMLItem(Element a_dom, API06API a_api)
+	protected API06XMLItem(API06API a_api)
 	{
 		m_api = a_api;
 	}
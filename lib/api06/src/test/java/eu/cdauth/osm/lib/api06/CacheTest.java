@@ -0,0 +1,164 @@
+/*
+	Copyright © 2010 Candid Dauth
+
+	Permission is hereby granted, free of charge, to any person obtaining
+	a copy of this software and associated documentation files (the “Software”),
+	to deal in the Software without restriction, including without limitation
+	the rights to use, copy, modify, merge, publish, distribute, sublicense,
+	and/or sell copies of the Software, and to permit persons to whom the Software
+	is furnished to do so, subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+	INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+	PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+	HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+	OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+	SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package eu.cdauth.osm.lib.api06;
+
+import eu.cdauth.osm.lib.ConcurrentLongMap;
+import eu.cdauth.osm.lib.ID;
+import eu.cdauth.osm.lib.LonLat;
+import eu.cdauth.osm.lib.LonLatStore;
+import eu.cdauth.osm.lib.Node;
+import eu.cdauth.osm.lib.Version;
+import eu.cdauth.osm.lib.VersionedItemCache;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CacheTest
+{
+	public static API06Node makeNode(long a_id, long a_version)
+	{
+		API06Node ret = new API06Node(XMLReadTest.sm_api, new ID(Long.valueOf(a_id)), new Hashtable<String,String>(), new Date(), new Version(Long.valueOf(a_version)), new ID(Long.valueOf(1)), new LonLat(0, 0));
+		ret.markAsCurrent();
+		return ret;
+	}
+
+	@Test
+	public void eviction() throws Exception
+	{
+		VersionedItemCache<Node> cache = new VersionedItemCache<Node>();
+		cache.setMaxWeight(100);
+
+		Node popular = makeNode(0, 1);
+		cache.cacheObject(popular);
+		for(int i=0; i<10; i++)
+		{
+			assertSame(cache.getObject(popular.getID()), popular);
+			assertSame(cache.getObject(popular.getID(), new Version(Long.valueOf(1))), popular);
+		}
+		cache.setMaxWeight(100); // Configuring the same limit again keeps the access frequencies
+
+		for(int i=1; i<=1000; i++)
+			cache.cacheObject(makeNode(i, 1));
+
+		int cached = 0;
+		for(int i=1; i<=1000; i++)
+		{
+			if(cache.getObject(new ID(Long.valueOf(i))) != null)
+				cached++;
+		}
+		assertTrue(cached <= 110);
+		assertSame(cache.getObject(popular.getID()), popular);
+		assertSame(cache.getObject(popular.getID(), new Version(Long.valueOf(1))), popular);
+	}
+
+	@Test
+	public void maxAge() throws Exception
+	{
+		VersionedItemCache<Node> cache = new VersionedItemCache<Node>();
+		Node node = makeNode(1, 2);
+		cache.cacheObject(node);
+		assertSame(cache.getObject(node.getID()), node);
+
+		cache.setMaxAge(-1);
+		assertNull(cache.getObject(node.getID()));
+		assertNull(cache.getHistory(node.getID()));
+	}
+
+	@Test
+	public void longKeys() throws Exception
+	{
+		ConcurrentLongMap<String> map = new ConcurrentLongMap<String>();
+		long[] keys = new long[] { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 32, 4711 };
+		for(long key : keys)
+			assertNull(map.put(key, Long.toString(key)));
+		for(int i=1; i<=10000; i++)
+			assertNull(map.putIfAbsent(i*65536L, "x"));
+		assertEquals(keys.length+10000, map.size());
+		for(long key : keys)
+			assertEquals(Long.toString(key), map.get(key));
+
+		String value = map.get(5*65536L);
+		assertFalse(map.replace(5*65536L, "y", "z"));
+		assertTrue(map.replace(5*65536L, value, "z"));
+		for(int i=1; i<=10000; i+=2)
+			assertTrue(map.remove(i*65536L, map.get(i*65536L)));
+		assertEquals(keys.length+5000, map.size());
+		for(int i=1; i<=10000; i++)
+			assertEquals(i%2 == 0 ? "x" : null, map.get(i*65536L));
+		for(long key : keys)
+			assertEquals(Long.toString(key), map.get(key));
+		assertEquals(map.size(), map.values().size());
+	}
+
+	@Test
+	public void lonLatStore() throws Exception
+	{
+		LonLatStore store = new LonLatStore(5000);
+		for(int i=1; i<=4000; i++)
+			store.put(i, new LonLat(i/1000D-180, 90-i/1000D));
+		assertEquals(4000, store.size());
+		for(int i=1; i<=4000; i++)
+			assertEquals(new LonLat(i/1000D-180, 90-i/1000D), store.get(i, Integer.MAX_VALUE));
+		assertNull(store.get(4001, Integer.MAX_VALUE));
+		assertNull(store.get(1, -1));
+
+		store.put(1, new LonLat(13.3888599, 52.5170365));
+		assertEquals(new LonLat(13.3888599, 52.5170365), store.get(1, Integer.MAX_VALUE));
+		assertEquals(4000, store.size());
+
+		for(int i=4001; i<=5001; i++)
+			store.put(i, new LonLat(0, 0));
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	public void historyIndex() throws Exception
+	{
+		TreeMap<Version,Node> history = new TreeMap<Version,Node>();
+		for(long i=1; i<=5; i++)
+		{
+			history.put(new Version(i), new API06Node(XMLReadTest.sm_api, new ID(Long.valueOf(1)), new Hashtable<String,String>(),
+				new Date(i*1000), new Version(i), new ID(i*10), new LonLat(0, 0)));
+		}
+		((API06Node)history.lastEntry().getValue()).markAsCurrent();
+
+		VersionedItemCache<Node> cache = new VersionedItemCache<Node>();
+		cache.cacheHistory(history);
+		VersionedItemCache.History<Node> indexed = cache.getIndexedHistory(new ID(Long.valueOf(1)));
+		assertNotNull(indexed);
+		assertNull(indexed.getVersionAt(new Date(999)));
+		assertEquals(indexed.getVersionAt(new Date(1000)).getVersion(), new Version(1L));
+		assertEquals(indexed.getVersionAt(new Date(3500)).getVersion(), new Version(3L));
+		assertEquals(indexed.getVersionAt(new Date(99000)).getVersion(), new Version(5L));
+		assertNull(indexed.getVersionBefore(new ID(10L)));
+		assertEquals(indexed.getVersionBefore(new ID(11L)).getVersion(), new Version(1L));
+		assertEquals(indexed.getVersionBefore(new ID(50L)).getVersion(), new Version(4L));
+
+		// Version 2 is missing, so the history is incomplete
+		history.remove(new Version(2L));
+		cache.cacheHistory(history);
+		assertNull(cache.getHistory(new ID(Long.valueOf(1))));
+		assertNotNull(cache.getObject(new ID(Long.valueOf(1)), new Version(3L)));
+	}
+}
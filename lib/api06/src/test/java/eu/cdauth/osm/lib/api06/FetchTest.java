@@ -0,0 +1,210 @@
+/*
+	Copyright © 2010 Candid Dauth
+
+	Permission is hereby granted, free of charge, to any person obtaining
+	a copy of this software and associated documentation files (the “Software”),
+	to deal in the Software without restriction, including without limitation
+	the rights to use, copy, modify, merge, publish, distribute, sublicense,
+	and/or sell copies of the Software, and to permit persons to whom the Software
+	is furnished to do so, subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+	INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+	PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+	HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+	OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+	SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package eu.cdauth.osm.lib.api06;
+
+import eu.cdauth.osm.lib.APIError;
+import eu.cdauth.osm.lib.ID;
+import eu.cdauth.osm.lib.Node;
+import eu.cdauth.osm.lib.Relation;
+import eu.cdauth.osm.lib.Version;
+import eu.cdauth.osm.lib.Way;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FetchTest
+{
+	@Test
+	public void chunkedFetch() throws Exception
+	{
+		StubTransport transport = new StubTransport();
+		API06API api = new API06API(StubTransport.PREFIX, transport);
+		api.setMaxURLLength(200);
+
+		ID[] ids = new ID[1000];
+		for(int i=0; i<ids.length; i++)
+			ids[i] = new ID(Long.valueOf(i+1));
+
+		Map<ID,Node> nodes = api.getNodeFactory().fetch(ids);
+		assertEquals(nodes.size(), ids.length);
+		for(ID id : ids)
+			assertEquals(nodes.get(id).getID(), id);
+
+		assertTrue(transport.urls.size() > 1);
+		for(String url : transport.urls)
+			assertTrue(url.length() <= 200);
+
+		// Everything is cached now
+		int requests = transport.urls.size();
+		api.getNodeFactory().fetch(ids);
+		assertEquals(transport.urls.size(), requests);
+	}
+
+	@Test
+	public void sharedRequest() throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		StubTransport transport = new StubTransport() {
+			@Override
+			public InputStream get(String a_url, String a_userAgent) throws APIError, IOException
+			{
+				started.countDown();
+				try
+				{
+					release.await();
+				}
+				catch(InterruptedException e)
+				{
+					throw new APIError("Interrupted", e);
+				}
+				return super.get(a_url, a_userAgent);
+			}
+		};
+		final API06API api = new API06API(StubTransport.PREFIX, transport);
+		final Node[] results = new Node[2];
+
+		Thread first = new Thread() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					results[0] = api.getNodeFactory().fetch(new ID("5"));
+				}
+				catch(APIError e)
+				{
+				}
+			}
+		};
+		Thread second = new Thread() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					results[1] = api.getNodeFactory().fetch(new ID("5"));
+				}
+				catch(APIError e)
+				{
+				}
+			}
+		};
+
+		first.start();
+		started.await();
+		second.start();
+		while(second.getState() != Thread.State.WAITING)
+			Thread.sleep(10);
+		release.countDown();
+		first.join();
+		second.join();
+
+		assertEquals(transport.urls.size(), 1);
+		assertNotNull(results[0]);
+		assertSame(results[0], results[1]);
+	}
+
+	@Test
+	public void recursiveMembers() throws Exception
+	{
+		StubTransport transport = new StubTransport() {
+			@Override
+			public InputStream get(String a_url, String a_userAgent) throws APIError, IOException
+			{
+				String xml;
+				if(a_url.equals(PREFIX+"/relation/1/full"))
+				{
+					xml = "<relation id=\"1\" version=\"1\" changeset=\"1\" timestamp=\"2010-01-01T00:00:00Z\">"
+						+ "<member type=\"node\" ref=\"1\" role=\"\"/><member type=\"way\" ref=\"10\" role=\"\"/><member type=\"relation\" ref=\"2\" role=\"\"/></relation>"
+						+ "<way id=\"10\" version=\"1\" changeset=\"1\" timestamp=\"2010-01-01T00:00:00Z\"><nd ref=\"1\"/><nd ref=\"2\"/></way>"
+						+ "<relation id=\"2\" version=\"1\" changeset=\"1\" timestamp=\"2010-01-01T00:00:00Z\"><member type=\"way\" ref=\"11\" role=\"\"/></relation>";
+				}
+				else if(a_url.equals(PREFIX+"/relation/2/full"))
+				{
+					xml = "<relation id=\"2\" version=\"1\" changeset=\"1\" timestamp=\"2010-01-01T00:00:00Z\"><member type=\"way\" ref=\"11\" role=\"\"/></relation>"
+						+ "<way id=\"11\" version=\"1\" changeset=\"1\" timestamp=\"2010-01-01T00:00:00Z\"><nd ref=\"2\"/><nd ref=\"3\"/></way>";
+				}
+				else
+					return super.get(a_url, a_userAgent);
+
+				urls.add(a_url);
+				return new ByteArrayInputStream(("<osm version=\"0.6\">"+xml+"</osm>").getBytes("UTF-8"));
+			}
+		};
+		API06API api = new API06API(StubTransport.PREFIX, transport);
+		api.getRelationFactory().downloadFull(new ID("1"));
+		API06Relation relation = (API06Relation)api.getRelationFactory().fetch(new ID("1"));
+
+		API06Relation.RecursiveMembers members = relation.getRecursiveMembers(null);
+		assertEquals(members.getMembers().length, 4);
+		assertEquals(members.getNodes().length, 1);
+		assertEquals(members.getWays().length, 2);
+		assertEquals(members.getRelations().length, 1);
+		assertEquals(relation.getSegmentsRecursive(null).length, 3);
+
+		// The traversal is only done once
+		int requests = transport.urls.size();
+		assertSame(relation.getRecursiveMembers(null), members);
+		Way[] ways = relation.getWaysRecursive(null);
+		Relation[] relations = relation.getRelationsRecursive(null);
+		assertEquals(ways.length, 2);
+		assertEquals(relations[0].getID(), new ID("2"));
+		assertEquals(relation.getSegmentsRecursive(null).length, 3);
+		assertEquals(transport.urls.size(), requests);
+
+		// Remembered results expire with the relation cache
+		api.getRelationFactory().getCache().setMaxAge(0);
+		assertNotSame(relation.getRecursiveMembers(null), members);
+	}
+
+	@Test
+	public void histories() throws Exception
+	{
+		StubTransport transport = new StubTransport();
+		API06API api = new API06API(StubTransport.PREFIX, transport);
+
+		ID[] ids = new ID[50];
+		for(int i=0; i<ids.length; i++)
+			ids[i] = new ID(Long.valueOf(i+1));
+
+		Map<ID,NavigableMap<Version,Node>> histories = api.getNodeFactory().fetchHistories(ids);
+		assertEquals(histories.size(), ids.length);
+		for(ID id : ids)
+			assertEquals(histories.get(id).size(), 2);
+		assertEquals(transport.urls.size(), ids.length);
+
+		// The histories are cached now
+		Map<ID,Node> nodes = api.getNodeFactory().fetch(ids, new SimpleDateFormat("yyyy-MM-dd").parse("2009-06-01"));
+		assertEquals(nodes.size(), ids.length);
+		for(Node node : nodes.values())
+			assertEquals(node.getVersion(), new Version(1L));
+		assertEquals(api.getNodeFactory().fetch(ids, new SimpleDateFormat("yyyy-MM-dd").parse("2008-06-01")).size(), 0);
+		assertEquals(transport.urls.size(), ids.length);
+	}
+}
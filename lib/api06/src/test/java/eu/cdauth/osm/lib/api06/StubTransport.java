@@ -0,0 +1,79 @@
+/*
+	Copyright © 2010 Candid Dauth
+
+	Permission is hereby granted, free of charge, to any person obtaining
+	a copy of this software and associated documentation files (the “Software”),
+	to deal in the Software without restriction, including without limitation
+	the rights to use, copy, modify, merge, publish, distribute, sublicense,
+	and/or sell copies of the Software, and to permit persons to whom the Software
+	is furnished to do so, subject to the following conditions:
+
+	The above copyright notice and this permission notice shall be included in all
+	copies or substantial portions of the Software.
+
+	THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+	INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+	PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+	HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+	OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+	SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package eu.cdauth.osm.lib.api06;
+
+import eu.cdauth.osm.lib.APIError;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers multi-fetch and history requests for nodes with generated nodes and remembers the requested URLs.
+ */
+public class StubTransport implements API06Transport
+{
+	public static final String PREFIX = "http://localhost/api/0.6";
+
+	public final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+
+	@Override
+	public InputStream get(String a_url, String a_userAgent) throws APIError, IOException
+	{
+		urls.add(a_url);
+
+		String request = a_url.substring(PREFIX.length());
+		if(request.startsWith("/node/") && request.endsWith("/history"))
+		{
+			String id = request.substring("/node/".length(), request.length()-"/history".length());
+			StringBuilder xml = new StringBuilder("<osm version=\"0.6\" generator=\"StubTransport\">");
+			for(int version=1; version<=2; version++)
+			{
+				xml.append("<node id=\"").append(id).append("\" lat=\"").append(version).append("\" lon=\"").append(version)
+					.append("\" version=\"").append(version).append("\" changeset=\"").append(version)
+					.append("\" user=\"test\" uid=\"1\" visible=\"true\" timestamp=\"").append(2008+version).append("-01-01T00:00:00Z\"/>");
+			}
+			xml.append("</osm>");
+			return new ByteArrayInputStream(xml.toString().getBytes("UTF-8"));
+		}
+
+		String[] ids;
+		if(request.startsWith("/nodes/?nodes="))
+			ids = request.substring("/nodes/?nodes=".length()).split(",");
+		else if(request.startsWith("/node/"))
+			ids = new String[] { request.substring("/node/".length()) };
+		else
+			throw new APIError("ResponseCode is 404 for URL "+a_url+".", new API06API.StatusCodeError(404));
+
+		StringBuilder xml = new StringBuilder("<osm version=\"0.6\" generator=\"StubTransport\">");
+		for(String id : ids)
+		{
+			long number = Long.parseLong(id);
+			xml.append("<node id=\"").append(id).append("\" lat=\"").append(number%90).append("\" lon=\"").append(number%180)
+				.append("\" version=\"1\" changeset=\"1\" user=\"test\" uid=\"1\" visible=\"true\" timestamp=\"2010-01-01T00:00:00Z\"/>");
+		}
+		xml.append("</osm>");
+		return new ByteArrayInputStream(xml.toString().getBytes("UTF-8"));
+	}
+}
@@ -22,17 +22,13 @@
 package eu.cdauth.osm.lib.api06;
 
 import eu.cdauth.osm.lib.Item;
+import eu.cdauth.osm.lib.Way;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.List;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamReader;
 import org.junit.Test;
 import static org.junit.Assert.*;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 public class XMLReadTest
 {
@@ -40,21 +36,9 @@ public class XMLReadTest
 
 	public static API06Item makeItem(String a_xml) throws Exception
 	{
-		Document dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(a_xml.getBytes("UTF-8")));
-		Element root = null;
-		NodeList nodes = dom.getChildNodes();
-		for(int i=0; i<nodes.getLength(); i++)
-		{
-			if(nodes.item(i).getNodeType() != org.w3c.dom.Node.ELEMENT_NODE)
-				continue;
-			root = (Element) nodes.item(i);
-			break;
-		}
-
-		if(root == null)
-			throw new IOException("No root element.");
-
-		List<Item> items = sm_api.makeObjects(root);
+		XMLStreamReader reader = API06API.makeXMLReader(new ByteArrayInputStream(a_xml.getBytes("UTF-8")));
+		List<Item> items = sm_api.makeObjects(reader);
+		reader.close();
 		if(items.size() < 1)
 			throw new IOException("No items.");
 
@@ -86,4 +70,45 @@ public class XMLReadTest
 		assertEquals(node.getTag("tourism"), "camp_site");
 		assertEquals(node.getTag("name"), "Bariş Camping");
 	}
+
+	@Test
+	public void way() throws Exception
+	{
+		API06Way way = (API06Way)makeItem("<osm version=\"0.6\" generator=\"OpenStreetMap server\">" +
+			"<way id=\"4711\" visible=\"true\" timestamp=\"2009-01-02T03:04:05Z\" version=\"3\" changeset=\"1234\" user=\"test\" uid=\"1\">" +
+			"<nd ref=\"1\"/>" +
+			"<nd ref=\"2\"/>" +
+			"<nd ref=\"3\"/>" +
+			"<tag k=\"highway\" v=\"residential\"/>" +
+			"</way>" +
+			"</osm>");
+
+		assertEquals(way.getID().asLong().longValue(), 4711L);
+		assertEquals(way.getVersion().asLong().longValue(), 3L);
+		assertEquals(way.getMembers().length, 3);
+		assertEquals(way.getMembers()[2].asLong().longValue(), 3L);
+		assertEquals(way.getTag("highway"), "residential");
+	}
+
+	@Test
+	public void relation() throws Exception
+	{
+		API06Relation relation = (API06Relation)makeItem("<osm version=\"0.6\" generator=\"OpenStreetMap server\">" +
+			"<node id=\"1\" version=\"1\" visible=\"false\" changeset=\"1\" timestamp=\"2009-01-02T03:04:05Z\"/>" +
+			"<relation id=\"42\" visible=\"true\" timestamp=\"2009-01-02T03:04:05Z\" version=\"5\" changeset=\"1234\" user=\"test\" uid=\"1\">" +
+			"<member type=\"way\" ref=\"4711\" role=\"forward\"/>" +
+			"<member type=\"node\" ref=\"1\" role=\"\"/>" +
+			"<tag k=\"type\" v=\"route\"/>" +
+			"<tag k=\"ref\" v=\"A\"/>" +
+			"<tag k=\"ref\" v=\"B\"/>" +
+			"</relation>" +
+			"</osm>");
+
+		assertEquals(relation.getID().asLong().longValue(), 42L);
+		assertEquals(relation.getMembers().length, 2);
+		assertEquals(relation.getMembers()[0].getType(), Way.class);
+		assertEquals(relation.getMembers()[0].getReferenceID().asLong().longValue(), 4711L);
+		assertEquals(relation.getMembers()[0].getRole(), "forward");
+		assertEquals(relation.getTag("ref"), "A,B");
+	}
 }
@@ -0,0 +1,368 @@
+/*
+	This file is in the public domain, furnished “as is”, without technical
+	support, and with no warranty, express or implied, as to its usefulness for
+	any purpose.
+*/
+
+package eu.cdauth.osm.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe hash map with primitive <code>long</code> keys, used by {@link ItemCache} to index objects by their
+ * numeric ID without allocating wrapper objects.
+ *
+ * <p>The map is split up into a fixed number of segments, each of which is an open-addressing table with linear
+ * probing. Writes lock only their segment. Reads do not lock: each segment has a sequence number that is odd while
+ * it is being modified, a read is retried if the sequence number was odd or has changed while reading. After a few
+ * failed attempts the read falls back to locking the segment.
+ *
+ * <p>null values are not supported.
+ * @author cdauth
+ */
+public class ConcurrentLongMap<V>
+{
+	/**
+	 * The number of segments, must be a power of two.
+	 */
+	protected static final int SEGMENTS = 16;
+
+	/**
+	 * The initial number of slots per segment, must be a power of two.
+	 */
+	protected static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The number of optimistic read attempts before a read locks the segment.
+	 */
+	protected static final int READ_ATTEMPTS = 4;
+
+	private static final class Table
+	{
+		public final AtomicLongArray keys;
+		public final AtomicReferenceArray<Object> values;
+		public final int mask;
+
+		public Table(int a_capacity)
+		{
+			keys = new AtomicLongArray(a_capacity);
+			values = new AtomicReferenceArray<Object>(a_capacity);
+			mask = a_capacity-1;
+		}
+	}
+
+	private static final class Segment
+	{
+		/**
+		 * Is incremented before and after each modification, so it is odd while the segment is being modified.
+		 */
+		public volatile int sequence = 0;
+		public volatile Table table = new Table(INITIAL_CAPACITY);
+		public volatile int size = 0;
+
+		/**
+		 * Looks up the slot of a key. Only consistent if the segment is not modified at the same time.
+		 * @return The slot index or -1.
+		 */
+		public int find(Table a_table, long a_key, int a_hash)
+		{
+			int idx = a_hash & a_table.mask;
+			for(int i=0; i<=a_table.mask; i++)
+			{
+				if(a_table.values.get(idx) == null)
+					return -1;
+				if(a_table.keys.get(idx) == a_key)
+					return idx;
+				idx = (idx+1) & a_table.mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Sets the value of a key. Must be called while the segment is locked and marked as being modified.
+		 */
+		public void set(long a_key, int a_hash, Object a_value)
+		{
+			if((size+1)*4 > table.values.length()*3)
+				resize();
+
+			Table t = table;
+			int idx = a_hash & t.mask;
+			while(true)
+			{
+				Object value = t.values.get(idx);
+				if(value == null)
+				{
+					t.keys.set(idx, a_key);
+					t.values.set(idx, a_value);
+					size = size+1;
+					return;
+				}
+				if(t.keys.get(idx) == a_key)
+				{
+					t.values.set(idx, a_value);
+					return;
+				}
+				idx = (idx+1) & t.mask;
+			}
+		}
+
+		/**
+		 * Removes the entry in a slot, moving back the following entries so that no gaps are left in their probe
+		 * sequences. Must be called while the segment is locked and marked as being modified.
+		 */
+		public void removeSlot(int a_idx)
+		{
+			Table t = table;
+			int free = a_idx;
+			int idx = a_idx;
+			while(true)
+			{
+				idx = (idx+1) & t.mask;
+				Object value = t.values.get(idx);
+				if(value == null)
+					break;
+				long key = t.keys.get(idx);
+				int ideal = hash(key) & t.mask;
+				// Move the entry to the free slot if the free slot lies cyclically between its ideal slot and its slot
+				boolean move = (free <= idx) ? (ideal <= free || ideal > idx) : (ideal <= free && ideal > idx);
+				if(move)
+				{
+					t.keys.set(free, key);
+					t.values.set(free, value);
+					free = idx;
+				}
+			}
+			t.values.set(free, null);
+			size = size-1;
+		}
+
+		private void resize()
+		{
+			Table old = table;
+			Table t = new Table(old.values.length()*2);
+			for(int i=0; i<old.values.length(); i++)
+			{
+				Object value = old.values.get(i);
+				if(value == null)
+					continue;
+				long key = old.keys.get(i);
+				int idx = hash(key) & t.mask;
+				while(t.values.get(idx) != null)
+					idx = (idx+1) & t.mask;
+				t.keys.set(idx, key);
+				t.values.set(idx, value);
+			}
+			table = t;
+		}
+	}
+
+	private final Segment[] m_segments;
+
+	public ConcurrentLongMap()
+	{
+		m_segments = new Segment[SEGMENTS];
+		for(int i=0; i<m_segments.length; i++)
+			m_segments[i] = new Segment();
+	}
+
+	/**
+	 * Spreads the bits of a key.
+	 * @param a_key The key.
+	 * @return A hash code whose lower bits are used for the slots and whose upper bits select the segment.
+	 */
+	protected static int hash(long a_key)
+	{
+		long h = a_key*0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	private Segment segmentFor(int a_hash)
+	{
+		return m_segments[(a_hash >>> 28) & (SEGMENTS-1)];
+	}
+
+	/**
+	 * Returns the value of a key.
+	 * @param a_key The key.
+	 * @return The value or null if the key is not in the map.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long a_key)
+	{
+		int hash = hash(a_key);
+		Segment segment = segmentFor(hash);
+		for(int i=0; i<READ_ATTEMPTS; i++)
+		{
+			int sequence = segment.sequence;
+			if((sequence & 1) != 0)
+			{
+				Thread.yield();
+				continue;
+			}
+			Table table = segment.table;
+			int idx = segment.find(table, a_key, hash);
+			Object ret = (idx == -1 ? null : table.values.get(idx));
+			if(segment.sequence == sequence)
+				return (V)ret;
+		}
+
+		synchronized(segment)
+		{
+			Table table = segment.table;
+			int idx = segment.find(table, a_key, hash);
+			return (V)(idx == -1 ? null : table.values.get(idx));
+		}
+	}
+
+	/**
+	 * Sets the value of a key.
+	 * @param a_key The key.
+	 * @param a_value The new value, not null.
+	 * @return The previous value or null.
+	 */
+	public V put(long a_key, V a_value)
+	{
+		int hash = hash(a_key);
+		Segment segment = segmentFor(hash);
+		synchronized(segment)
+		{
+			V old = get(a_key);
+			segment.sequence++;
+			try
+			{
+				segment.set(a_key, hash, a_value);
+			}
+			finally
+			{
+				segment.sequence++;
+			}
+			return old;
+		}
+	}
+
+	/**
+	 * Sets the value of a key if the key is not in the map yet.
+	 * @param a_key The key.
+	 * @param a_value The new value, not null.
+	 * @return The existing value or null if the value has been set.
+	 */
+	public V putIfAbsent(long a_key, V a_value)
+	{
+		int hash = hash(a_key);
+		Segment segment = segmentFor(hash);
+		synchronized(segment)
+		{
+			V old = get(a_key);
+			if(old != null)
+				return old;
+			segment.sequence++;
+			try
+			{
+				segment.set(a_key, hash, a_value);
+			}
+			finally
+			{
+				segment.sequence++;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Replaces the value of a key if it is currently set to a specific value.
+	 * @param a_key The key.
+	 * @param a_old The expected current value (compared by identity).
+	 * @param a_new The new value, not null.
+	 * @return true if the value has been replaced.
+	 */
+	public boolean replace(long a_key, V a_old, V a_new)
+	{
+		int hash = hash(a_key);
+		Segment segment = segmentFor(hash);
+		synchronized(segment)
+		{
+			if(get(a_key) != a_old)
+				return false;
+			segment.sequence++;
+			try
+			{
+				segment.set(a_key, hash, a_new);
+			}
+			finally
+			{
+				segment.sequence++;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Removes a key if it is currently set to a specific value.
+	 * @param a_key The key.
+	 * @param a_value The expected current value (compared by identity).
+	 * @return true if the key has been removed.
+	 */
+	public boolean remove(long a_key, V a_value)
+	{
+		int hash = hash(a_key);
+		Segment segment = segmentFor(hash);
+		synchronized(segment)
+		{
+			Table table = segment.table;
+			int idx = segment.find(table, a_key, hash);
+			if(idx == -1 || table.values.get(idx) != a_value)
+				return false;
+			segment.sequence++;
+			try
+			{
+				segment.removeSlot(idx);
+			}
+			finally
+			{
+				segment.sequence++;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the number of keys in the map.
+	 * @return The number of keys.
+	 */
+	public int size()
+	{
+		int ret = 0;
+		for(Segment segment : m_segments)
+			ret += segment.size;
+		return ret;
+	}
+
+	/**
+	 * Returns a snapshot of the values of the map. Each segment is copied consistently, but other segments may be
+	 * modified meanwhile.
+	 * @return A new list of the values.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values()
+	{
+		List<V> ret = new ArrayList<V>(size());
+		for(Segment segment : m_segments)
+		{
+			synchronized(segment)
+			{
+				Table table = segment.table;
+				for(int i=0; i<table.values.length(); i++)
+				{
+					Object value = table.values.get(i);
+					if(value != null)
+						ret.add((V)value);
+				}
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+	This file is in the public domain, furnished “as is”, without technical
+	support, and with no warranty, express or implied, as to its usefulness for
+	any purpose.
+*/
+
+package eu.cdauth.osm.lib;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Estimates how often keys have been accessed recently, using a count-min sketch of 4-bit counters. The counters of
+ * all keys are halved after a number of accesses that is ten times the expected number of keys, so that the
+ * estimates reflect recent popularity. Used by {@link ItemCache} to decide which entries are worth keeping.
+ *
+ * <p>Counting does not lock, lost updates under heavy contention only make the estimates slightly less accurate.
+ * @author cdauth
+ */
+public class FrequencySketch
+{
+	/**
+	 * The maximum number of longs in the table (16 counters each).
+	 */
+	protected static final int MAX_TABLE_SIZE = 1 << 20;
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	private final AtomicLongArray m_table;
+	private final int m_counterMask;
+	private final int m_sampleSize;
+	private final AtomicInteger m_additions = new AtomicInteger(0);
+
+	/**
+	 * @param a_expectedKeys The number of keys that are expected to be counted at the same time.
+	 */
+	public FrequencySketch(long a_expectedKeys)
+	{
+		int size = 1;
+		while(size < MAX_TABLE_SIZE && size*4L < a_expectedKeys)
+			size <<= 1;
+		m_table = new AtomicLongArray(size);
+		m_counterMask = size*16-1;
+		m_sampleSize = (int)(Math.min(Integer.MAX_VALUE/20, Math.max(a_expectedKeys, 16))*10);
+	}
+
+	private int counterIndex(int a_hash, int a_depth)
+	{
+		long hash = (a_hash+SEEDS[a_depth])*SEEDS[a_depth];
+		hash += hash >>> 32;
+		return ((int)hash) & m_counterMask;
+	}
+
+	/**
+	 * Counts an access to a key.
+	 * @param a_hash The hash code of the key.
+	 */
+	public void increment(int a_hash)
+	{
+		boolean added = false;
+		for(int i=0; i<SEEDS.length; i++)
+		{
+			int counter = counterIndex(a_hash, i);
+			int index = counter >>> 4;
+			int offset = (counter & 15) << 2;
+			while(true)
+			{
+				long value = m_table.get(index);
+				if(((value >>> offset) & 15) == 15)
+					break;
+				if(m_table.compareAndSet(index, value, value+(1L << offset)))
+				{
+					added = true;
+					break;
+				}
+			}
+		}
+
+		if(added && m_additions.incrementAndGet() == m_sampleSize)
+			reset();
+	}
+
+	/**
+	 * Returns the estimated number of recent accesses to a key.
+	 * @param a_hash The hash code of the key.
+	 * @return The estimated frequency, between 0 and 15.
+	 */
+	public int frequency(int a_hash)
+	{
+		int ret = 15;
+		for(int i=0; i<SEEDS.length; i++)
+		{
+			int counter = counterIndex(a_hash, i);
+			ret = Math.min(ret, (int)((m_table.get(counter >>> 4) >>> ((counter & 15) << 2)) & 15));
+		}
+		return ret;
+	}
+
+	/**
+	 * Halves all counters, so that old accesses count less than new ones.
+	 */
+	protected void reset()
+	{
+		for(int i=0; i<m_table.length(); i++)
+		{
+			while(true)
+			{
+				long value = m_table.get(i);
+				if(m_table.compareAndSet(i, value, (value >>> 1) & RESET_MASK))
+					break;
+			}
+		}
+		m_additions.set(0);
+	}
+}
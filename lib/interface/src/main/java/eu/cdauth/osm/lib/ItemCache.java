@@ -7,13 +7,29 @@
 package eu.cdauth.osm.lib;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * With this class you can easily cache OSM objects you retrieved from the API and that are not versioned. There
- * is a maximum number of cached values {@link #MAX_CACHED_VALUES} and a maximum age {@link #MAX_AGE}. Run
- * {@link #cleanUpAll} regularly to apply these limits.
+ * is a maximum weight of cached values {@link #getMaxWeight} (by default every entry weighs 1, so this is the maximum
+ * number of entries) and a maximum age {@link #getMaxAge}.
+ *
+ * <p>Entries that are older than the maximum age are not returned anymore, so that current versions of objects are
+ * downloaded again after some time when an instance of this class is shared by many tasks over a long time.
+ *
+ * <p>When the cache grows beyond its maximum weight, entries are evicted. A small window of the most recently used
+ * entries is always kept, of the other entries those that have been used least frequently (estimated by a
+ * {@link FrequencySketch}) are evicted first. This keeps objects that are needed by many tasks (for example the
+ * members of popular routes) while objects that were only needed once are dropped. A background thread applies the
+ * limits every {@link #CLEANUP_INTERVAL} seconds, the maximum weight is additionally enforced when objects are
+ * cached.
+ *
+ * <p>The defaults of the limits can be set using the system properties <code>eu.cdauth.osm.lib.ItemCache.maxWeight</code>,
+ * <code>eu.cdauth.osm.lib.ItemCache.maxAge</code>, <code>eu.cdauth.osm.lib.ItemCache.cleanupInterval</code> and
+ * <code>eu.cdauth.osm.lib.ItemCache.softReferences</code>.
  * 
  * <p>This class is to be used by the API implementations. These should check if objects are cached before fetching
  * them from the API. As this class looks up cached objects only by their ID, you need multiple instances for different
@@ -23,67 +39,433 @@ import java.util.logging.Logger;
 
 public class ItemCache<T extends Item>
 {
-	protected static interface Reference<T>
+	private final static boolean USE_SOFT_REFERENCES = Boolean.getBoolean(ItemCache.class.getName()+".softReferences");
+
+	/**
+	 * How many entries (or rather how much weight) may be in the cache by default?
+	 */
+	public static final int MAX_CACHED_VALUES = Integer.getInteger(ItemCache.class.getName()+".maxWeight", 500000);
+	/**
+	 * How old may the entries in the cache be at most by default? (seconds)
+	 */
+	public static final int MAX_AGE = Integer.getInteger(ItemCache.class.getName()+".maxAge", Integer.MAX_VALUE);
+
+	/**
+	 * The interval in seconds how often the maintenance thread cleans up all caches.
+	 */
+	public static final int CLEANUP_INTERVAL = Integer.getInteger(ItemCache.class.getName()+".cleanupInterval", 60);
+
+	/**
+	 * The share of the maximum weight that is reserved for the most recently used entries, which are never evicted
+	 * in favour of more frequently used ones.
+	 */
+	protected static final double WINDOW_SHARE = 0.01;
+
+	/**
+	 * The share of the maximum weight that the cache may exceed before entries are evicted while caching objects.
+	 * Evicting in batches keeps the sorting effort per cached object low.
+	 */
+	protected static final double EVICTION_SLACK = 0.1;
+
+	private static final Logger sm_logger = Logger.getLogger(ItemCache.class.getName());
+
+	/**
+	 * All instances of this class, for {@link #cleanUpAll}.
+	 */
+	private static final Map<ItemCache,Object> sm_instances = new WeakHashMap<ItemCache,Object>();
+
+	private static MaintenanceThread sm_maintenanceThread = null;
+
+	private volatile int m_maxAge = MAX_AGE;
+
+	private volatile long m_maxWeight = MAX_CACHED_VALUES;
+
+	/**
+	 * An entry of the cache: the numeric ID of the object, the cached value (held by a soft reference if
+	 * {@link #USE_SOFT_REFERENCES} is set), the time stamp ({@link System#currentTimeMillis()}) when it was saved to
+	 * the cache, which is needed for all clean up methods, and the time of the last access.
+	 */
+	protected static class Entry<V>
 	{
-		public T get();
+		public final long key;
+		private final V m_value;
+		private final java.lang.ref.SoftReference<V> m_softValue;
+		public final int weight;
+		public volatile long time;
+		public volatile long accessTime;
+
+		public Entry(long a_key, V a_value, int a_weight, long a_time)
+		{
+			key = a_key;
+			if(USE_SOFT_REFERENCES)
+			{
+				m_value = null;
+				m_softValue = new java.lang.ref.SoftReference<V>(a_value);
+			}
+			else
+			{
+				m_value = a_value;
+				m_softValue = null;
+			}
+			weight = a_weight;
+			time = a_time;
+			accessTime = a_time;
+		}
+
+		/**
+		 * Returns the cached value.
+		 * @return The value or null if it has been garbage-collected.
+		 */
+		public V get()
+		{
+			return (m_softValue == null ? m_value : m_softValue.get());
+		}
 	}
 
-	protected static class SoftReference<T> extends java.lang.ref.SoftReference<T> implements Reference<T>
+	/**
+	 * A map of cache entries that keeps track of their total weight and of the access frequencies of their keys, and
+	 * evicts entries when it is too big. The entries are indexed by the numeric IDs of the objects in a
+	 * {@link ConcurrentLongMap}, so lookups neither lock nor allocate objects, updates only lock a part of the map.
+	 */
+	protected class EntryMap<V>
 	{
-		public SoftReference(T referent)
+		private final ConcurrentLongMap<Entry<V>> m_map = new ConcurrentLongMap<Entry<V>>();
+		private final AtomicLong m_weight = new AtomicLong(0);
+		private final ReentrantLock m_evictionLock = new ReentrantLock();
+		private volatile FrequencySketch m_sketch;
+
+		public EntryMap()
 		{
-			super(referent);
+			m_sketch = new FrequencySketch(getMaxWeight());
+		}
+
+		/**
+		 * Returns the weight of a value, by default 1.
+		 * @param a_value The value to weigh.
+		 * @return The weight, at least 1.
+		 */
+		protected int weigh(V a_value)
+		{
+			return 1;
+		}
+
+		public int size()
+		{
+			return m_map.size();
+		}
+
+		public long getWeight()
+		{
+			return m_weight.get();
+		}
+
+		protected void resize()
+		{
+			m_sketch = new FrequencySketch(getMaxWeight());
+		}
+
+		/**
+		 * Looks up an entry and counts the access.
+		 * @param a_id The ID of the entry.
+		 * @return The entry or null.
+		 */
+		public Entry<V> get(long a_id)
+		{
+			m_sketch.increment(hash(a_id));
+			Entry<V> ret = m_map.get(a_id);
+			if(ret != null)
+				ret.accessTime = System.currentTimeMillis();
+			return ret;
+		}
+
+		/**
+		 * Looks up an entry without counting it as an access.
+		 * @param a_id The ID of the entry.
+		 * @return The entry or null.
+		 */
+		public Entry<V> peek(long a_id)
+		{
+			return m_map.get(a_id);
+		}
+
+		public Entry<V> makeEntry(long a_id, V a_value, long a_time)
+		{
+			return new Entry<V>(a_id, a_value, Math.max(1, weigh(a_value)), a_time);
+		}
+
+		/**
+		 * Replaces an entry if it has not been changed in the meantime.
+		 * @param a_id The ID of the entry.
+		 * @param a_old The entry that is expected to be in the map, null if none is expected.
+		 * @param a_new The new entry.
+		 * @return true if the entry has been replaced, false if the map contained a different entry.
+		 */
+		public boolean replace(long a_id, Entry<V> a_old, Entry<V> a_new)
+		{
+			if(a_old == null ? m_map.putIfAbsent(a_id, a_new) == null : m_map.replace(a_id, a_old, a_new))
+			{
+				m_weight.addAndGet(a_new.weight-(a_old == null ? 0 : a_old.weight));
+				afterWrite();
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Sets an entry regardless of the previous one.
+		 * @param a_id The ID of the entry.
+		 * @param a_new The new entry.
+		 */
+		public void put(long a_id, Entry<V> a_new)
+		{
+			Entry<V> old = m_map.put(a_id, a_new);
+			m_weight.addAndGet(a_new.weight-(old == null ? 0 : old.weight));
+			afterWrite();
+		}
+
+		private boolean remove(long a_id, Entry<V> a_entry)
+		{
+			if(m_map.remove(a_id, a_entry))
+			{
+				m_weight.addAndGet(-a_entry.weight);
+				return true;
+			}
+			return false;
+		}
+
+		private void afterWrite()
+		{
+			long maxWeight = getMaxWeight();
+			if(m_weight.get()-(long)(maxWeight*EVICTION_SLACK) > maxWeight && m_evictionLock.tryLock()) // Subtract to avoid an overflow for huge maximum weights
+			{
+				try
+				{
+					cleanUp(false);
+				}
+				finally
+				{
+					m_evictionLock.unlock();
+				}
+			}
+		}
+
+		/**
+		 * Removes expired entries and evicts entries until the weight does not exceed {@link #getMaxWeight}.
+		 * @param a_completely If set to true, all entries are removed.
+		 * @return The number of removed entries.
+		 */
+		public int cleanUp(boolean a_completely)
+		{
+			m_evictionLock.lock();
+			try
+			{
+				int affected = 0;
+
+				List<Entry<V>> entries = m_map.values();
+				List<Entry<V>> candidates = new ArrayList<Entry<V>>(entries.size());
+				for(Entry<V> entry : entries)
+				{
+					if(a_completely || isExpired(entry.time) || entry.get() == null)
+					{
+						if(remove(entry.key, entry))
+							affected++;
+					}
+					else
+						candidates.add(entry);
+				}
+
+				long maxWeight = getMaxWeight();
+				if(m_weight.get() <= maxWeight)
+					return affected;
+
+				// Sort by access time (the time might change while sorting, so a snapshot is used)
+				final Map<Entry<V>,Long> accessTimes = new IdentityHashMap<Entry<V>,Long>(candidates.size());
+				for(Entry<V> it : candidates)
+					accessTimes.put(it, it.accessTime);
+				Collections.sort(candidates, new Comparator<Entry<V>>() {
+					@Override
+					public int compare(Entry<V> a_entry1, Entry<V> a_entry2)
+					{
+						return accessTimes.get(a_entry2).compareTo(accessTimes.get(a_entry1));
+					}
+				});
+
+				// The most recently used entries form the window that is kept in any case, the others are evicted
+				// by their access frequency, and by their last access if the frequency is the same.
+				long windowWeight = (long)(maxWeight*WINDOW_SHARE);
+				int windowEnd = 0;
+				long weight = 0;
+				while(windowEnd < candidates.size() && weight+candidates.get(windowEnd).weight <= windowWeight)
+					weight += candidates.get(windowEnd++).weight;
+
+				List<Entry<V>> main = candidates.subList(windowEnd, candidates.size());
+				final FrequencySketch sketch = m_sketch;
+				final Map<Entry<V>,Integer> frequencies = new IdentityHashMap<Entry<V>,Integer>(main.size());
+				for(Entry<V> it : main)
+					frequencies.put(it, sketch.frequency(hash(it.key)));
+				Collections.sort(main, new Comparator<Entry<V>>() {
+					@Override
+					public int compare(Entry<V> a_entry1, Entry<V> a_entry2)
+					{
+						int ret = frequencies.get(a_entry1).compareTo(frequencies.get(a_entry2));
+						if(ret == 0)
+							ret = accessTimes.get(a_entry1).compareTo(accessTimes.get(a_entry2));
+						return ret;
+					}
+				});
+
+				for(Entry<V> it : main)
+				{
+					if(m_weight.get() <= maxWeight)
+						break;
+					if(remove(it.key, it))
+						affected++;
+				}
+
+				return affected;
+			}
+			finally
+			{
+				m_evictionLock.unlock();
+			}
 		}
 	}
 
-	protected static class StrongReference<T> implements Reference<T>
+	/**
+	 * Regularly cleans up all instances of this class.
+	 */
+	protected static class MaintenanceThread extends Thread
 	{
-		private final T m_referent;
-
-		public StrongReference(T referent)
+		public MaintenanceThread()
 		{
-			m_referent = referent;
+			super("osmrmhv item cache maintenance");
+			setDaemon(true);
 		}
 
 		@Override
-		public T get()
+		public void run()
 		{
-			return m_referent;
+			try
+			{
+				while(true)
+				{
+					Thread.sleep(CLEANUP_INTERVAL*1000L);
+					cleanUpAll();
+				}
+			}
+			catch(InterruptedException e)
+			{
+			}
 		}
 	}
 
-	private final static boolean USE_SOFT_REFERENCES = false; //!System.getProperty("java.vm.name").equals("GNU libgcj");
+	/**
+	 * The cached objects.
+	 */
+	private final EntryMap<T> m_cache = new EntryMap<T>();
+
+	static
+	{
+		if(sm_logger.isLoggable(Level.INFO))
+			sm_logger.info((USE_SOFT_REFERENCES ? "Using" : "Not using")+" soft references for caching.");
+	}
+
+	/**
+	 * Creates a cache that stores several items in the memory.
+	 */
+	public ItemCache()
+	{
+		synchronized(sm_instances)
+		{
+			sm_instances.put(this, null);
+			if(sm_maintenanceThread == null)
+			{
+				sm_maintenanceThread = new MaintenanceThread();
+				sm_maintenanceThread.start();
+			}
+		}
+	}
 
 	/**
-	 * How many entries may be in the cache?
+	 * Cleans up all instances of this class, see {@link #cleanUpMemory}.
 	 */
-	public static final int MAX_CACHED_VALUES = Integer.MAX_VALUE; //USE_SOFT_REFERENCES ? Integer.MAX_VALUE : 500;
+	public static void cleanUpAll()
+	{
+		ItemCache[] instances;
+		synchronized(sm_instances)
+		{
+			instances = sm_instances.keySet().toArray(new ItemCache[sm_instances.size()]);
+		}
+		for(ItemCache instance : instances)
+		{
+			try
+			{
+				instance.cleanUpMemory(false);
+			}
+			catch(RuntimeException e)
+			{
+				sm_logger.log(Level.WARNING, "Could not clean up cache.", e);
+			}
+		}
+	}
+
 	/**
-	 * How old may the entries in the cache be at most? (seconds)
+	 * Sets the maximum age of the entries of this cache. Older entries are not returned anymore and are removed
+	 * by {@link #cleanUpAll}.
+	 * @param a_maxAge The maximum age in seconds.
 	 */
-	public static final int MAX_AGE = Integer.MAX_VALUE;
+	public void setMaxAge(int a_maxAge)
+	{
+		m_maxAge = a_maxAge;
+	}
 
-	private static final Logger sm_logger = Logger.getLogger(ItemCache.class.getName());
+	/**
+	 * Returns the maximum age of the entries of this cache.
+	 * @return The maximum age in seconds.
+	 */
+	public int getMaxAge()
+	{
+		return m_maxAge;
+	}
 
-	private final Map<ID,Reference<T>> m_cache = new Hashtable<ID,Reference<T>>();
+	/**
+	 * Sets the maximum total weight of the entries of this cache. When it is exceeded, entries are evicted. A
+	 * different maximum weight resets the access frequencies that are used to decide which entries to evict.
+	 * @param a_maxWeight The maximum weight, by default the maximum number of entries.
+	 */
+	public void setMaxWeight(long a_maxWeight)
+	{
+		if(a_maxWeight == m_maxWeight)
+			return;
+		m_maxWeight = a_maxWeight;
+		resize();
+	}
 
 	/**
-	 * Caches the time stamp ({@link System#currentTimeMillis()}) when a entry is saved to the cache. Needed for all
-	 * clean up methods.
+	 * Returns the maximum total weight of the entries of this cache.
+	 * @return The maximum weight.
 	 */
-	private final ValueSortedMap<ID,Long> m_cacheTimes = new ValueSortedMap<ID,Long>();
+	public long getMaxWeight()
+	{
+		return m_maxWeight;
+	}
 
-	static
+	/**
+	 * Is called when the maximum weight has changed.
+	 */
+	protected void resize()
 	{
-		if(sm_logger.isLoggable(Level.INFO))
-			sm_logger.info((USE_SOFT_REFERENCES ? "Using" : "Not using")+" soft references for caching.");
+		m_cache.resize();
 	}
 
 	/**
-	 * Creates a cache that stores several items in the memory.
+	 * Checks whether an entry that was cached at the given time is too old to be used.
+	 * @param a_time The time when the entry was cached ({@link System#currentTimeMillis()}).
+	 * @return true if the entry is older than {@link #getMaxAge}.
 	 */
-	public ItemCache()
+	protected boolean isExpired(long a_time)
 	{
+		return System.currentTimeMillis()-a_time > getMaxAge()*1000L;
 	}
 
 	/**
@@ -94,15 +476,13 @@ public class ItemCache<T extends Item>
 	 */
 	public T getObject(ID a_id)
 	{
-		T ret = null;
-		synchronized(m_cache)
-		{
-			Reference<T> ref = m_cache.get(a_id);
-			if(ref != null)
-				ret = ref.get();
-		}
-
-		return ret;
+		Long id = a_id.asLong();
+		if(id == null)
+			return null;
+		Entry<T> entry = m_cache.get(id);
+		if(entry == null || isExpired(entry.time))
+			return null;
+		return entry.get();
 	}
 	
 	/**
@@ -111,61 +491,47 @@ public class ItemCache<T extends Item>
 	 */
 	public void cacheObject(T a_object)
 	{
-		ID id = a_object.getID();
+		Long id = a_object.getID().asLong();
+		if(id == null)
+			return;
+		long now = System.currentTimeMillis();
 
-		synchronized(m_cache)
+		while(true)
 		{
-			synchronized(m_cacheTimes)
+			Entry<T> oldEntry = m_cache.peek(id);
+			T old = (oldEntry == null ? null : oldEntry.get());
+			if(old != null && old.equals(a_object)) // Prevent additionally downloaded data (for example the content of a changeset) from being lost.
 			{
-				Reference<T> oldRef = m_cache.get(id);
-				T old = (oldRef == null ? null : oldRef.get());
-				if(old == null || !old.equals(a_object)) // Prevent additionally downloaded data (for example the content of a changeset) from being lost.
-					m_cache.put(id, makeReference(a_object));
-				m_cacheTimes.put(id, System.currentTimeMillis());
+				oldEntry.time = now;
+				return;
 			}
+
+			if(m_cache.replace(id, oldEntry, m_cache.makeEntry(id, a_object, now)))
+				return;
 		}
 	}
 	
 	/**
-	 * Clean up entries from the memory cache that exceed {@link #MAX_CACHED_VALUES} or {@link #MAX_AGE}. If a database
+	 * Clean up entries from the memory cache that exceed {@link #getMaxWeight} or {@link #getMaxAge}. If a database
 	 * cache is used, the entries are moved there.
-	 * @param a_completely If set to true, the memory cache will be cleared completely, not just up to {@link #MAX_CACHED_VALUES} (useful at shutdown)
+	 * @param a_completely If set to true, the memory cache will be cleared completely, not just up to {@link #getMaxWeight} (useful at shutdown)
 	 */
 	protected void cleanUpMemory(boolean a_completely)
 	{
-		sm_logger.info("Cache contains "+m_cache.size()+" entries.");
-
-		int affected = 0;
-
-		while(true)
-		{
-			T item;
-			synchronized(m_cache)
-			{
-				synchronized(m_cacheTimes)
-				{
-					if(m_cacheTimes.isEmpty())
-						break;
-					ID oldest = m_cacheTimes.firstKey();
-					long oldestTime = m_cacheTimes.get(oldest);
-					if(!a_completely && System.currentTimeMillis()-oldestTime <= MAX_AGE*1000 && m_cacheTimes.size() <= MAX_CACHED_VALUES)
-						break;
-					m_cacheTimes.remove(oldest);
-					item = m_cache.remove(oldest).get();
-				}
-			}
+		sm_logger.fine("Cache contains "+m_cache.size()+" entries.");
 
-			affected++;
-		}
+		int affected = m_cache.cleanUp(a_completely);
 
-		sm_logger.info("Removed "+affected+" entries from the memory.");
+		sm_logger.fine("Removed "+affected+" entries from the memory.");
 	}
 
-	protected <T> Reference<T> makeReference(T obj)
+	/**
+	 * Returns the hash code of a numeric ID, which is the same as {@link ID#hashCode}.
+	 * @param a_id The ID.
+	 * @return The hash code.
+	 */
+	protected static int hash(long a_id)
 	{
-		if(USE_SOFT_REFERENCES)
-			return new SoftReference<T>(obj);
-		else
-			return new StrongReference<T>(obj);
+		return (int)(a_id ^ (a_id >>> 32));
 	}
 }
@@ -82,10 +82,24 @@ public class LonLat implements Serializable
 	 */
 	public double getDistance(LonLat a_to)
 	{
-		double lat1 = getLat()*Math.PI/180;
-		double lat2 = a_to.getLat()*Math.PI/180;
-		double lon1 = getLon()*Math.PI/180;
-		double lon2 = a_to.getLon()*Math.PI/180;
+		return getDistance(getLon(), getLat(), a_to.getLon(), a_to.getLat());
+	}
+
+	/**
+	 * Calculate the distance between two points given by their coordinates. This does the same as
+	 * {@link #getDistance(LonLat)} without requiring LonLat objects.
+	 * @param a_lon1 The longitude of the first point in degrees.
+	 * @param a_lat1 The latitude of the first point in degrees.
+	 * @param a_lon2 The longitude of the second point in degrees.
+	 * @param a_lat2 The latitude of the second point in degrees.
+	 * @return The distance in km.
+	 */
+	public static double getDistance(double a_lon1, double a_lat1, double a_lon2, double a_lat2)
+	{
+		double lat1 = a_lat1*Math.PI/180;
+		double lat2 = a_lat2*Math.PI/180;
+		double lon1 = a_lon1*Math.PI/180;
+		double lon2 = a_lon2*Math.PI/180;
 
 		double dlon = lon2 - lon1;
 		double dlat = lat2 - lat1;
@@ -0,0 +1,211 @@
+/*
+	This file is in the public domain, furnished “as is”, without technical
+	support, and with no warranty, express or implied, as to its usefulness for
+	any purpose.
+*/
+
+package eu.cdauth.osm.lib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * A compact store of node coordinates outside of the Java heap. Analysers that only need the coordinates of nodes
+ * can look them up here instead of keeping whole {@link Node} objects with their tags, time stamps and versions in
+ * memory.
+ *
+ * <p>Each entry takes {@link #ENTRY_SIZE} bytes in a direct buffer: the node ID, the coordinates as fixed-point
+ * integers with the precision of the OSM API (7 decimal places) and the time when the entry was stored, to be able
+ * to expire it like the entries of an {@link ItemCache}. The entries are stored in an open-addressing hash table that
+ * grows as needed. When {@link #getMaxSize} entries are reached, the store is cleared.
+ *
+ * <p>The maximum size can be set using the system property <code>eu.cdauth.osm.lib.LonLatStore.maxSize</code>, 0
+ * disables the store.
+ * @author cdauth
+ */
+public class LonLatStore
+{
+	/**
+	 * The default maximum number of entries.
+	 */
+	public static final int MAX_SIZE = Integer.getInteger(LonLatStore.class.getName()+".maxSize", 1000000);
+
+	/**
+	 * The size of an entry in bytes: 8 for the ID, 4 each for the longitude, latitude and time.
+	 */
+	protected static final int ENTRY_SIZE = 20;
+
+	/**
+	 * The factor to convert degrees to the stored fixed-point integers.
+	 */
+	protected static final double FIXED_POINT = 10000000D;
+
+	protected static final int INITIAL_CAPACITY = 1024;
+
+	private static final Logger sm_logger = Logger.getLogger(LonLatStore.class.getName());
+
+	private final int m_maxSize;
+
+	/**
+	 * The times are stored in seconds relative to this time stamp.
+	 */
+	private final long m_startTime = System.currentTimeMillis();
+
+	private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+	private ByteBuffer m_table;
+	private int m_capacity;
+	private int m_size;
+
+	/**
+	 * Creates a store.
+	 * @param a_maxSize The maximum number of entries.
+	 */
+	public LonLatStore(int a_maxSize)
+	{
+		m_maxSize = a_maxSize;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Returns the maximum number of entries.
+	 * @return The maximum number of entries.
+	 */
+	public int getMaxSize()
+	{
+		return m_maxSize;
+	}
+
+	/**
+	 * Returns the number of entries.
+	 * @return The number of entries.
+	 */
+	public int size()
+	{
+		m_lock.readLock().lock();
+		try
+		{
+			return m_size;
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+	}
+
+	private void allocate(int a_capacity)
+	{
+		m_capacity = a_capacity;
+		m_table = ByteBuffer.allocateDirect(a_capacity*ENTRY_SIZE);
+		m_size = 0;
+	}
+
+	private static int hash(long a_id)
+	{
+		long h = a_id*0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/**
+	 * Looks up the slot of an ID. Must be called while holding a lock.
+	 * @return The slot of the ID or the free slot where it would be stored.
+	 */
+	private int findSlot(long a_id)
+	{
+		int mask = m_capacity-1;
+		int slot = hash(a_id) & mask;
+		while(true)
+		{
+			long id = m_table.getLong(slot*ENTRY_SIZE);
+			if(id == a_id || id == 0)
+				return slot;
+			slot = (slot+1) & mask;
+		}
+	}
+
+	/**
+	 * Stores the coordinates of a node.
+	 * @param a_id The ID of the node. 0 is not stored.
+	 * @param a_lonLat The coordinates of the current version of the node.
+	 */
+	public void put(long a_id, LonLat a_lonLat)
+	{
+		if(a_id == 0)
+			return;
+
+		m_lock.writeLock().lock();
+		try
+		{
+			if(m_size >= m_maxSize)
+			{
+				sm_logger.fine("Coordinate store is full, clearing it.");
+				allocate(INITIAL_CAPACITY);
+			}
+			else if((m_size+1)*4 > m_capacity*3)
+				grow();
+
+			int offset = findSlot(a_id)*ENTRY_SIZE;
+			if(m_table.getLong(offset) == 0)
+			{
+				m_table.putLong(offset, a_id);
+				m_size++;
+			}
+			m_table.putInt(offset+8, (int)Math.round(a_lonLat.getLon()*FIXED_POINT));
+			m_table.putInt(offset+12, (int)Math.round(a_lonLat.getLat()*FIXED_POINT));
+			m_table.putInt(offset+16, (int)((System.currentTimeMillis()-m_startTime)/1000));
+		}
+		finally
+		{
+			m_lock.writeLock().unlock();
+		}
+	}
+
+	private void grow()
+	{
+		ByteBuffer old = m_table;
+		int oldCapacity = m_capacity;
+		allocate(oldCapacity*2);
+		for(int i=0; i<oldCapacity; i++)
+		{
+			int oldOffset = i*ENTRY_SIZE;
+			long id = old.getLong(oldOffset);
+			if(id == 0)
+				continue;
+			int offset = findSlot(id)*ENTRY_SIZE;
+			m_table.putLong(offset, id);
+			m_table.putInt(offset+8, old.getInt(oldOffset+8));
+			m_table.putInt(offset+12, old.getInt(oldOffset+12));
+			m_table.putInt(offset+16, old.getInt(oldOffset+16));
+			m_size++;
+		}
+	}
+
+	/**
+	 * Looks up the coordinates of a node.
+	 * @param a_id The ID of the node.
+	 * @param a_maxAge The maximum age of the entry in seconds, see {@link ItemCache#getMaxAge}.
+	 * @return The coordinates or null if they are not stored or are older than a_maxAge.
+	 */
+	public LonLat get(long a_id, int a_maxAge)
+	{
+		if(a_id == 0)
+			return null;
+
+		m_lock.readLock().lock();
+		try
+		{
+			int offset = findSlot(a_id)*ENTRY_SIZE;
+			if(m_table.getLong(offset) == 0)
+				return null;
+			long time = m_startTime+m_table.getInt(offset+16)*1000L;
+			if(System.currentTimeMillis()-time > a_maxAge*1000L)
+				return null;
+			return new LonLat(m_table.getInt(offset+8)/FIXED_POINT, m_table.getInt(offset+12)/FIXED_POINT);
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+	}
+}
@@ -13,5 +13,13 @@ package eu.cdauth.osm.lib;
  */
 public interface NodeFactory extends VersionedItemFactory<Node>
 {
-
+	/**
+	 * Returns the coordinates of the current versions of the given nodes. Implementations may serve them from a
+	 * compact store (such as {@link LonLatStore}) without creating {@link Node} objects, so this should be preferred
+	 * over {@link #fetch(ID[])} when only the coordinates are needed.
+	 * @param a_ids The IDs of the nodes.
+	 * @return The coordinates of the nodes, in the same order as a_ids. null for nodes that do not exist.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+	public LonLat[] fetchLonLat(ID[] a_ids) throws APIError;
 }
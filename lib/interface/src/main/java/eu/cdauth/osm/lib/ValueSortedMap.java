@@ -14,16 +14,19 @@ import java.util.*;
  */
 public class ValueSortedMap<K,V> extends Hashtable<K,V>
 {
-	private final TreeMap<V,K> m_order;
+	/**
+	 * The keys of the map, indexed by their values. Several keys can have the same value.
+	 */
+	private final TreeMap<V,Set<K>> m_order;
 
 	public ValueSortedMap()
 	{
-		m_order = new TreeMap<V,K>();
+		m_order = new TreeMap<V,Set<K>>();
 	}
 
 	public ValueSortedMap(Comparator<V> a_comparator)
 	{
-		m_order = new TreeMap<V,K>(a_comparator);
+		m_order = new TreeMap<V,Set<K>>(a_comparator);
 	}
 
 	@Override
@@ -38,24 +41,26 @@ public class ValueSortedMap<K,V> extends Hashtable<K,V>
 	{
 		V value = super.remove(key);
 
-		updateRemovedValue(value);
+		updateRemovedValue((K)key, value);
 
 		return value;
 	}
 
-	protected void updateRemovedValue(V a_value)
+	/**
+	 * Removes a key from the value index.
+	 * @param a_key The key that was removed or that got a new value.
+	 * @param a_value The old value of the key, may be null.
+	 */
+	protected void updateRemovedValue(K a_key, V a_value)
 	{
 		if(a_value == null)
 			return;
-		for(Map.Entry<K,V> it : entrySet())
-		{
-			if(a_value.equals(it.getValue()))
-			{
-				m_order.put(a_value, it.getKey());
-				return;
-			}
-		}
-		m_order.remove(a_value);
+		Set<K> keys = m_order.get(a_value);
+		if(keys == null)
+			return;
+		keys.remove(a_key);
+		if(keys.isEmpty())
+			m_order.remove(a_value);
 	}
 
 	@Override
@@ -69,8 +74,14 @@ public class ValueSortedMap<K,V> extends Hashtable<K,V>
 	public synchronized V put(K key, V value)
 	{
 		V old = super.put(key, value);
-		updateRemovedValue(old);
-		m_order.put(value, key);
+		updateRemovedValue(key, old);
+		Set<K> keys = m_order.get(value);
+		if(keys == null)
+		{
+			keys = new LinkedHashSet<K>();
+			m_order.put(value, keys);
+		}
+		keys.add(key);
 
 		return old;
 	}
@@ -79,13 +90,16 @@ public class ValueSortedMap<K,V> extends Hashtable<K,V>
 	{
 		if(isEmpty())
 			throw new NoSuchElementException();
-		return m_order.firstEntry().getValue();
+		return m_order.firstEntry().getValue().iterator().next();
 	}
 
 	public synchronized K lastKey() throws NoSuchElementException
 	{
 		if(isEmpty())
 			throw new NoSuchElementException();
-		return m_order.lastEntry().getValue();
+		K ret = null;
+		for(K key : m_order.lastEntry().getValue())
+			ret = key;
+		return ret;
 	}
 }
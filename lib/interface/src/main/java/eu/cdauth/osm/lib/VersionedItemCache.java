@@ -13,14 +13,193 @@ import java.util.logging.Logger;
  * This class extends the {@link ItemCache} class to be able to additionally cache old versions of {@link VersionedItem}s.
  * As a VersionedItem does not know if it is the current one, you have to use special methods if you fetch
  * current object versions; if you deal with old versions or whole history trees, use the other methods of this class.
+ *
+ * <p>The cached history maps are never modified after they have been put into the cache, new versions are added to
+ * a copy that replaces the old map. This way the maps returned by this class can be read by multiple threads without
+ * locking. They must not be modified by the caller.
+ *
+ * <p>The histories count against the maximum weight ({@link #getMaxWeight}) with their number of versions.
  * @author cdauth
  */
 public class VersionedItemCache<T extends VersionedItem> extends ItemCache<T>
 {
 	private static final Logger sm_logger = Logger.getLogger(ItemCache.class.getName());
 
-	private final Hashtable<ID,Reference<TreeMap<Version,T>>> m_history = new Hashtable<ID,Reference<TreeMap<Version,T>>>();
-	private final ValueSortedMap<ID,Long> m_historyTimes = new ValueSortedMap<ID,Long>();
+	private final EntryMap<History<T>> m_history = new EntryMap<History<T>>() {
+		@Override
+		protected int weigh(History<T> a_value)
+		{
+			return a_value.size();
+		}
+	};
+
+	/**
+	 * A cached history together with indexes for looking up the version of a point of time or a changeset by
+	 * binary search. The indexes and the number of versions that are cached without gaps are calculated once when
+	 * the history is put into the cache. Like the history map, this is never modified afterwards.
+	 */
+	public static class History<T extends VersionedItem>
+	{
+		private final TreeMap<Version,T> m_versions;
+		private final Object[] m_items;
+		private final long[] m_timestamps;
+		private final long[] m_changesets;
+
+		/**
+		 * False if the time stamps or the changesets do not increase with the versions (which they should), the
+		 * lookups then search linearly.
+		 */
+		private final boolean m_timestampsOrdered;
+		private final boolean m_changesetsOrdered;
+
+		/**
+		 * All versions from 1 to this one are in the history.
+		 */
+		private final long m_completeUpTo;
+
+		/**
+		 * Creates the indexes for a history.
+		 * @param a_versions The history. Must not be modified afterwards.
+		 */
+		public History(TreeMap<Version,T> a_versions)
+		{
+			m_versions = a_versions;
+			m_items = a_versions.values().toArray();
+			m_timestamps = new long[m_items.length];
+			m_changesets = new long[m_items.length];
+
+			boolean timestampsOrdered = true;
+			boolean changesetsOrdered = true;
+			long completeUpTo = 0;
+			for(int i=0; i<m_items.length; i++)
+			{
+				T item = getItem(i);
+
+				Date timestamp = item.getTimestamp();
+				if(timestamp == null)
+					timestampsOrdered = false;
+				else
+				{
+					m_timestamps[i] = timestamp.getTime();
+					if(i > 0 && m_timestamps[i] < m_timestamps[i-1])
+						timestampsOrdered = false;
+				}
+
+				ID changeset = item.getChangeset();
+				if(changeset == null || changeset.asLong() == null)
+					changesetsOrdered = false;
+				else
+				{
+					m_changesets[i] = changeset.asLong();
+					if(i > 0 && m_changesets[i] < m_changesets[i-1])
+						changesetsOrdered = false;
+				}
+
+				Long version = item.getVersion().asLong();
+				if(version != null && version == completeUpTo+1)
+					completeUpTo++;
+			}
+			m_timestampsOrdered = timestampsOrdered;
+			m_changesetsOrdered = changesetsOrdered;
+			m_completeUpTo = completeUpTo;
+		}
+
+		@SuppressWarnings("unchecked")
+		private T getItem(int a_index)
+		{
+			return (T)m_items[a_index];
+		}
+
+		/**
+		 * Returns the versions of this history.
+		 * @return The history map. Must not be modified.
+		 */
+		public TreeMap<Version,T> getVersions()
+		{
+			return m_versions;
+		}
+
+		public int size()
+		{
+			return m_items.length;
+		}
+
+		/**
+		 * Checks whether all versions from 1 to the given one are contained in this history.
+		 * @param a_version The version.
+		 * @return true if there are no gaps up to that version.
+		 */
+		public boolean isCompleteUpTo(Version a_version)
+		{
+			Long version = a_version.asLong();
+			return (version != null && version <= m_completeUpTo);
+		}
+
+		/**
+		 * Returns the version that was the current one at the given point of time, this is the newest version
+		 * whose time stamp is not after a_date.
+		 * @param a_date The point of time.
+		 * @return The version or null if the object did not exist at that time.
+		 */
+		public T getVersionAt(Date a_date)
+		{
+			long date = a_date.getTime();
+			if(!m_timestampsOrdered)
+			{
+				for(int i=m_items.length-1; i>=0; i--)
+				{
+					if(getItem(i).getTimestamp().compareTo(a_date) <= 0)
+						return getItem(i);
+				}
+				return null;
+			}
+
+			int index = upperBound(m_timestamps, date)-1;
+			return (index < 0 ? null : getItem(index));
+		}
+
+		/**
+		 * Returns the newest version that was created in a changeset with a lower ID than the given one.
+		 * @param a_changeset The ID of the changeset.
+		 * @return The version or null if the object did not exist before that changeset.
+		 */
+		public T getVersionBefore(ID a_changeset)
+		{
+			if(!m_changesetsOrdered || a_changeset.asLong() == null)
+			{
+				for(int i=m_items.length-1; i>=0; i--)
+				{
+					if(getItem(i).getChangeset().compareTo(a_changeset) < 0)
+						return getItem(i);
+				}
+				return null;
+			}
+
+			long changeset = a_changeset.asLong();
+			if(changeset == Long.MIN_VALUE)
+				return null;
+			int index = upperBound(m_changesets, changeset-1)-1;
+			return (index < 0 ? null : getItem(index));
+		}
+
+		/**
+		 * Returns the index of the first value in a sorted array that is greater than a_value.
+		 */
+		private static int upperBound(long[] a_values, long a_value)
+		{
+			int low = 0;
+			int high = a_values.length;
+			while(low < high)
+			{
+				int middle = (low+high) >>> 1;
+				if(a_values[middle] <= a_value)
+					low = middle+1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+	}
 
 	public VersionedItemCache()
 	{
@@ -35,52 +214,58 @@ public class VersionedItemCache<T extends VersionedItem> extends ItemCache<T>
 	 */
 	public T getObject(ID a_id, Version a_version)
 	{
-		TreeMap<Version,T> history = getIncompleteHistory(a_id);
+		History<T> history = getIncompleteHistory(a_id);
 		if(history == null)
 			return null;
-		synchronized(history)
-		{
-			return history.get(a_version);
-		}
+		return history.getVersions().get(a_version);
 	}
 
-	protected TreeMap<Version,T> getIncompleteHistory(ID a_id)
+	@Override
+	protected void resize()
 	{
-		synchronized(m_history)
-		{
-			Reference<TreeMap<Version,T>> historyRef = m_history.get(a_id);
-			return (historyRef == null ? null : historyRef.get());
-		}
+		super.resize();
+		m_history.resize();
 	}
-	
+
+	protected History<T> getIncompleteHistory(ID a_id)
+	{
+		Long id = a_id.asLong();
+		if(id == null)
+			return null;
+		Entry<History<T>> entry = m_history.get(id);
+		return (entry == null ? null : entry.get());
+	}
+
 	/**
-	 * Returns the whole history of the object. The history is considered to be cached when all versions of it
-	 * are definitely in the cache (which is the case when the current version is saved and all versions from 1 
-	 * to the current one’s version number are existant).
+	 * Returns the whole history of the object with its indexes. The history is considered to be cached when all
+	 * versions of it are definitely in the cache (which is the case when the current version is saved and all
+	 * versions from 1 to the current one’s version number are existant).
 	 * @param a_id The ID of the object.
 	 * @return The whole history of the object or null if it is not complete in the cache.
 	 */
+	public History<T> getIndexedHistory(ID a_id)
+	{
+		History<T> history = getIncompleteHistory(a_id);
+		if(history == null)
+			return null;
+		
+		// Check if all versions have been fetched into history
+		T current = getObject(a_id);
+		if(current == null || !history.isCompleteUpTo(current.getVersion()))
+			return null;
+		return history;
+	}
+	
+	/**
+	 * Returns the whole history of the object.
+	 * @param a_id The ID of the object.
+	 * @return The whole history of the object or null if it is not complete in the cache. Must not be modified.
+	 * @see #getIndexedHistory
+	 */
 	public TreeMap<Version,T> getHistory(ID a_id)
 	{
-		synchronized(m_history)
-		{
-			TreeMap<Version,T> history = getIncompleteHistory(a_id);
-			if(history == null)
-				return null;
-			
-			// Check if all versions have been fetched into history
-			T current = getObject(a_id);
-			if(current == null)
-				return null;
-			Version currentVersion = current.getVersion();
-			
-			for(long i=1; i<=currentVersion.asLong(); i++)
-			{
-				if(!history.containsKey(new Version(i)))
-					return null;
-			}
-			return history;
-		}
+		History<T> history = getIndexedHistory(a_id);
+		return (history == null ? null : history.getVersions());
 	}
 	
 	/**
@@ -96,32 +281,24 @@ public class VersionedItemCache<T extends VersionedItem> extends ItemCache<T>
 		Version version = a_object.getVersion();
 		if(version == null)
 			return;
-		ID id = a_object.getID();
-		TreeMap<Version,T> history;
-		synchronized(m_history)
-		{
-			Reference<TreeMap<Version,T>> historyRef = m_history.get(id);
-			history = (historyRef == null ? null : historyRef.get());
-			if(history == null)
-			{
-				history = new TreeMap<Version,T>();
-				m_history.put(id, makeReference(history));
-			}
-			
-			synchronized(m_historyTimes)
-			{
-				m_historyTimes.put(id, System.currentTimeMillis());
-			}
-		}
-		synchronized(history)
+		Long id = a_object.getID().asLong();
+		if(id == null)
+			return;
+		while(true)
 		{
+			Entry<History<T>> oldEntry = m_history.peek(id);
+			History<T> oldHistory = (oldEntry == null ? null : oldEntry.get());
+			TreeMap<Version,T> history = (oldHistory == null ? new TreeMap<Version,T>() : new TreeMap<Version,T>(oldHistory.getVersions()));
 			history.put(version, a_object);
+
+			if(m_history.replace(id, oldEntry, m_history.makeEntry(id, new History<T>(history), System.currentTimeMillis())))
+				return;
 		}
 	}
 	
 	/**
 	 * Caches the whole history of an object.
-	 * @param a_history The whole history of an object.
+	 * @param a_history The whole history of an object. It is copied, so it can still be modified afterwards.
 	 */
 	public void cacheHistory(TreeMap<Version,T> a_history)
 	{
@@ -132,10 +309,9 @@ public class VersionedItemCache<T extends VersionedItem> extends ItemCache<T>
 		if(current.isCurrent()) // Should always be true
 			super.cacheObject(current);
 
-		synchronized(m_history)
-		{
-			m_history.put(current.getID(), makeReference(a_history));
-		}
+		Long id = current.getID().asLong();
+		if(id != null)
+			m_history.put(id, m_history.makeEntry(id, new History<T>(new TreeMap<Version,T>(a_history)), System.currentTimeMillis()));
 	}
 
 	@Override
@@ -143,31 +319,10 @@ public class VersionedItemCache<T extends VersionedItem> extends ItemCache<T>
 	{
 		super.cleanUpMemory(a_completely);
 
-		sm_logger.info("The versioned cache contains "+m_history.size()+" entries.");
-		int affected = 0;
+		sm_logger.fine("The versioned cache contains "+m_history.size()+" entries.");
 
-		while(true)
-		{
-			ID id;
-			TreeMap<Version,T> history;
-			synchronized(m_history)
-			{
-				synchronized(m_historyTimes)
-				{
-					if(m_historyTimes.size() == 0)
-						break;
-					ID oldest = m_historyTimes.firstKey();
-					long oldestTime = m_historyTimes.get(oldest);
-					if(!a_completely && System.currentTimeMillis()-oldestTime <= MAX_AGE*1000 && m_historyTimes.size() <= MAX_CACHED_VALUES)
-						break;
-					id = oldest;
-					m_historyTimes.remove(oldest);
-					history = m_history.remove(id).get();
-				}
-			}
-			affected++;
-		}
+		int affected = m_history.cleanUp(a_completely);
 
-		sm_logger.info("Removed "+affected+" cache entries from the memory.");
+		sm_logger.fine("Removed "+affected+" cache entries from the memory.");
 	}
 }
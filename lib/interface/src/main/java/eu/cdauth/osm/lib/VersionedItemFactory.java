@@ -7,6 +7,7 @@
 package eu.cdauth.osm.lib;
 
 import java.util.Date;
+import java.util.Map;
 import java.util.NavigableMap;
 
 public interface VersionedItemFactory<T extends VersionedItem> extends ItemFactory<T>
@@ -19,6 +20,16 @@ public interface VersionedItemFactory<T extends VersionedItem> extends ItemFacto
 	 * @throws APIError There is no object with that ID or there was an error communicating with the API.
 	 */
 	public T fetch(ID a_id, Date a_date) throws APIError;
+
+	/**
+	 * Fetches the versions of multiple objects that were the current ones at the given point of time. This is a lot
+	 * faster than calling {@link #fetch(ID, Date)} for each object.
+	 * @param a_ids The IDs of the objects to fetch.
+	 * @param a_date The date to fetch the objects from.
+	 * @return The requested objects. Objects that did not exist at the given point of time are not contained.
+	 * @throws APIError One of the objects does not exist or there was an error communicating with the API.
+	 */
+	public Map<ID,T> fetch(ID[] a_ids, Date a_date) throws APIError;
 	
 	/**
 	 * Fetches the version of an object that has been changed in a changeset with a number smaller than that of a_changeset.
@@ -45,4 +56,13 @@ public interface VersionedItemFactory<T extends VersionedItem> extends ItemFacto
 	 * @throws APIError There is no object with that ID or there was an error communicating with the API.
 	 */
 	public NavigableMap<Version,T> fetchHistory(ID a_id) throws APIError;
+
+	/**
+	 * Like {@link #fetchHistory}, but fetches the histories of multiple objects at once. This is a lot faster than
+	 * calling {@link #fetchHistory} for each object.
+	 * @param a_ids The IDs of the objects to fetch the histories for.
+	 * @return The histories of all the objects.
+	 * @throws APIError One of the objects does not exist or there was an error communicating with the API.
+	 */
+	public Map<ID,NavigableMap<Version,T>> fetchHistories(ID[] a_ids) throws APIError;
 }
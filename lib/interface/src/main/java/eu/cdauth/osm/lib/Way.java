@@ -29,6 +29,14 @@ public interface Way extends GeographicalItem, VersionedItem
 	 */
 	public Node[] getMemberNodes(Date a_date) throws APIError;
 
+	/**
+	 * Returns the coordinates of the current versions of the member nodes of this way. This is cheaper than
+	 * {@link #getMemberNodes} if only the coordinates are needed, see {@link NodeFactory#fetchLonLat}.
+	 * @return The coordinates of the member nodes, in the order of {@link #getMembers}.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+	public LonLat[] getMemberLonLats() throws APIError;
+
 	/**
 	 * Returns the “centre” of this way (that is the average of the position of its nodes). If the node
 	 * is a circle (such as a roundabout), this is useful to get its centre.
@@ -23,6 +23,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -53,6 +54,7 @@ public class Cache<T extends Serializable>
 
 	private final File m_dir;
 	private int m_maxAge = 0;
+	private int m_freshAge = 0;
 	private long m_maxSize = 50000000;
 
 	public static class Entry<T>
@@ -150,6 +152,26 @@ public class Cache<T extends Serializable>
 		return m_maxAge;
 	}
 
+	/**
+	 * Returns the set age after which entries are stale, see {@link #setFreshAge}.
+	 * @return The age in seconds, 0 means no limit
+	 */
+	public int getFreshAge()
+	{
+		return m_freshAge;
+	}
+
+	/**
+	 * Sets the age after which entries are stale. Stale entries are not returned by {@link #getEntry(String)}
+	 * anymore, so they are recreated, but they are kept until {@link #getMaxAge} so that they can still be used to
+	 * recreate them, see {@link #getEntry(String, boolean)}.
+	 * @param a_freshAge The age in seconds, 0 means no limit.
+	 */
+	public void setFreshAge(int a_freshAge)
+	{
+		m_freshAge = a_freshAge;
+	}
+
 	/**
 	 * Sets the maximum size of this cache before entries are deleted.
 	 * @param a_maxSize The maximum size in bytes, 0 means no limit
@@ -181,7 +203,7 @@ public class Cache<T extends Serializable>
 		if(sm_logger.isLoggable(Level.INFO))
 			sm_logger.info("Cleaning up cache.");
 
-		long maxAge = getMaxAge()*1000;
+		long maxAge = getMaxAge()*1000L;
 		long maxSize = getMaxSize();
 		int deleted = 0;
 
@@ -210,9 +232,9 @@ public class Cache<T extends Serializable>
 				}
 			}
 
-			if(maxAge > 0)
+			if(maxSize > 0)
 			{
-				while(mtimes.size() > 0 && totalSize > maxAge)
+				while(mtimes.size() > 0 && totalSize > maxSize)
 				{
 					File f = mtimes.firstKey();
 					totalSize -= f.length();
@@ -230,12 +252,26 @@ public class Cache<T extends Serializable>
 	/**
 	 * Gets the content of an entry in the cache.
 	 * @param a_id The ID of the requested entry.
+	 * @return The entry or null if it isn’t cached yet or is stale.
+	 * @throws IOException
+	 */
+	public Entry<T> getEntry(String a_id) throws IOException
+	{
+		return getEntry(a_id, false);
+	}
+
+	/**
+	 * Gets the content of an entry in the cache.
+	 * @param a_id The ID of the requested entry.
+	 * @param a_includeStale Whether to return the entry if it is older than {@link #getFreshAge}.
 	 * @return The entry or null if it isn’t cached yet.
 	 * @throws IOException
 	 */
-	public synchronized Entry<T> getEntry(String a_id) throws IOException
+	public synchronized Entry<T> getEntry(String a_id, boolean a_includeStale) throws IOException
 	{
 		File file = getFileByID(a_id);
+		if(!a_includeStale && getFreshAge() > 0 && System.currentTimeMillis()-file.lastModified() > getFreshAge()*1000L)
+			return null;
 		try
 		{
 			ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new FileInputStream(file)));
@@ -247,6 +283,10 @@ public class Cache<T extends Serializable>
 		{
 			return null;
 		}
+		catch(InvalidClassException e)
+		{ // The entry was saved by an incompatible version of the class, it will be recreated
+			return null;
+		}
 		catch(ClassNotFoundException e)
 		{
 			throw new IOException(e);
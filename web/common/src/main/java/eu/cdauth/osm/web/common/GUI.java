@@ -473,10 +473,18 @@ abstract public class GUI
 		return number.toString();
 	}
 
-	protected static final SimpleDateFormat sm_dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-	static {
-		sm_dateFormat.setTimeZone(new SimpleTimeZone(0, "UTC"));
-	}
+	/**
+	 * SimpleDateFormat is not thread-safe, so every request thread gets its own instance.
+	 */
+	protected static final ThreadLocal<SimpleDateFormat> sm_dateFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue()
+		{
+			SimpleDateFormat ret = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+			ret.setTimeZone(new SimpleTimeZone(0, "UTC"));
+			return ret;
+		}
+	};
 
 	/**
 	 * Formats the given date with the user’s locale. Assumes that the date is in UTC.
@@ -485,7 +493,7 @@ abstract public class GUI
 	 */
 	public String formatDate(Date a_date)
 	{
-		return sm_dateFormat.format(a_date == null ? new Date(System.currentTimeMillis()) : a_date);
+		return sm_dateFormat.get().format(a_date == null ? new Date(System.currentTimeMillis()) : a_date);
 	}
 
 	/**
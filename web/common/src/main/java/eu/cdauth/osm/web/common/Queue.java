@@ -1,17 +1,29 @@
 package eu.cdauth.osm.web.common;
 
 import eu.cdauth.osm.lib.ID;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
- * A queue of callback functions to be called one at a time.
+ * A queue of callback functions that are executed by a fixed number of threads.
  *
  * This is used by the web applications (Route Manager and History Viewer) to avoid too many requests running at the same
- * time. Instead of generating the results immediately, they send them to this queue.
+ * time. Instead of generating the results immediately, they send them to this queue. The number of threads can be set
+ * using {@link #setThreads}, the number of tasks of one worker running at the same time can additionally be limited
+ * using {@link #setMaxParallel}.
  *
  * One creates a class implementing the {@link Worker} interface where inside the {@link Worker#work} method, all the necessary
  * output is calculated (passing the ID of the relation/changeset/whatever to work with). Then the method {@link #scheduleTask}
@@ -29,6 +41,65 @@ public class Queue
 	 */
 	public static int TIMEOUT = 600000;
 
+	/**
+	 * The number of tasks that are executed in parallel if not configured otherwise, see {@link #setThreads}.
+	 */
+	public static final int DEFAULT_THREADS = Integer.getInteger(Queue.class.getName()+".threads", Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * How often the running tasks are checked for the {@link #TIMEOUT} in milliseconds.
+	 */
+	protected static final int WATCHDOG_INTERVAL = 10000;
+
+	/**
+	 * The number of seconds after which clients whose task has been rejected by {@link #scheduleTask} should try
+	 * again.
+	 */
+	public static int RETRY_AFTER = 60;
+
+	/**
+	 * The estimated run time in milliseconds of tasks whose cost is not known otherwise.
+	 */
+	public static final long DEFAULT_COST = 10000;
+
+	/**
+	 * For how many tasks per worker the run time is remembered.
+	 */
+	protected static final int RUNTIME_HISTORY_SIZE = 10000;
+
+	/**
+	 * How urgently a task is needed.
+	 */
+	public static enum Priority
+	{
+		/**
+		 * A user is waiting for the result right now.
+		 */
+		INTERACTIVE(0),
+
+		/**
+		 * A user has asked to refresh an existing result.
+		 */
+		REFRESH(60000),
+
+		/**
+		 * Nobody is waiting for the result.
+		 */
+		BACKGROUND(3600000);
+
+		/**
+		 * The time in milliseconds that is added to the estimated cost of the tasks of this priority. A task of a
+		 * lower priority is only executed before a task of a higher priority if it has already waited that much
+		 * longer.
+		 */
+		public final long delay;
+
+		private Priority(long a_delay)
+		{
+			delay = a_delay;
+		}
+	}
+
 	/**
 	 * A callback function for the queue.
 	 */
@@ -37,16 +108,120 @@ public class Queue
 		void work(ID a_id);
 	}
 	
+	/**
+	 * A worker that can tell how expensive its tasks are going to be before executing them.
+	 */
+	public interface EstimatingWorker extends Worker
+	{
+		/**
+		 * Estimates the run time of the task for an ID. This is called while the queue is locked, so it must not
+		 * do anything expensive like contacting the API.
+		 * @param a_id The ID that will be passed to {@link #work}.
+		 * @return The estimated run time in milliseconds or a negative value if it cannot be estimated.
+		 */
+		long estimateCost(ID a_id);
+	}
+
+	/**
+	 * Thrown by {@link #scheduleTask(Worker, ID, Priority, String)} when the queue or the client has too many
+	 * tasks already.
+	 */
+	public static class QueueFullException extends Exception
+	{
+		private final int m_retryAfter;
+
+		public QueueFullException(String a_message, int a_retryAfter)
+		{
+			super(a_message);
+			m_retryAfter = a_retryAfter;
+		}
+
+		/**
+		 * Returns the number of seconds after which the client should try again.
+		 * @return The number of seconds.
+		 */
+		public int getRetryAfter()
+		{
+			return m_retryAfter;
+		}
+
+		/**
+		 * Sends a 503 error with a <code>Retry-After</code> header. The response must not be committed yet.
+		 * @param a_response The response to send the error to.
+		 * @throws IOException The error could not be sent.
+		 */
+		public void sendError(HttpServletResponse a_response) throws IOException
+		{
+			a_response.setHeader("Retry-After", Integer.toString(m_retryAfter));
+			a_response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, getMessage());
+		}
+	}
+
 	protected static class ScheduledTask
 	{
 		public final ID id;
 		public final Worker worker;
 		public final Notification notify = new Notification();
 
-		public ScheduledTask(Worker a_worker, ID a_id)
+		/**
+		 * The client that has scheduled the task, null if the task is not counted for any client.
+		 */
+		public final String client;
+
+		/**
+		 * The tasks are executed ordered by this value, see {@link Queue#scheduleTask}.
+		 */
+		public long rank;
+		public Priority priority;
+
+		public ScheduledTask(Worker a_worker, ID a_id, long a_rank, Priority a_priority, String a_client)
 		{
 			id = a_id;
 			worker = a_worker;
+			client = a_client;
+			rank = a_rank;
+			priority = a_priority;
+		}
+	}
+
+	/**
+	 * The run times of the last tasks of one worker.
+	 */
+	protected static class Runtimes
+	{
+		private final LinkedHashMap<ID,Long> m_runtimes = new LinkedHashMap<ID,Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ID,Long> a_eldest)
+			{
+				return size() > RUNTIME_HISTORY_SIZE;
+			}
+		};
+		private long m_total = 0;
+		private long m_count = 0;
+
+		public void add(ID a_id, long a_runtime)
+		{
+			m_runtimes.put(a_id, a_runtime);
+			m_total += a_runtime;
+			m_count++;
+		}
+
+		/**
+		 * Returns the last run time of the task with the given ID.
+		 * @return The run time in milliseconds or null if the task has not been executed yet.
+		 */
+		public Long get(ID a_id)
+		{
+			return m_runtimes.get(a_id);
+		}
+
+		/**
+		 * Returns the average run time of all tasks.
+		 * @return The average run time in milliseconds.
+		 */
+		public long getAverage()
+		{
+			return m_total/m_count;
 		}
 	}
 
@@ -95,10 +270,33 @@ public class Queue
 		}
 	}
 
+	/**
+	 * One of the threads of the queue that execute the tasks. The threads are kept alive and execute one task
+	 * after the other.
+	 */
 	protected static class ExecutionThread extends Thread
 	{
 		private final Queue m_queue;
 
+		/**
+		 * The task that is currently executed, null if the thread is waiting for a task. Only changed while
+		 * synchronized on the queue.
+		 */
+		private ScheduledTask m_task = null;
+		private long m_taskStarted = 0;
+
+		/**
+		 * Set when the thread has been removed from the queue, either because the number of threads has been
+		 * reduced or because its task has timed out. The thread exits when it has finished its current task.
+		 */
+		private boolean m_retired = false;
+
+		/**
+		 * Set when the current task has timed out and has already been finished by the watchdog. It still counts
+		 * for {@link Queue#setMaxParallel} until the thread exits.
+		 */
+		private boolean m_timedOut = false;
+
 		public ExecutionThread(Queue a_queue)
 		{
 			super("osmrmhv Queue");
@@ -116,34 +314,67 @@ public class Queue
 					ScheduledTask task;
 					synchronized(m_queue)
 					{
-						task = m_queue.getQueuedTask();
-						while(task == null)
-						{
+						task = null;
+						while(!m_retired && (task = m_queue.getQueuedTask()) == null)
 							m_queue.wait();
-							task = m_queue.getQueuedTask();
-						}
+						if(m_retired)
+							return;
+						m_task = task;
+						m_taskStarted = System.currentTimeMillis();
+					}
+
+					try {
+						task.worker.work(task.id);
+					} catch(Throwable e) {
+						sm_logger.log(Level.WARNING, "Queue Worker aborted with exception.", e);
 					}
 
-					final ScheduledTask taskF = task;
-					Thread workerThread = new Thread()
+					synchronized(m_queue)
 					{
-						@Override
-						public void run()
-						{
-							try {
-								taskF.worker.work(taskF.id);
-							} catch(Throwable e) {
-								sm_logger.log(Level.WARNING, "Queue Worker aborted with exception.", e);
-							}
-						}
-					};
-					workerThread.start();
-					workerThread.join(TIMEOUT);
-					if(workerThread.isAlive())
-						workerThread.interrupt();
-
-					m_queue.taskFinished(task.worker, task.id);
+						m_task = null;
+						if(!m_timedOut)
+							m_queue.taskFinished(task, System.currentTimeMillis()-m_taskStarted);
+						m_queue.taskExited(task);
+						if(m_timedOut)
+							return; // Has been replaced by the watchdog
+					}
 					task.notify._notify();
+
+					// Clear an interruption that was meant for the task
+					interrupted();
+				}
+			}
+			catch(InterruptedException e)
+			{
+			}
+		}
+	}
+
+	/**
+	 * Interrupts tasks that take longer than {@link #TIMEOUT}. Their thread is replaced by a new one, so the queue
+	 * continues even if the task does not react to the interruption. Until the task actually stops, it runs in
+	 * addition to the threads set by {@link #setThreads}, but it still counts for {@link #setMaxParallel}.
+	 */
+	protected static class WatchdogThread extends Thread
+	{
+		private final Queue m_queue;
+
+		public WatchdogThread(Queue a_queue)
+		{
+			super("osmrmhv Queue watchdog");
+			setDaemon(true);
+			m_queue = a_queue;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(true)
+				{
+					Thread.sleep(Math.max(1, Math.min(TIMEOUT, WATCHDOG_INTERVAL)));
+					m_queue.checkTimeouts();
 				}
 			}
 			catch(InterruptedException e)
@@ -154,11 +385,31 @@ public class Queue
 
 	private LinkedList<ScheduledTask> m_queue = new LinkedList<ScheduledTask>();
 	private Map<Worker,Map<ID,ScheduledTask>> m_ids = new Hashtable<Worker,Map<ID,ScheduledTask>>();
+	private final ArrayList<ExecutionThread> m_threads = new ArrayList<ExecutionThread>();
+	private final Map<Worker,Integer> m_maxParallel = new Hashtable<Worker,Integer>();
+	private final Map<Worker,Integer> m_running = new Hashtable<Worker,Integer>();
+	private final Map<Worker,Runtimes> m_runtimes = new Hashtable<Worker,Runtimes>();
+	private int m_capacity = 0;
+	private int m_maxPerClient = 0;
+	private final Set<String> m_trustedClients = new HashSet<String>();
+	private final Map<String,Integer> m_clientTasks = new Hashtable<String,Integer>();
+	private int m_maxWaiting = 0;
+	private int m_waiting = 0;
 	private static Queue sm_instance = null;
 
 	protected Queue()
 	{
-		new ExecutionThread(this).start();
+		this(DEFAULT_THREADS);
+	}
+
+	/**
+	 * Creates a queue.
+	 * @param a_threads The number of tasks to execute in parallel.
+	 */
+	protected Queue(int a_threads)
+	{
+		setThreads(a_threads);
+		new WatchdogThread(this).start();
 	}
 
 	public synchronized static Queue getInstance()
@@ -168,13 +419,237 @@ public class Queue
 		return sm_instance;
 	}
 
+	/**
+	 * Applies the settings from the context parameters of a web application to the shared queue:
+	 * <code>queue_threads</code> ({@link #setThreads}), <code>queue_capacity</code> ({@link #setCapacity}),
+	 * <code>queue_max_per_client</code> ({@link #setMaxPerClient}), <code>queue_max_waiting</code>
+	 * ({@link #setMaxWaiting}) and <code>queue_trusted_clients</code> (a comma-separated list of IP addresses, see
+	 * {@link #getClient}).
+	 * @param a_context The servlet context of the web application.
+	 */
+	public static void configure(ServletContext a_context)
+	{
+		Queue queue = getInstance();
+
+		String threads = a_context.getInitParameter("queue_threads");
+		if(threads != null)
+			queue.setThreads(Integer.parseInt(threads.trim()));
+
+		String capacity = a_context.getInitParameter("queue_capacity");
+		if(capacity != null)
+			queue.setCapacity(Integer.parseInt(capacity.trim()));
+
+		String maxPerClient = a_context.getInitParameter("queue_max_per_client");
+		if(maxPerClient != null)
+			queue.setMaxPerClient(Integer.parseInt(maxPerClient.trim()));
+
+		String maxWaiting = a_context.getInitParameter("queue_max_waiting");
+		if(maxWaiting != null)
+			queue.setMaxWaiting(Integer.parseInt(maxWaiting.trim()));
+
+		String trustedClients = a_context.getInitParameter("queue_trusted_clients");
+		if(trustedClients != null)
+		{
+			for(String client : trustedClients.split(","))
+			{
+				if(client.trim().length() > 0)
+					queue.addTrustedClient(client.trim());
+			}
+		}
+	}
+
+	/**
+	 * Sets the number of tasks that are executed in parallel. When the number is reduced, running tasks are
+	 * finished first. The limit is best-effort: the thread of a task that has timed out is replaced, even though
+	 * the task may not have stopped yet, see {@link WatchdogThread}.
+	 * @param a_threads The number of threads, at least 1.
+	 */
+	public synchronized void setThreads(int a_threads)
+	{
+		if(a_threads < 1)
+			throw new IllegalArgumentException("The queue needs at least one thread.");
+
+		while(m_threads.size() < a_threads)
+		{
+			ExecutionThread thread = new ExecutionThread(this);
+			m_threads.add(thread);
+			thread.start();
+		}
+		while(m_threads.size() > a_threads)
+			m_threads.remove(m_threads.size()-1).m_retired = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * Returns the number of tasks that are executed in parallel.
+	 * @return The number of threads of the queue.
+	 */
+	public synchronized int getThreads()
+	{
+		return m_threads.size();
+	}
+
+	/**
+	 * Limits the number of tasks that can wait in the queue. When the limit is reached, new tasks of clients are
+	 * rejected, see {@link #scheduleTask(Worker, ID, Priority, String)}.
+	 * @param a_capacity The maximum number of waiting tasks, 0 for no limit.
+	 */
+	public synchronized void setCapacity(int a_capacity)
+	{
+		m_capacity = a_capacity;
+	}
+
+	/**
+	 * Limits the number of waiting or running tasks that one client can have scheduled at the same time, see
+	 * {@link #scheduleTask(Worker, ID, Priority, String)}.
+	 * @param a_maxPerClient The maximum number of tasks per client, 0 for no limit.
+	 */
+	public synchronized void setMaxPerClient(int a_maxPerClient)
+	{
+		m_maxPerClient = a_maxPerClient;
+	}
+
+	/**
+	 * Limits the number of request threads that can wait for tasks at the same time, see {@link #waitFor}.
+	 * @param a_maxWaiting The maximum number of waiting threads, 0 for no limit.
+	 */
+	public synchronized void setMaxWaiting(int a_maxWaiting)
+	{
+		m_maxWaiting = a_maxWaiting;
+	}
+
+	/**
+	 * Returns the number of threads that are currently waiting in {@link #waitFor}.
+	 * @return The number of waiting threads.
+	 */
+	public synchronized int getWaiting()
+	{
+		return m_waiting;
+	}
+
+	/**
+	 * Waits for a scheduled task to be executed, like {@link Notification#sleep}. Every waiting request occupies
+	 * a thread of the servlet container, so if {@link #setMaxWaiting} threads are waiting already, this method
+	 * returns immediately and the client has to come back for the result later.
+	 * @param a_notify The notification returned by {@link #scheduleTask}.
+	 * @param a_timeout The maximum time to wait in milliseconds, must be greater than 0.
+	 * @return True if the task has been executed.
+	 * @throws InterruptedException The current thread was interrupted while waiting.
+	 */
+	public boolean waitFor(Notification a_notify, long a_timeout) throws InterruptedException
+	{
+		if(a_timeout <= 0)
+			throw new IllegalArgumentException("Waiting without a timeout would block the thread forever.");
+
+		synchronized(this)
+		{
+			if(a_notify.notified())
+				return true;
+			if(m_maxWaiting > 0 && m_waiting >= m_maxWaiting)
+				return false;
+			m_waiting++;
+		}
+
+		try
+		{
+			a_notify.sleep(a_timeout);
+		}
+		finally
+		{
+			synchronized(this)
+			{
+				m_waiting--;
+			}
+		}
+		return a_notify.notified();
+	}
+
+	/**
+	 * Makes the tasks of a client exempt from {@link #setCapacity} and {@link #setMaxPerClient}.
+	 * @param a_address The IP address of the client.
+	 */
+	public synchronized void addTrustedClient(String a_address)
+	{
+		m_trustedClients.add(a_address);
+	}
+
+	/**
+	 * Returns the client that a request comes from, to pass to {@link #scheduleTask(Worker, ID, Priority, String)}.
+	 * @param a_request The request.
+	 * @return The IP address of the client or null if it is a trusted client.
+	 */
+	public synchronized String getClient(ServletRequest a_request)
+	{
+		String address = a_request.getRemoteAddr();
+		return (address == null || m_trustedClients.contains(address) ? null : address);
+	}
+
+	/**
+	 * Limits the number of tasks of a worker that are executed at the same time, so that expensive tasks cannot
+	 * occupy all threads of the queue. Other tasks are executed before the waiting tasks of the worker. Tasks that
+	 * have timed out count until they have actually stopped.
+	 * @param a_worker The worker.
+	 * @param a_maxParallel The maximum number of its tasks to execute in parallel, 0 for no limit.
+	 */
+	public synchronized void setMaxParallel(Worker a_worker, int a_maxParallel)
+	{
+		if(a_maxParallel > 0)
+			m_maxParallel.put(a_worker, a_maxParallel);
+		else
+			m_maxParallel.remove(a_worker);
+		this.notifyAll();
+	}
+
+	/**
+	 * Schedule the execution of a worker with the specified ID with {@link Priority#INTERACTIVE} priority.
+	 * @param a_worker The worker to call
+	 * @param a_id The ID to pass to the worker
+	 * @return A notification object that enables threads to wait for the execution of the worker.
+	 */
+	public Notification scheduleTask(Worker a_worker, ID a_id)
+	{
+		return scheduleTask(a_worker, a_id, Priority.INTERACTIVE);
+	}
+
 	/**
 	 * Schedule the execution of a worker with the specified ID.
+	 *
+	 * <p>Cheap and urgent tasks are executed first: the tasks are ordered by the time when they were scheduled plus
+	 * their estimated run time plus the {@link Priority#delay} of their priority. So a task is never overtaken by
+	 * tasks that are scheduled later than its own estimated run time and delay after it, and expensive tasks cannot
+	 * be postponed forever. The run time is estimated using the last run time of the same task,
+	 * {@link EstimatingWorker#estimateCost} or the average run time of the worker, in this order.
+	 *
+	 * <p>If the task is already scheduled with a lower priority, its priority is raised.
+	 * @param a_worker The worker to call
+	 * @param a_id The ID to pass to the worker
+	 * @param a_priority How urgently the result is needed
+	 * @return A notification object that enables threads to wait for the execution of the worker.
+	 */
+	public synchronized Notification scheduleTask(Worker a_worker, ID a_id, Priority a_priority)
+	{
+		try
+		{
+			return scheduleTask(a_worker, a_id, a_priority, null);
+		}
+		catch(QueueFullException e)
+		{ // Cannot happen without a client
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Like {@link #scheduleTask(Worker, ID, Priority)}, but the new task is only accepted if the queue has not
+	 * reached its capacity and the client does not have too many tasks scheduled yet. Tasks that are already
+	 * scheduled are always accepted.
 	 * @param a_worker The worker to call
 	 * @param a_id The ID to pass to the worker
+	 * @param a_priority How urgently the result is needed
+	 * @param a_client The client that schedules the task, see {@link #getClient}. Null to accept the task in any case.
 	 * @return A notification object that enables threads to wait for the execution of the worker.
+	 * @throws QueueFullException The task was rejected.
 	 */
-	public synchronized Notification scheduleTask(Worker a_worker, ID a_id)
+	public synchronized Notification scheduleTask(Worker a_worker, ID a_id, Priority a_priority, String a_client) throws QueueFullException
 	{
 		Map<ID,ScheduledTask> ids = m_ids.get(a_worker);
 		if(ids == null)
@@ -186,9 +661,28 @@ public class Queue
 		ScheduledTask task = ids.get(a_id);
 		if(task == null)
 		{
-			task = new ScheduledTask(a_worker, a_id);
+			if(a_client != null)
+			{
+				if(m_capacity > 0 && m_queue.size() >= m_capacity)
+					throw new QueueFullException("Too many tasks are scheduled.", RETRY_AFTER);
+
+				Integer clientTasks = m_clientTasks.get(a_client);
+				if(clientTasks == null)
+					clientTasks = 0;
+				if(m_maxPerClient > 0 && clientTasks >= m_maxPerClient)
+					throw new QueueFullException("You have too many tasks scheduled.", RETRY_AFTER);
+				m_clientTasks.put(a_client, clientTasks+1);
+			}
+
+			task = new ScheduledTask(a_worker, a_id, System.currentTimeMillis()+estimateCost(a_worker, a_id)+a_priority.delay, a_priority, a_client);
 			ids.put(a_id, task);
-			m_queue.add(task);
+			enqueue(task);
+		}
+		else if(a_priority.delay < task.priority.delay && m_queue.remove(task))
+		{ // Not running yet
+			task.rank += a_priority.delay-task.priority.delay;
+			task.priority = a_priority;
+			enqueue(task);
 		}
 
 		this.notify();
@@ -222,15 +716,149 @@ public class Queue
 		return in ? pos : 1;
 	}
 
+	/**
+	 * Inserts a task into the queue according to its rank.
+	 * @param a_task The task.
+	 */
+	protected synchronized void enqueue(ScheduledTask a_task)
+	{
+		// Usually the new task belongs near the end
+		ListIterator<ScheduledTask> it = m_queue.listIterator(m_queue.size());
+		while(it.hasPrevious())
+		{
+			if(it.previous().rank <= a_task.rank)
+			{
+				it.next();
+				break;
+			}
+		}
+		it.add(a_task);
+	}
+
+	/**
+	 * Estimates the run time of a task, see {@link #scheduleTask}.
+	 * @return The estimated run time in milliseconds.
+	 */
+	protected synchronized long estimateCost(Worker a_worker, ID a_id)
+	{
+		Runtimes runtimes = m_runtimes.get(a_worker);
+		if(runtimes != null)
+		{
+			Long runtime = runtimes.get(a_id);
+			if(runtime != null)
+				return runtime;
+		}
+
+		if(a_worker instanceof EstimatingWorker)
+		{
+			long estimate = ((EstimatingWorker)a_worker).estimateCost(a_id);
+			if(estimate >= 0)
+				return estimate;
+		}
+
+		if(runtimes != null)
+			return runtimes.getAverage();
+		return DEFAULT_COST;
+	}
+
+	/**
+	 * Removes the first task from the queue whose worker has not reached its limit set by {@link #setMaxParallel}.
+	 * @return The task or null if there is no task that can be executed now.
+	 */
 	protected synchronized ScheduledTask getQueuedTask()
 	{
-		return m_queue.poll();
+		for(Iterator<ScheduledTask> it = m_queue.iterator(); it.hasNext(); )
+		{
+			ScheduledTask task = it.next();
+			Integer max = m_maxParallel.get(task.worker);
+			Integer running = m_running.get(task.worker);
+			if(running == null)
+				running = 0;
+			if(max == null || running < max)
+			{
+				it.remove();
+				m_running.put(task.worker, running+1);
+				return task;
+			}
+		}
+		return null;
 	}
 
-	protected synchronized void taskFinished(Worker a_worker, ID a_id)
+	/**
+	 * Removes a task that has been executed.
+	 * @param a_task The task.
+	 * @param a_runtime How long the task took in milliseconds.
+	 */
+	protected synchronized void taskFinished(ScheduledTask a_task, long a_runtime)
 	{
-		Map<ID,ScheduledTask> ids = m_ids.get(a_worker);
+		Runtimes runtimes = m_runtimes.get(a_task.worker);
+		if(runtimes == null)
+		{
+			runtimes = new Runtimes();
+			m_runtimes.put(a_task.worker, runtimes);
+		}
+		runtimes.add(a_task.id, a_runtime);
+
+		if(a_task.client != null)
+		{
+			Integer clientTasks = m_clientTasks.get(a_task.client);
+			if(clientTasks != null && clientTasks > 1)
+				m_clientTasks.put(a_task.client, clientTasks-1);
+			else
+				m_clientTasks.remove(a_task.client);
+		}
+
+		Map<ID,ScheduledTask> ids = m_ids.get(a_task.worker);
 		if(ids != null)
-			ids.remove(a_id);
+			ids.remove(a_task.id);
+	}
+
+	/**
+	 * Counts a task as not running anymore. Unlike {@link #taskFinished}, this is not done by the watchdog when the
+	 * task times out but only when it has actually stopped.
+	 * @param a_task The task.
+	 */
+	protected synchronized void taskExited(ScheduledTask a_task)
+	{
+		Integer running = m_running.get(a_task.worker);
+		if(running != null && running > 1)
+			m_running.put(a_task.worker, running-1);
+		else
+			m_running.remove(a_task.worker);
+
+		// A task of the same worker might be able to run now
+		this.notifyAll();
+	}
+
+	/**
+	 * Interrupts the tasks that have been running for longer than {@link #TIMEOUT} and replaces their threads.
+	 */
+	protected void checkTimeouts()
+	{
+		ArrayList<ScheduledTask> timedOut = new ArrayList<ScheduledTask>();
+		synchronized(this)
+		{
+			long now = System.currentTimeMillis();
+			for(int i=0; i<m_threads.size(); i++)
+			{
+				ExecutionThread thread = m_threads.get(i);
+				if(thread.m_task == null || now-thread.m_taskStarted < TIMEOUT)
+					continue;
+
+				sm_logger.warning("Queue Worker timed out on "+thread.m_task.id+".");
+				thread.m_retired = true;
+				thread.m_timedOut = true;
+				thread.interrupt();
+				taskFinished(thread.m_task, now-thread.m_taskStarted);
+				timedOut.add(thread.m_task);
+
+				ExecutionThread replacement = new ExecutionThread(this);
+				m_threads.set(i, replacement);
+				replacement.start();
+			}
+		}
+
+		for(ScheduledTask task : timedOut)
+			task.notify._notify();
 	}
 }
@@ -0,0 +1,105 @@
+/*
+	This file is part of the OSM Route Manager and History Viewer.
+
+	OSM Route Manager and History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager and History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.cdauth.osm.web.common;
+
+import eu.cdauth.osm.lib.ItemCache;
+import eu.cdauth.osm.lib.api06.API06API;
+import eu.cdauth.osm.lib.api06.API06HttpTransport;
+import javax.servlet.ServletContext;
+
+/**
+ * Provides the API object that is shared by all workers and pages, so that objects downloaded for one task are
+ * still cached for the next one. Current versions of objects are downloaded again after {@link #CACHE_MAX_AGE}.
+ *
+ * <p>The limits of the object caches can be set using the context parameters <code>api_cache_max_weight</code>
+ * (roughly the maximum number of objects per object type) and <code>api_cache_max_age</code> (in seconds), see
+ * {@link #configure}. The caches are cleaned up regularly by the maintenance thread of {@link ItemCache}.
+ *
+ * <p>The server is set using the context parameter <code>api_url</code> (for example a local mirror, defaults to
+ * {@link API06API#DEFAULT_API_URL}), the HTTP connections using <code>api_max_connections</code>,
+ * <code>api_connect_timeout</code> and <code>api_read_timeout</code> (in milliseconds).
+ * @author cdauth
+ */
+public class SharedAPI
+{
+	/**
+	 * The maximum age of cached objects in seconds.
+	 */
+	public static final int CACHE_MAX_AGE = 600;
+
+	private static API06API sm_instance = null;
+	private static boolean sm_configured = false;
+
+	protected SharedAPI()
+	{
+	}
+
+	/**
+	 * Returns the shared API object. It is created on the first call.
+	 * @return The shared API object.
+	 */
+	public synchronized static API06API getInstance()
+	{
+		if(sm_instance == null)
+		{
+			sm_instance = new API06API();
+			sm_instance.setCacheMaxAge(CACHE_MAX_AGE);
+		}
+		return sm_instance;
+	}
+
+	/**
+	 * Creates the shared API object using the settings from the context parameters of a web application. Only the
+	 * first call has an effect, the pages of an application all call this method when they are initialised. If
+	 * the API object has already been created without the settings, it is replaced.
+	 * @param a_context The servlet context of the web application.
+	 */
+	public synchronized static void configure(ServletContext a_context)
+	{
+		if(sm_configured)
+			return;
+		sm_configured = true;
+
+		String maxConnections = a_context.getInitParameter("api_max_connections");
+		int connections = (maxConnections == null ? API06HttpTransport.DEFAULT_MAX_CONNECTIONS : Integer.parseInt(maxConnections.trim()));
+		API06HttpTransport transport = new API06HttpTransport(connections);
+
+		String connectTimeout = a_context.getInitParameter("api_connect_timeout");
+		if(connectTimeout != null)
+			transport.setConnectTimeout(Integer.parseInt(connectTimeout.trim()));
+
+		String readTimeout = a_context.getInitParameter("api_read_timeout");
+		if(readTimeout != null)
+			transport.setReadTimeout(Integer.parseInt(readTimeout.trim()));
+
+		String url = a_context.getInitParameter("api_url");
+		API06API api = new API06API(url == null || url.trim().length() == 0 ? API06API.DEFAULT_API_URL : url.trim(), transport);
+		api.setParallelRequests(connections);
+		api.setCacheMaxAge(CACHE_MAX_AGE);
+
+		String maxWeight = a_context.getInitParameter("api_cache_max_weight");
+		if(maxWeight != null)
+			api.setCacheMaxWeight(Long.parseLong(maxWeight.trim()));
+
+		String maxAge = a_context.getInitParameter("api_cache_max_age");
+		if(maxAge != null)
+			api.setCacheMaxAge(Integer.parseInt(maxAge.trim()));
+
+		sm_instance = api;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+	This file is part of the OSM Route Manager and History Viewer.
+
+	OSM Route Manager and History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager and History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.cdauth.osm.web.common;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CacheTest
+{
+	private static Cache<String> makeCache() throws IOException
+	{
+		File dir = File.createTempFile("cachetest", "");
+		dir.delete();
+		dir.deleteOnExit();
+		return new Cache<String>(dir.getPath());
+	}
+
+	/**
+	 * Makes an entry look like it was saved the given number of seconds ago.
+	 */
+	private static void setAge(Cache<String> a_cache, String a_id, long a_age)
+	{
+		File file = a_cache.getFileByID(a_id);
+		file.deleteOnExit();
+		assertTrue(file.setLastModified(System.currentTimeMillis()-a_age*1000));
+	}
+
+	@Test
+	public void staleEntries() throws IOException
+	{
+		Cache<String> cache = makeCache();
+		cache.setFreshAge(86400*7);
+		cache.setMaxAge(86400*90);
+
+		cache.saveEntry("fresh", "a");
+		setAge(cache, "fresh", 86400*7-60);
+		cache.saveEntry("stale", "b");
+		setAge(cache, "stale", 86400*7+60);
+		cache.saveEntry("old", "c");
+		setAge(cache, "old", 86400*90+60);
+
+		assertEquals("a", cache.getEntry("fresh").content);
+		assertNull(cache.getEntry("stale"));
+		assertEquals("b", cache.getEntry("stale", true).content);
+
+		cache.clearOldEntries();
+		assertEquals("a", cache.getEntry("fresh").content);
+		assertEquals("b", cache.getEntry("stale", true).content);
+		assertNull(cache.getEntry("old", true));
+
+		cache.setFreshAge(0);
+		assertEquals("b", cache.getEntry("stale").content);
+	}
+
+	@Test
+	public void maxSize() throws IOException
+	{
+		Cache<String> cache = makeCache();
+		for(int i=0; i<5; i++)
+		{
+			cache.saveEntry("entry"+i, "content");
+			setAge(cache, "entry"+i, 60*(5-i));
+		}
+		long size = cache.getFileByID("entry0").length();
+		cache.setMaxSize(size*3);
+		cache.clearOldEntries();
+
+		// The oldest entries are deleted first
+		assertNull(cache.getEntry("entry0"));
+		assertNull(cache.getEntry("entry1"));
+		for(int i=2; i<5; i++)
+			assertEquals("content", cache.getEntry("entry"+i).content);
+	}
+}
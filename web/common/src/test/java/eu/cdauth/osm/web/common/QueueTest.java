@@ -0,0 +1,368 @@
+/*
+	This file is part of the OSM Route Manager and History Viewer.
+
+	OSM Route Manager and History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager and History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package eu.cdauth.osm.web.common;
+
+import eu.cdauth.osm.lib.ID;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class QueueTest
+{
+	/**
+	 * A worker whose tasks block until {@link #release} is called.
+	 */
+	protected static class BlockingWorker implements Queue.Worker
+	{
+		public final AtomicInteger running = new AtomicInteger(0);
+		public final AtomicInteger maxRunning = new AtomicInteger(0);
+		public final AtomicInteger executed = new AtomicInteger(0);
+		private final CountDownLatch m_release = new CountDownLatch(1);
+
+		public void work(ID a_id)
+		{
+			int now = running.incrementAndGet();
+			synchronized(maxRunning)
+			{
+				if(now > maxRunning.get())
+					maxRunning.set(now);
+			}
+			try
+			{
+				m_release.await();
+			}
+			catch(InterruptedException e)
+			{
+			}
+			running.decrementAndGet();
+			executed.incrementAndGet();
+		}
+
+		public void release()
+		{
+			m_release.countDown();
+		}
+	}
+
+	private static void waitFor(AtomicInteger a_value, int a_expected) throws InterruptedException
+	{
+		for(int i=0; i<500 && a_value.get() != a_expected; i++)
+			Thread.sleep(10);
+		assertEquals(a_expected, a_value.get());
+	}
+
+	@Test
+	public void parallel() throws Exception
+	{
+		Queue queue = new Queue(3);
+		BlockingWorker limited = new BlockingWorker();
+		BlockingWorker other = new BlockingWorker();
+		queue.setMaxParallel(limited, 1);
+
+		Queue.Notification notify = null;
+		for(long i=1; i<=3; i++)
+			notify = queue.scheduleTask(limited, new ID(i));
+		assertSame(notify, queue.scheduleTask(limited, new ID(3L)));
+		queue.scheduleTask(other, new ID(1L));
+		queue.scheduleTask(other, new ID(2L));
+
+		// One task of the limited worker and both of the other one
+		waitFor(limited.running, 1);
+		waitFor(other.running, 2);
+		assertEquals(1, queue.getPosition(limited, new ID(1L)));
+		assertEquals(2, queue.getPosition(limited, new ID(2L)));
+		assertEquals(3, queue.getPosition(limited, new ID(3L)));
+		assertEquals(1, queue.getPosition(other, new ID(2L)));
+		assertEquals(0, queue.getPosition(other, new ID(3L)));
+
+		limited.release();
+		other.release();
+		notify.sleep(5000);
+		assertTrue(notify.notified());
+		waitFor(limited.executed, 3);
+		waitFor(other.executed, 2);
+		assertEquals(1, limited.maxRunning.get());
+		assertEquals(0, queue.getPosition(limited, new ID(3L)));
+	}
+
+	@Test
+	public void cheapTasksFirst() throws Exception
+	{
+		Queue queue = new Queue(1);
+		BlockingWorker blocker = new BlockingWorker();
+		final List<ID> executed = Collections.synchronizedList(new ArrayList<ID>());
+		Queue.Worker worker = new Queue.EstimatingWorker() {
+			public long estimateCost(ID a_id)
+			{
+				return a_id.asLong()*60000;
+			}
+
+			public void work(ID a_id)
+			{
+				executed.add(a_id);
+			}
+		};
+
+		queue.scheduleTask(blocker, new ID(1L));
+		waitFor(blocker.running, 1);
+		queue.scheduleTask(worker, new ID(3L));
+		queue.scheduleTask(worker, new ID(2L));
+		Queue.Notification notify = queue.scheduleTask(worker, new ID(1L));
+		assertEquals(2, queue.getPosition(worker, new ID(1L)));
+		assertEquals(3, queue.getPosition(worker, new ID(2L)));
+		assertEquals(4, queue.getPosition(worker, new ID(3L)));
+
+		blocker.release();
+		notify.sleep(5000);
+		for(int i=0; i<500 && executed.size() < 3; i++)
+			Thread.sleep(10);
+		assertEquals(Arrays.asList(new ID(1L), new ID(2L), new ID(3L)), executed);
+
+		// The measured run time is used now
+		BlockingWorker blocker2 = new BlockingWorker();
+		queue.scheduleTask(blocker2, new ID(1L));
+		waitFor(blocker2.running, 1);
+		queue.scheduleTask(worker, new ID(5L));
+		queue.scheduleTask(worker, new ID(3L));
+		assertEquals(2, queue.getPosition(worker, new ID(3L)));
+		blocker2.release();
+	}
+
+	@Test
+	public void priorities() throws Exception
+	{
+		Queue queue = new Queue(1);
+		BlockingWorker blocker = new BlockingWorker();
+		BlockingWorker worker = new BlockingWorker();
+		queue.scheduleTask(blocker, new ID(1L));
+		waitFor(blocker.running, 1);
+
+		queue.scheduleTask(worker, new ID(1L), Queue.Priority.BACKGROUND);
+		queue.scheduleTask(worker, new ID(2L), Queue.Priority.REFRESH);
+		queue.scheduleTask(worker, new ID(3L), Queue.Priority.INTERACTIVE);
+		assertEquals(2, queue.getPosition(worker, new ID(3L)));
+		assertEquals(3, queue.getPosition(worker, new ID(2L)));
+		assertEquals(4, queue.getPosition(worker, new ID(1L)));
+
+		// A user is waiting for the background task now
+		queue.scheduleTask(worker, new ID(1L), Queue.Priority.INTERACTIVE);
+		assertEquals(3, queue.getPosition(worker, new ID(1L)));
+		assertEquals(4, queue.getPosition(worker, new ID(2L)));
+
+		// Priorities are not lowered
+		queue.scheduleTask(worker, new ID(3L), Queue.Priority.BACKGROUND);
+		assertEquals(2, queue.getPosition(worker, new ID(3L)));
+
+		blocker.release();
+		worker.release();
+	}
+
+	@Test
+	public void admission() throws Exception
+	{
+		Queue queue = new Queue(1);
+		queue.setCapacity(3);
+		queue.setMaxPerClient(2);
+		BlockingWorker worker = new BlockingWorker();
+
+		queue.scheduleTask(worker, new ID(1L), Queue.Priority.INTERACTIVE, "a");
+		waitFor(worker.running, 1);
+		queue.scheduleTask(worker, new ID(2L), Queue.Priority.INTERACTIVE, "a");
+		queue.scheduleTask(worker, new ID(2L), Queue.Priority.INTERACTIVE, "a"); // Already scheduled
+		try
+		{
+			queue.scheduleTask(worker, new ID(3L), Queue.Priority.INTERACTIVE, "a");
+			fail("Client limit exceeded");
+		}
+		catch(Queue.QueueFullException e)
+		{
+			assertEquals(Queue.RETRY_AFTER, e.getRetryAfter());
+		}
+
+		queue.scheduleTask(worker, new ID(3L), Queue.Priority.INTERACTIVE, "b");
+		queue.scheduleTask(worker, new ID(4L), Queue.Priority.INTERACTIVE, "c");
+		try
+		{
+			queue.scheduleTask(worker, new ID(5L), Queue.Priority.INTERACTIVE, "d");
+			fail("Capacity exceeded");
+		}
+		catch(Queue.QueueFullException e)
+		{
+		}
+		queue.scheduleTask(worker, new ID(5L), Queue.Priority.INTERACTIVE, null);
+		assertEquals(5, queue.getPosition(worker, new ID(5L)));
+
+		// Finished tasks do not count anymore
+		worker.release();
+		waitFor(worker.executed, 5);
+		queue.scheduleTask(worker, new ID(6L), Queue.Priority.INTERACTIVE, "a");
+		queue.scheduleTask(worker, new ID(7L), Queue.Priority.INTERACTIVE, "a");
+	}
+
+	@Test
+	public void waitingIsLimited() throws Exception
+	{
+		Queue queue = new Queue(1);
+		queue.setMaxWaiting(1);
+		BlockingWorker worker = new BlockingWorker();
+		final Queue.Notification notify = queue.scheduleTask(worker, new ID(1L));
+		waitFor(worker.running, 1);
+
+		final Queue fQueue = queue;
+		final AtomicInteger notified = new AtomicInteger(0);
+		Thread waiting = new Thread() {
+			@Override public void run()
+			{
+				try
+				{
+					if(fQueue.waitFor(notify, 5000))
+						notified.incrementAndGet();
+				}
+				catch(InterruptedException e)
+				{
+				}
+			}
+		};
+		waiting.start();
+		for(int i=0; i<500 && queue.getWaiting() < 1; i++)
+			Thread.sleep(10);
+		assertEquals(1, queue.getWaiting());
+
+		// No more threads are blocked
+		long start = System.currentTimeMillis();
+		assertFalse(queue.waitFor(notify, 5000));
+		assertTrue(System.currentTimeMillis()-start < 1000);
+
+		worker.release();
+		waiting.join(5000);
+		assertEquals(1, notified.get());
+		assertEquals(0, queue.getWaiting());
+		assertTrue(queue.waitFor(notify, 5000));
+	}
+
+	@Test
+	public void timeout() throws Exception
+	{
+		int timeout = Queue.TIMEOUT;
+		Queue.TIMEOUT = 100;
+		try
+		{
+			Queue queue = new Queue(1);
+			Queue.Worker stuck = new Queue.Worker() {
+				public void work(ID a_id)
+				{
+					long end = System.currentTimeMillis()+2000;
+					while(System.currentTimeMillis() < end); // Ignores the interruption
+				}
+			};
+			BlockingWorker next = new BlockingWorker();
+			next.release();
+
+			Queue.Notification stuckNotify = queue.scheduleTask(stuck, new ID(1L));
+			Queue.Notification nextNotify = queue.scheduleTask(next, new ID(1L));
+			nextNotify.sleep(1500);
+			assertTrue(stuckNotify.notified());
+			assertTrue(nextNotify.notified());
+			assertEquals(1, queue.getThreads());
+		}
+		finally
+		{
+			Queue.TIMEOUT = timeout;
+		}
+	}
+
+	@Test
+	public void timedOutTasksCountUntilTheyStop() throws Exception
+	{
+		int timeout = Queue.TIMEOUT;
+		Queue.TIMEOUT = 100;
+		try
+		{
+			Queue queue = new Queue(2);
+			final AtomicInteger running = new AtomicInteger(0);
+			final AtomicInteger maxRunning = new AtomicInteger(0);
+			final CountDownLatch stopped = new CountDownLatch(2);
+			Queue.Worker stuck = new Queue.Worker() {
+				public void work(ID a_id)
+				{
+					int now = running.incrementAndGet();
+					synchronized(maxRunning)
+					{
+						if(now > maxRunning.get())
+							maxRunning.set(now);
+					}
+					long end = System.currentTimeMillis()+500;
+					while(System.currentTimeMillis() < end); // Ignores the interruption
+					running.decrementAndGet();
+					stopped.countDown();
+				}
+			};
+			queue.setMaxParallel(stuck, 1);
+			BlockingWorker other = new BlockingWorker();
+			other.release();
+
+			queue.scheduleTask(stuck, new ID(1L));
+			queue.scheduleTask(stuck, new ID(2L));
+			Queue.Notification otherNotify = queue.scheduleTask(other, new ID(1L));
+			otherNotify.sleep(400);
+			assertTrue(otherNotify.notified()); // The queue continues while the tasks are stuck
+			assertTrue(stopped.await(3, TimeUnit.SECONDS));
+			assertEquals(1, maxRunning.get());
+		}
+		finally
+		{
+			Queue.TIMEOUT = timeout;
+		}
+	}
+
+	@Test
+	public void threadsCanBeChanged() throws Exception
+	{
+		Queue queue = new Queue(1);
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		Queue.Worker worker = new Queue.Worker() {
+			public void work(ID a_id)
+			{
+				started.countDown();
+				try
+				{
+					release.await();
+				}
+				catch(InterruptedException e)
+				{
+				}
+			}
+		};
+		queue.scheduleTask(worker, new ID(1L));
+		Queue.Notification notify = queue.scheduleTask(worker, new ID(2L));
+		assertFalse(started.await(200, TimeUnit.MILLISECONDS));
+
+		queue.setThreads(2);
+		assertTrue(started.await(5000, TimeUnit.MILLISECONDS));
+		release.countDown();
+		notify.sleep(5000);
+		assertTrue(notify.notified());
+	}
+}
@@ -0,0 +1,641 @@
+/*
+	This file is part of the OSM History Viewer.
+
+	OSM History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+
+	Copyright © 2010 Candid Dauth
+*/
+
+package eu.cdauth.osm.web.osmhv;
+
+import eu.cdauth.osm.lib.API;
+import eu.cdauth.osm.lib.APIError;
+import eu.cdauth.osm.lib.ID;
+import eu.cdauth.osm.lib.Node;
+import eu.cdauth.osm.lib.Relation;
+import eu.cdauth.osm.lib.RelationMember;
+import eu.cdauth.osm.lib.Segment;
+import eu.cdauth.osm.lib.Version;
+import eu.cdauth.osm.lib.VersionedItem;
+import eu.cdauth.osm.lib.VersionedItemFactory;
+import eu.cdauth.osm.lib.Way;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Goes back in time through the history of a relation and of all its members and finds out which changeset
+ * created each of the current segments of the relation.
+ *
+ * <p>All versions of all the objects that belong to the relation form one timeline of changes. Starting with the
+ * current state, the changes are undone one point of time after the other, the newest first. The segments of the
+ * relation are updated with each change: a changed way or a changed sub-relation only replaces its own segments,
+ * a moved node only the segments next to it. A current segment is blamed on the changeset of the change since
+ * which it has existed without interruption, the timeline is processed until all current segments are blamed.
+ *
+ * <p>The histories of the objects are only downloaded when the objects become part of the relation on the way
+ * back, all objects that are needed at one point of time are downloaded at once.
+ */
+class BlameTimeline
+{
+	/**
+	 * If several objects were changed at the same time, the changeset of the one with the lowest priority is blamed.
+	 */
+	protected static final int PRIORITY_MAIN_RELATION = 0;
+	protected static final int PRIORITY_NODE = 1;
+	protected static final int PRIORITY_WAY = 2;
+	protected static final int PRIORITY_RELATION = 3;
+
+	/**
+	 * The point of time when the current version of an object was created. When the timeline reaches this point,
+	 * the version is replaced by the previous one.
+	 */
+	protected static class Event implements Comparable<Event>
+	{
+		public final long time;
+		public final ItemState<?> state;
+		public final VersionedItem version;
+
+		public Event(ItemState<?> a_state, VersionedItem a_version)
+		{
+			time = a_version.getTimestamp().getTime();
+			state = a_state;
+			version = a_version;
+		}
+
+		public int getPriority()
+		{
+			return state.getPriority(version.getID());
+		}
+
+		@Override
+		public int compareTo(Event a_other)
+		{
+			if(time != a_other.time)
+				return (time > a_other.time ? -1 : 1);
+			int c = getPriority()-a_other.getPriority();
+			if(c != 0)
+				return c;
+			return version.getID().compareTo(a_other.version.getID());
+		}
+	}
+
+	/**
+	 * The histories of all the objects of one type that have been part of the relation so far, and the version of
+	 * each one at the current point of the timeline.
+	 */
+	protected class ItemState<T extends VersionedItem>
+	{
+		private final VersionedItemFactory<T> m_factory;
+		private final int m_priority;
+		private final Map<ID,NavigableMap<Version,T>> m_histories = new HashMap<ID,NavigableMap<Version,T>>();
+		private final Map<ID,T> m_versions = new HashMap<ID,T>();
+
+		public ItemState(VersionedItemFactory<T> a_factory, int a_priority)
+		{
+			m_factory = a_factory;
+			m_priority = a_priority;
+		}
+
+		public int getPriority(ID a_id)
+		{
+			return m_priority;
+		}
+
+		public boolean isKnown(ID a_id)
+		{
+			return m_histories.containsKey(a_id);
+		}
+
+		/**
+		 * Returns the version of an object at the current point of the timeline.
+		 * @param a_id The ID of the object. Its history must have been loaded.
+		 * @return The version or null if the object did not exist at that time.
+		 */
+		public T get(ID a_id)
+		{
+			return m_versions.get(a_id);
+		}
+
+		/**
+		 * Downloads the histories of the objects that are not known yet, all at once, and adds their versions
+		 * of the current point of the timeline to it.
+		 * @param a_ids The IDs of the objects.
+		 * @throws APIError There was an error communicating with the API.
+		 */
+		public void load(Collection<ID> a_ids) throws APIError
+		{
+			ArrayList<ID> unknown = new ArrayList<ID>();
+			for(ID id : a_ids)
+			{
+				if(!isKnown(id))
+					unknown.add(id);
+			}
+			if(unknown.size() == 0)
+				return;
+
+			for(Map.Entry<ID,NavigableMap<Version,T>> history : m_factory.fetchHistories(unknown.toArray(new ID[unknown.size()])).entrySet())
+			{
+				m_histories.put(history.getKey(), history.getValue());
+				setVersion(history.getKey(), getVersionBefore(history.getValue().descendingMap().values(), m_time));
+			}
+		}
+
+		/**
+		 * Replaces the version of an event by the version that was current before the event.
+		 * @param a_event An event of this type, taken from the timeline.
+		 */
+		public void revert(Event a_event)
+		{
+			ID id = a_event.version.getID();
+			NavigableMap<Version,T> history = m_histories.get(id);
+			setVersion(id, getVersionBefore(history.headMap(a_event.version.getVersion(), false).descendingMap().values(), a_event.time));
+		}
+
+		private void setVersion(ID a_id, T a_version)
+		{
+			if(a_version == null)
+				m_versions.remove(a_id);
+			else
+			{
+				m_versions.put(a_id, a_version);
+				m_timeline.add(new Event(this, a_version));
+			}
+		}
+	}
+
+	private final ID m_relationId;
+	private final ItemState<Node> m_nodes;
+	private final ItemState<Way> m_ways;
+	private final ItemState<Relation> m_relations;
+	private final PriorityQueue<Event> m_timeline = new PriorityQueue<Event>();
+
+	/**
+	 * The current point of the timeline. The versions of all objects are the newest ones that were created before
+	 * this time.
+	 */
+	private long m_time = Long.MAX_VALUE;
+
+	private Date m_coveredUpTo = null;
+
+	private Set<ID> m_memberNodes = new HashSet<ID>();
+	private Set<ID> m_memberWays = new HashSet<ID>();
+	private Set<ID> m_memberRelations = new HashSet<ID>();
+
+	/**
+	 * For each node, the ways in {@link #m_memberWays} that contain it, once for each position of the node in the way.
+	 */
+	private final Map<ID,List<WayPosition>> m_nodeWays = new HashMap<ID,List<WayPosition>>();
+
+	/**
+	 * How many times each segment exists at the current point of the timeline. Only the current segments of
+	 * the relation that have not been blamed yet are counted (after the initial state has been made).
+	 */
+	private final Map<Segment,int[]> m_segments = new HashMap<Segment,int[]>();
+	private Set<Segment> m_currentSegments = null;
+	private final Set<Segment> m_removedSegments = new HashSet<Segment>();
+
+	private final Map<Segment,ID> m_blame = new HashMap<Segment,ID>();
+
+	protected static class WayPosition
+	{
+		public final ID way;
+		public final int index;
+
+		public WayPosition(ID a_way, int a_index)
+		{
+			way = a_way;
+			index = a_index;
+		}
+	}
+
+	public BlameTimeline(API a_api, ID a_relationId)
+	{
+		m_relationId = a_relationId;
+		m_nodes = new ItemState<Node>(a_api.getNodeFactory(), PRIORITY_NODE);
+		m_ways = new ItemState<Way>(a_api.getWayFactory(), PRIORITY_WAY);
+		m_relations = new ItemState<Relation>(a_api.getRelationFactory(), PRIORITY_RELATION) {
+			@Override
+			public int getPriority(ID a_id)
+			{
+				return (a_id.equals(m_relationId) ? PRIORITY_MAIN_RELATION : PRIORITY_RELATION);
+			}
+		};
+	}
+
+	/**
+	 * Returns the newest of the given versions that was created before the given time.
+	 * @param a_versions The versions, the newest first.
+	 */
+	private static <T extends VersionedItem> T getVersionBefore(Iterable<T> a_versions, long a_time)
+	{
+		for(T version : a_versions)
+		{
+			if(version.getTimestamp().getTime() < a_time)
+				return version;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the current version of the relation.
+	 * @return The current version of the relation or null if the relation does not exist.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+	public Relation getCurrentRelation() throws APIError
+	{
+		m_relations.load(Collections.singleton(m_relationId));
+		return m_relations.m_histories.get(m_relationId).lastEntry().getValue();
+	}
+
+	/**
+	 * Processes the whole timeline.
+	 * @return The ID of the changeset that created each of the current segments of the relation. Segments that
+	 *         cannot be blamed on any changeset are not contained.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+	public Map<Segment,ID> run() throws APIError
+	{
+		return run(null, null);
+	}
+
+	/**
+	 * Processes the timeline back to the point of time covered by a previous result and takes over the blame of
+	 * the segments that still exist at that point from it. As the history of the objects up to that point has not
+	 * changed, the result is the same as if the whole timeline was processed.
+	 * @param a_coveredUpTo The {@link #getCoveredUpTo} of the previous result, null to process the whole timeline.
+	 * @param a_previous The previous result. Ignored if a_coveredUpTo is null.
+	 * @return The ID of the changeset that created each of the current segments of the relation. Segments that
+	 *         cannot be blamed on any changeset are not contained.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+	public Map<Segment,ID> run(Date a_coveredUpTo, Map<Segment,ID> a_previous) throws APIError
+	{
+		// Make the current state
+		update(null, new HashSet<ID>(), new HashSet<ID>(), true);
+		m_currentSegments = new HashSet<Segment>(m_segments.keySet());
+		m_removedSegments.clear();
+		if(m_timeline.size() > 0)
+			m_coveredUpTo = new Date(m_timeline.peek().time);
+
+		long stopTime = (a_coveredUpTo == null ? Long.MIN_VALUE : a_coveredUpTo.getTime());
+		while(m_segments.size() > 0 && m_timeline.size() > 0 && m_timeline.peek().time > stopTime)
+		{
+			m_time = m_timeline.peek().time;
+
+			ID changeset = null;
+			HashSet<ID> changedNodes = new HashSet<ID>();
+			HashSet<ID> changedWays = new HashSet<ID>();
+			boolean relationChanged = false;
+			List<Event> events = new ArrayList<Event>();
+			while(m_timeline.size() > 0 && m_timeline.peek().time == m_time)
+			{
+				Event event = m_timeline.poll();
+				events.add(event);
+
+				ID id = event.version.getID();
+				boolean relevant;
+				if(event.state == m_nodes)
+				{
+					relevant = (m_memberNodes.contains(id) || m_nodeWays.containsKey(id));
+					changedNodes.add(id);
+				}
+				else if(event.state == m_ways)
+				{
+					relevant = m_memberWays.contains(id);
+					changedWays.add(id);
+				}
+				else
+				{
+					relevant = (id.equals(m_relationId) || m_memberRelations.contains(id));
+					relationChanged = relationChanged || relevant;
+				}
+
+				// The events are ordered by priority
+				if(changeset == null && relevant)
+					changeset = event.version.getChangeset();
+			}
+
+			update(events, changedNodes, changedWays, relationChanged);
+
+			for(Segment segment : m_removedSegments)
+			{
+				if(changeset != null && !m_segments.containsKey(segment))
+				{
+					// Older versions of the segment are not of interest
+					m_blame.put(segment, changeset);
+					m_currentSegments.remove(segment);
+				}
+			}
+			m_removedSegments.clear();
+		}
+
+		if(a_coveredUpTo != null)
+		{
+			// The remaining segments have existed since before the previous result was created
+			for(Segment segment : m_segments.keySet())
+			{
+				ID changeset = a_previous.get(segment);
+				if(changeset != null)
+					m_blame.put(segment, changeset);
+			}
+		}
+
+		return m_blame;
+	}
+
+	/**
+	 * Returns the point of time of the newest change of the relation and its members. A result of {@link #run}
+	 * contains all changes up to this time and can be continued from there using {@link #run(Date, Map)}
+	 * once the relation has changed.
+	 * @return The time of the newest change or null if {@link #run} has not been called yet.
+	 */
+	public Date getCoveredUpTo()
+	{
+		return m_coveredUpTo;
+	}
+
+	/**
+	 * Undoes the given changes and updates the segments.
+	 * @param a_events The events to undo, null to make the initial state.
+	 * @param a_changedNodes The IDs of the nodes of a_events.
+	 * @param a_changedWays The IDs of the ways of a_events.
+	 * @param a_relationChanged Whether the relation or one of its sub-relations is changed by a_events.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+	private void update(List<Event> a_events, Set<ID> a_changedNodes, Set<ID> a_changedWays, boolean a_relationChanged) throws APIError
+	{
+		if(a_events != null)
+		{
+			for(Event event : a_events)
+			{
+				if(event.state == m_relations)
+					m_relations.revert(event);
+			}
+		}
+
+		Set<ID> oldNodes = m_memberNodes;
+		Set<ID> oldWays = m_memberWays;
+		if(a_relationChanged)
+			updateMembers();
+
+		// Remove the segments that change, using the old versions
+		HashSet<ID> removeWays = new HashSet<ID>();
+		for(ID way : oldWays)
+		{
+			if(a_changedWays.contains(way) || !m_memberWays.contains(way))
+				removeWays.add(way);
+		}
+		Map<ID,Set<Integer>> changedPairs = new HashMap<ID,Set<Integer>>();
+		for(ID node : a_changedNodes)
+		{
+			List<WayPosition> positions = m_nodeWays.get(node);
+			if(positions == null)
+				continue;
+			for(WayPosition position : positions)
+			{
+				if(removeWays.contains(position.way))
+					continue;
+				Set<Integer> pairs = changedPairs.get(position.way);
+				if(pairs == null)
+				{
+					pairs = new HashSet<Integer>();
+					changedPairs.put(position.way, pairs);
+				}
+				pairs.add(position.index-1);
+				pairs.add(position.index);
+			}
+		}
+
+		for(ID way : removeWays)
+		{
+			Way version = m_ways.get(way);
+			if(version != null)
+			{
+				ID[] members = version.getMembers();
+				for(int i=0; i<members.length; i++)
+				{
+					removeSegment(makeSegment(members, i));
+					removePosition(members[i], way);
+				}
+			}
+		}
+		for(Map.Entry<ID,Set<Integer>> pairs : changedPairs.entrySet())
+		{
+			ID[] members = m_ways.get(pairs.getKey()).getMembers();
+			for(int pair : pairs.getValue())
+				removeSegment(makeSegment(members, pair));
+		}
+		for(ID node : oldNodes)
+		{
+			if(a_changedNodes.contains(node) || !m_memberNodes.contains(node))
+				removeSegment(makeSegment(node));
+		}
+
+		if(a_events != null)
+		{
+			for(Event event : a_events)
+			{
+				if(event.state != m_relations)
+					event.state.revert(event);
+			}
+		}
+
+		// Add the new segments
+		HashSet<ID> addWays = new HashSet<ID>();
+		for(ID way : m_memberWays)
+		{
+			if(a_changedWays.contains(way) || !oldWays.contains(way) || a_events == null)
+				addWays.add(way);
+		}
+		m_ways.load(addWays);
+
+		HashSet<ID> nodes = new HashSet<ID>(m_memberNodes);
+		for(ID way : addWays)
+		{
+			Way version = m_ways.get(way);
+			if(version != null)
+				nodes.addAll(Arrays.asList(version.getMembers()));
+		}
+		m_nodes.load(nodes);
+
+		for(ID way : addWays)
+		{
+			Way version = m_ways.get(way);
+			if(version != null)
+			{
+				ID[] members = version.getMembers();
+				for(int i=0; i<members.length; i++)
+				{
+					addSegment(makeSegment(members, i));
+					addPosition(members[i], way, i);
+				}
+			}
+		}
+		for(Map.Entry<ID,Set<Integer>> pairs : changedPairs.entrySet())
+		{
+			ID[] members = m_ways.get(pairs.getKey()).getMembers();
+			for(int pair : pairs.getValue())
+				addSegment(makeSegment(members, pair));
+		}
+		for(ID node : m_memberNodes)
+		{
+			if(a_changedNodes.contains(node) || !oldNodes.contains(node) || a_events == null)
+				addSegment(makeSegment(node));
+		}
+	}
+
+	/**
+	 * Finds out the members of the relation and of its sub-relations at the current point of the timeline.
+	 * @throws APIError There was an error communicating with the API.
+	 */
+	private void updateMembers() throws APIError
+	{
+		while(true)
+		{
+			HashSet<ID> nodes = new HashSet<ID>();
+			HashSet<ID> ways = new HashSet<ID>();
+			HashSet<ID> relations = new HashSet<ID>();
+			HashSet<ID> unknown = new HashSet<ID>();
+
+			ArrayList<ID> todo = new ArrayList<ID>();
+			HashSet<ID> visited = new HashSet<ID>();
+			todo.add(m_relationId);
+			visited.add(m_relationId);
+			if(!m_relations.isKnown(m_relationId))
+				unknown.add(m_relationId);
+			while(todo.size() > 0)
+			{
+				ID id = todo.remove(todo.size()-1);
+				if(!m_relations.isKnown(id))
+					continue;
+				Relation relation = m_relations.get(id);
+				if(relation == null)
+					continue;
+				for(RelationMember member : relation.getMembers())
+				{
+					ID ref = member.getReferenceID();
+					if(member.getType().equals(Node.class))
+						nodes.add(ref);
+					else if(member.getType().equals(Way.class))
+						ways.add(ref);
+					else if(member.getType().equals(Relation.class) && visited.add(ref))
+					{
+						relations.add(ref);
+						if(m_relations.isKnown(ref))
+							todo.add(ref);
+						else
+							unknown.add(ref);
+					}
+				}
+			}
+
+			if(unknown.size() > 0)
+			{
+				m_relations.load(unknown);
+				continue;
+			}
+
+			m_memberNodes = nodes;
+			m_memberWays = ways;
+			m_memberRelations = relations;
+			return;
+		}
+	}
+
+	private void addPosition(ID a_node, ID a_way, int a_index)
+	{
+		List<WayPosition> positions = m_nodeWays.get(a_node);
+		if(positions == null)
+		{
+			positions = new ArrayList<WayPosition>(1);
+			m_nodeWays.put(a_node, positions);
+		}
+		positions.add(new WayPosition(a_way, a_index));
+	}
+
+	private void removePosition(ID a_node, ID a_way)
+	{
+		List<WayPosition> positions = m_nodeWays.get(a_node);
+		if(positions == null)
+			return;
+		for(int i=positions.size()-1; i>=0; i--)
+		{
+			if(positions.get(i).way.equals(a_way))
+				positions.remove(i);
+		}
+		if(positions.size() == 0)
+			m_nodeWays.remove(a_node);
+	}
+
+	/**
+	 * Makes the segment between the node a_index and the following one of a way.
+	 * @return The segment or null if there is no such segment or one of the nodes does not exist at the current
+	 *         point of the timeline.
+	 */
+	private Segment makeSegment(ID[] a_members, int a_index)
+	{
+		if(a_index < 0 || a_index+1 >= a_members.length)
+			return null;
+		Node node1 = m_nodes.get(a_members[a_index]);
+		Node node2 = m_nodes.get(a_members[a_index+1]);
+		if(node1 == null || node2 == null)
+			return null;
+		return new Segment(node1, node2);
+	}
+
+	/**
+	 * Makes the segment of a node member.
+	 * @return The segment or null if the node does not exist at the current point of the timeline.
+	 */
+	private Segment makeSegment(ID a_node)
+	{
+		Node node = m_nodes.get(a_node);
+		return (node == null ? null : new Segment(node, node));
+	}
+
+	private void addSegment(Segment a_segment)
+	{
+		if(a_segment == null || (m_currentSegments != null && !m_currentSegments.contains(a_segment)))
+			return;
+		int[] count = m_segments.get(a_segment);
+		if(count == null)
+			m_segments.put(a_segment, new int[] { 1 });
+		else
+			count[0]++;
+	}
+
+	private void removeSegment(Segment a_segment)
+	{
+		if(a_segment == null)
+			return;
+		int[] count = m_segments.get(a_segment);
+		if(count == null)
+			return;
+		if(--count[0] == 0)
+		{
+			m_segments.remove(a_segment);
+			m_removedSegments.add(a_segment);
+		}
+	}
+}
@@ -31,10 +31,11 @@ import eu.cdauth.osm.lib.Segment;
 import eu.cdauth.osm.lib.Version;
 import eu.cdauth.osm.lib.VersionedItem;
 import eu.cdauth.osm.lib.Way;
-import eu.cdauth.osm.lib.api06.API06API;
 import eu.cdauth.osm.web.common.Cache;
 import eu.cdauth.osm.web.common.Queue;
+import eu.cdauth.osm.web.common.SharedAPI;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
@@ -109,7 +110,7 @@ public class ChangesetAnalyser implements Serializable
 	{
 		try
 		{
-			API api = new API06API();
+			API api = SharedAPI.getInstance();
 
 			changeset = api.getChangesetFactory().fetch(a_changesetId);
 
@@ -198,13 +199,18 @@ public class ChangesetAnalyser implements Serializable
 				}*/
 
 				// Second guess: Current parent nodes of the node
+				ArrayList<ID> candidates = new ArrayList<ID>();
 				for(Way obj : api.getWayFactory().fetch(node.getContainingWays()).values())
 				{
 					if(waysChanged.containsKey(obj.getID()))
 						continue;
 					if(containedWays.containsKey(obj))
 						continue;
-					NavigableMap<Version,Way> history = api.getWayFactory().fetchHistory(obj.getID());
+					candidates.add(obj.getID());
+				}
+
+				for(NavigableMap<Version,Way> history : api.getWayFactory().fetchHistories(candidates.toArray(new ID[candidates.size()])).values())
+				{
 					for(Way historyEntry : history.descendingMap().values())
 					{
 						if(historyEntry.getTimestamp().compareTo(changesetDate) < 0)
@@ -222,6 +228,32 @@ public class ChangesetAnalyser implements Serializable
 			HashSet<Segment> segmentsOld = new HashSet<Segment>();
 			HashSet<Segment> segmentsNew = new HashSet<Segment>();
 
+			// Download the histories of all the nodes needed below at once
+			HashSet<ID> nodesNeeded = new HashSet<ID>();
+			for(VersionedItem obj : changeset.getMemberObjects(Changeset.ChangeType.create))
+			{
+				if(obj instanceof Way)
+					nodesNeeded.addAll(Arrays.asList(((Way)obj).getMembers()));
+			}
+			for(VersionedItem obj : changeset.getMemberObjects(Changeset.ChangeType.delete))
+			{
+				if(obj instanceof Way)
+					nodesNeeded.addAll(Arrays.asList(((Way)obj).getMembers()));
+			}
+			for(VersionedItem obj : changeset.getMemberObjects(Changeset.ChangeType.modify))
+			{
+				if(obj instanceof Way)
+				{
+					nodesNeeded.addAll(Arrays.asList(((Way)old.get((Way)obj)).getMembers()));
+					nodesNeeded.addAll(Arrays.asList(((Way)obj).getMembers()));
+				}
+			}
+			for(Way way : waysChanged.values())
+				nodesNeeded.addAll(Arrays.asList(way.getMembers()));
+			nodesNeeded.removeAll(nodesAdded.keySet());
+			nodesNeeded.removeAll(nodesRemoved.keySet());
+			api.getNodeFactory().fetchHistories(nodesNeeded.toArray(new ID[nodesNeeded.size()]));
+
 			for(VersionedItem obj : changeset.getMemberObjects(Changeset.ChangeType.create))
 			{
 				if(!(obj instanceof Way))
@@ -24,25 +24,17 @@ import eu.cdauth.osm.lib.APIError;
 import eu.cdauth.osm.lib.Changeset;
 import eu.cdauth.osm.lib.ChangesetFactory;
 import eu.cdauth.osm.lib.ID;
-import eu.cdauth.osm.lib.Node;
-import eu.cdauth.osm.lib.NodeFactory;
 import eu.cdauth.osm.lib.Relation;
-import eu.cdauth.osm.lib.RelationFactory;
 import eu.cdauth.osm.lib.Segment;
-import eu.cdauth.osm.lib.Version;
-import eu.cdauth.osm.lib.Way;
-import eu.cdauth.osm.lib.WayFactory;
-import eu.cdauth.osm.lib.api06.API06API;
 import eu.cdauth.osm.web.common.Cache;
 import eu.cdauth.osm.web.common.Queue;
+import eu.cdauth.osm.web.common.SharedAPI;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,12 +46,32 @@ public class RelationBlame implements Serializable
 	private static final Logger sm_logger = Logger.getLogger(RelationBlame.class.getName());
 
 	public static Cache<RelationBlame> cache = null;
-	public static final Queue.Worker worker = new Queue.Worker() {
+	/**
+	 * Roughly how many milliseconds the blame takes per member of the relation.
+	 */
+	protected static final int ESTIMATED_COST_PER_MEMBER = 500;
+
+	public static final Queue.Worker worker = new Queue.EstimatingWorker() {
+		public long estimateCost(ID a_id)
+		{
+			try
+			{
+				Relation relation = SharedAPI.getInstance().getRelationFactory().getCached(a_id);
+				if(relation != null)
+					return relation.getMembers().length*ESTIMATED_COST_PER_MEMBER;
+			}
+			catch(APIError e)
+			{
+			}
+			return -1;
+		}
+
 		public void work(ID a_id)
 		{
 			try
 			{
-				RelationBlame route = new RelationBlame(a_id);
+				Cache.Entry<RelationBlame> previous = cache.getEntry(a_id.toString(), true); // Stale entries can be continued as well
+				RelationBlame route = new RelationBlame(a_id, previous == null ? null : previous.content);
 				cache.saveEntry(a_id.toString(), route);
 			}
 			catch(Exception e)
@@ -71,120 +83,56 @@ public class RelationBlame implements Serializable
 
 	public Map<Segment,Changeset> segmentChangeset = null;
 	public Date timestamp = null;
+	/**
+	 * The time of the newest change that is contained in {@link #segmentChangeset}, see
+	 * {@link BlameTimeline#getCoveredUpTo}.
+	 */
+	public Date coveredUpTo = null;
 	public Throwable exception = null;
 
 	public RelationBlame(ID a_relationId)
+	{
+		this(a_relationId, null);
+	}
+
+	/**
+	 * Creates the blame of a relation. If a previous blame of the relation is given, only the changes that happened
+	 * after it was created are processed.
+	 * @param a_relationId The ID of the relation.
+	 * @param a_previous The previous blame of the relation or null.
+	 */
+	public RelationBlame(ID a_relationId, RelationBlame a_previous)
 	{
 		try
 		{
-			API api = new API06API();
-			
-			NodeFactory nodeFactory = api.getNodeFactory();
-			WayFactory wayFactory = api.getWayFactory();
-			RelationFactory relationFactory = api.getRelationFactory();
+			API api = SharedAPI.getInstance();
 			ChangesetFactory changesetFactory = api.getChangesetFactory();
 
-			Relation currentRelation = relationFactory.fetchHistory(a_relationId).lastEntry().getValue();
-
-			timestamp = currentRelation.getTimestamp();
-
-			Date currentDate = null;
-			Date nextDate = null;
-			ID currentChangeset = null;
-			ID nextChangeset = null;
-
-			List<Segment> currentSegments = Arrays.asList(currentRelation.getSegmentsRecursive(null));
-			Hashtable<Segment,ID> blame = new Hashtable<Segment,ID>();
-
-			while(true)
+			Date previousCoveredUpTo = null;
+			Map<Segment,ID> previousBlame = new HashMap<Segment,ID>();
+			Map<ID,Changeset> changesets = new HashMap<ID,Changeset>();
+			if(a_previous != null && a_previous.exception == null && a_previous.coveredUpTo != null)
 			{
-				Relation mainRelation;
-				Relation mainRelationOlder;
-
-				if(nextDate == null)
-				{ // First run
-					mainRelation = currentRelation;
-					mainRelationOlder = currentRelation;
-				}
-				else
+				previousCoveredUpTo = a_previous.coveredUpTo;
+				for(Map.Entry<Segment,Changeset> e : a_previous.segmentChangeset.entrySet())
 				{
-					currentDate = nextDate;
-					nextDate = null;
-					currentChangeset = nextChangeset;
-					nextChangeset = null;
-					mainRelation = relationFactory.fetch(a_relationId, currentDate);
-					mainRelationOlder = relationFactory.fetch(a_relationId, new Date(currentDate.getTime()-1000));
+					previousBlame.put(e.getKey(), e.getValue().getID());
+					changesets.put(e.getValue().getID(), e.getValue());
 				}
+			}
 
-				if(mainRelation == null)
-					break;
-
-				if(mainRelationOlder != null)
-				{
-					nextDate = mainRelationOlder.getTimestamp();
-					nextChangeset = mainRelationOlder.getChangeset();
-				}
-
-				Node[] nodeMembers = mainRelation.getNodesRecursive(currentDate);
-				for(Node nodeMember : nodeMembers)
-				{
-					NavigableMap<Version,Node> nodeHistory = nodeFactory.fetchHistory(nodeMember.getID());
-					for(Node node : nodeHistory.values())
-					{
-						Date nodeDate = node.getTimestamp();
-						if((currentDate == null || nodeDate.compareTo(currentDate) < 0) && (nextDate == null || nodeDate.compareTo(nextDate) > 0))
-						{
-							nextDate = nodeDate;
-							nextChangeset = node.getChangeset();
-						}
-					}
-				}
-
-				Way[] wayMembers = mainRelation.getWaysRecursive(currentDate);
-				for(Way wayMember : wayMembers)
-				{
-					NavigableMap<Version,Way> wayHistory = wayFactory.fetchHistory(wayMember.getID());
-					for(Way way : wayHistory.values())
-					{
-						Date wayDate = way.getTimestamp();
-						if((currentDate == null || wayDate.compareTo(currentDate) < 0) && (nextDate == null || wayDate.compareTo(nextDate) > 0))
-						{
-							nextDate = wayDate;
-							nextChangeset = way.getChangeset();
-						}
-					}
-				}
-
-				Relation[] relationMembers = mainRelation.getRelationsRecursive(currentDate);
-				for(Relation relationMember : relationMembers)
-				{
-					NavigableMap<Version,Relation> relationHistory = relationFactory.fetchHistory(relationMember.getID());
-					for(Relation relation : relationHistory.values())
-					{
-						Date relationDate = relation.getTimestamp();
-						if((currentDate == null || relationDate.compareTo(currentDate) < 0) && (nextDate == null || relationDate.compareTo(nextDate) > 0))
-						{
-							nextDate = relationDate;
-							nextChangeset = relation.getChangeset();
-						}
-					}
-				}
-
-				List<Segment> segments = new ArrayList<Segment>();
-				segments.addAll(Arrays.asList(mainRelation.getSegmentsRecursive(currentDate)));
-				segments.retainAll(currentSegments);
-
-				if(segments.size() == 0)
-					break;
+			BlameTimeline timeline = new BlameTimeline(api, a_relationId);
+			timestamp = timeline.getCurrentRelation().getTimestamp();
+			Map<Segment,ID> blame = timeline.run(previousCoveredUpTo, previousBlame);
+			coveredUpTo = timeline.getCoveredUpTo();
 
-				if(currentChangeset != null)
-				{
-					for(Segment segment : segments)
-						blame.put(segment, currentChangeset);
-				}
+			HashSet<ID> fetchChangesets = new HashSet<ID>();
+			for(ID id : blame.values())
+			{
+				if(!changesets.containsKey(id))
+					fetchChangesets.add(id);
 			}
-
-			Map<ID,Changeset> changesets = changesetFactory.fetch(blame.values().toArray(new ID[blame.size()]));
+			changesets.putAll(changesetFactory.fetch(fetchChangesets.toArray(new ID[fetchChangesets.size()])));
 			segmentChangeset = new Hashtable<Segment,Changeset>();
 			for(Map.Entry<Segment,ID> e : blame.entrySet())
 				segmentChangeset.put(e.getKey(), changesets.get(e.getValue()));
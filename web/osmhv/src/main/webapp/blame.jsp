@@ -21,6 +21,7 @@
 <%@page import="eu.cdauth.osm.web.osmhv.*"%>
 <%@page import="eu.cdauth.osm.web.common.Cache"%>
 <%@page import="eu.cdauth.osm.web.common.Queue"%>
+<%@page import="eu.cdauth.osm.web.common.SharedAPI"%>
 <%@page import="static eu.cdauth.osm.web.osmhv.GUI.*"%>
 <%@page import="java.util.*" %>
 <%@page import="java.net.URL" %>
@@ -67,10 +68,18 @@
 
 	public void jspInit()
 	{
+		SharedAPI.configure(getServletContext());
+		Queue.configure(getServletContext());
+
+		String maxParallel = getServletContext().getInitParameter("blame_max_parallel");
+		if(maxParallel != null)
+			queue.setMaxParallel(RelationBlame.worker, Integer.parseInt(maxParallel.trim()));
+
 		if(RelationBlame.cache == null)
 		{
 			RelationBlame.cache = new Cache<RelationBlame>(GUI.getCacheDirectory(getServletContext())+"/osmhv/blame");
-			RelationBlame.cache.setMaxAge(86400*7);
+			RelationBlame.cache.setFreshAge(86400*7);
+			RelationBlame.cache.setMaxAge(86400*90); // Stale blames are continued from, see RelationBlame.worker
 		}
 	}
 %>
@@ -95,13 +104,38 @@
 
 	if(request.getParameter("refresh") != null)
 	{
-		queue.scheduleTask(RelationBlame.worker, relationID);
+		try
+		{
+			queue.scheduleTask(RelationBlame.worker, relationID, Queue.Priority.REFRESH, queue.getClient(request));
+		}
+		catch(Queue.QueueFullException e)
+		{
+			e.sendError(response);
+			return;
+		}
 		response.setStatus(HttpServletResponse.SC_SEE_OTHER);
 		URL thisUrl = new URL(request.getRequestURL().toString());
 		response.setHeader("Location", new URL(thisUrl.getProtocol(), thisUrl.getHost(), thisUrl.getPort(), thisUrl.getPath()).toString()+"?id="+GUI.urlencode(request.getParameter("id")));
 		return;
 	}
 
+	// Schedule the task before sending anything, so that it can still be rejected
+	Cache.Entry<RelationBlame> cacheEntry = RelationBlame.cache.getEntry(relationID.toString());
+	int queuePosition = queue.getPosition(RelationBlame.worker, relationID);
+	Queue.Notification notify = null;
+	if(cacheEntry == null && queuePosition != 1) // Not running yet, raise the priority if it was scheduled in the background
+	{
+		try
+		{
+			notify = queue.scheduleTask(RelationBlame.worker, relationID, Queue.Priority.INTERACTIVE, queue.getClient(request));
+		}
+		catch(Queue.QueueFullException e)
+		{
+			e.sendError(response);
+			return;
+		}
+	}
+
 	GUI gui = new GUI(request, response);
 	if(relationID != null)
 		gui.setTitle(String.format(gui._("Relation %s"), relationID.toString()));
@@ -120,17 +154,11 @@
 <%
 	response.getWriter().flush();
 
-	Cache.Entry<RelationBlame> cacheEntry = RelationBlame.cache.getEntry(relationID.toString());
-	int queuePosition = queue.getPosition(RelationBlame.worker, relationID);
-	if(cacheEntry == null)
+	if(notify != null)
 	{
-		if(queuePosition == 0)
-		{
-			Queue.Notification notify = queue.scheduleTask(RelationBlame.worker, relationID);
-			notify.sleep(20000);
-			cacheEntry = RelationBlame.cache.getEntry(relationID.toString());
-			queuePosition = queue.getPosition(RelationBlame.worker, relationID);
-		}
+		queue.waitFor(notify, 20000);
+		cacheEntry = RelationBlame.cache.getEntry(relationID.toString());
+		queuePosition = queue.getPosition(RelationBlame.worker, relationID);
 	}
 
 	if(cacheEntry != null)
@@ -22,6 +22,7 @@
 <%@page import="static eu.cdauth.osm.web.osmhv.GUI.*"%>
 <%@page import="eu.cdauth.osm.web.common.Cache"%>
 <%@page import="eu.cdauth.osm.web.common.Queue"%>
+<%@page import="eu.cdauth.osm.web.common.SharedAPI"%>
 <%@page import="java.util.*" %>
 <%@page import="java.net.URL" %>
 <%@page contentType="text/html; charset=UTF-8" buffer="none" session="false"%>
@@ -30,6 +31,9 @@
 
 	public void jspInit()
 	{
+		SharedAPI.configure(getServletContext());
+		Queue.configure(getServletContext());
+
 		if(ChangesetAnalyser.cache == null)
 			ChangesetAnalyser.cache = new Cache<ChangesetAnalyser>(GUI.getCacheDirectory(getServletContext())+"/osmhv/changeset");
 	}
@@ -53,6 +57,23 @@
 		return;
 	}
 
+	// Schedule the task before sending anything, so that it can still be rejected
+	Cache.Entry<ChangesetAnalyser> cacheEntry = ChangesetAnalyser.cache.getEntry(changesetID.toString());
+	int queuePosition = queue.getPosition(ChangesetAnalyser.worker, changesetID);
+	Queue.Notification notify = null;
+	if(cacheEntry == null && queuePosition != 1) // Not running yet, raise the priority if it was scheduled in the background
+	{
+		try
+		{
+			notify = queue.scheduleTask(ChangesetAnalyser.worker, changesetID, Queue.Priority.INTERACTIVE, queue.getClient(request));
+		}
+		catch(Queue.QueueFullException e)
+		{
+			e.sendError(response);
+			return;
+		}
+	}
+
 	GUI gui = new GUI(request, response);
 	gui.setTitle(String.format(gui._("Changeset %s"), changesetID.toString()));
 	gui.setJavaScripts(new String[]{
@@ -70,17 +91,11 @@
 <%
 	response.getWriter().flush();
 
-	Cache.Entry<ChangesetAnalyser> cacheEntry = ChangesetAnalyser.cache.getEntry(changesetID.toString());
-	int queuePosition = queue.getPosition(ChangesetAnalyser.worker, changesetID);
-	if(cacheEntry == null)
+	if(notify != null)
 	{
-		if(queuePosition == 0)
-		{
-			Queue.Notification notify = queue.scheduleTask(ChangesetAnalyser.worker, changesetID);
-			notify.sleep(20000);
-			cacheEntry = ChangesetAnalyser.cache.getEntry(changesetID.toString());
-			queuePosition = queue.getPosition(ChangesetAnalyser.worker, changesetID);
-		}
+		queue.waitFor(notify, 20000);
+		cacheEntry = ChangesetAnalyser.cache.getEntry(changesetID.toString());
+		queuePosition = queue.getPosition(ChangesetAnalyser.worker, changesetID);
 	}
 
 	if(cacheEntry != null)
@@ -16,12 +16,18 @@
 
 	Copyright © 2010 Candid Dauth
 --%>
-<%@page import="eu.cdauth.osm.lib.api06.API06API"%>
+<%@page import="eu.cdauth.osm.web.common.SharedAPI"%>
 <%@page import="eu.cdauth.osm.lib.*"%>
 <%@page import="eu.cdauth.osm.web.osmhv.*"%>
 <%@page import="static eu.cdauth.osm.web.osmhv.GUI.*"%>
 <%@page import="java.util.*" %>
 <%@page contentType="text/html; charset=UTF-8" buffer="none" session="false"%>
+<%!
+	public void jspInit()
+	{
+		SharedAPI.configure(getServletContext());
+	}
+%>
 <%
 	GUI gui = new GUI(request, response);
 
@@ -59,7 +65,7 @@
 	{
 		try
 		{
-			Set<Relation> results = new API06API().getRelationFactory().search(new HashMap<String,String>(){{ put(searchKey, searchValue); }});
+			Set<Relation> results = SharedAPI.getInstance().getRelationFactory().search(new HashMap<String,String>(){{ put(searchKey, searchValue); }});
 %>
 		<table class="result sortable" id="resultTable">
 			<thead>
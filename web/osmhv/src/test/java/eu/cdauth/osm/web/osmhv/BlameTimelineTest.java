@@ -0,0 +1,274 @@
+/*
+	This file is part of the OSM History Viewer.
+
+	OSM History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+
+	Copyright © 2010 Candid Dauth
+*/
+
+package eu.cdauth.osm.web.osmhv;
+
+import eu.cdauth.osm.lib.API;
+import eu.cdauth.osm.lib.ID;
+import eu.cdauth.osm.lib.Relation;
+import eu.cdauth.osm.lib.Segment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BlameTimelineTest
+{
+	private static final ID RELATION = new ID(1L);
+
+	/**
+	 * Finds the blame by looking at the segments of the relation at every point of time of the history, the
+	 * newest first: a segment is blamed on the changeset of the oldest point of time since which it has existed
+	 * without interruption.
+	 */
+	protected static Map<Segment,ID> replay(HistoryTransport a_history) throws Exception
+	{
+		API api = a_history.makeAPI();
+		Map<Segment,ID> ret = new HashMap<Segment,ID>();
+		Set<Segment> remaining = new HashSet<Segment>(Arrays.asList(api.getRelationFactory().fetch(RELATION).getSegmentsRecursive(null)));
+		for(Long time : a_history.getChangesets().descendingKeySet())
+		{
+			Date date = HistoryTransport.getDate(time);
+			Relation relation = api.getRelationFactory().fetch(RELATION, date);
+			if(relation == null)
+				break;
+			remaining.retainAll(Arrays.asList(relation.getSegmentsRecursive(date)));
+			if(remaining.isEmpty())
+				break;
+			for(Segment segment : remaining)
+				ret.put(segment, a_history.getChangeset(time));
+		}
+		return ret;
+	}
+
+	/**
+	 * Converts a blame result to a map of the IDs of the two nodes of each segment (the lower one first) to the
+	 * changeset.
+	 */
+	protected static Map<String,Long> byNodes(Map<Segment,ID> a_blame)
+	{
+		Map<String,Long> ret = new HashMap<String,Long>();
+		for(Map.Entry<Segment,ID> it : a_blame.entrySet())
+		{
+			long node1 = it.getKey().getNode1().getID().asLong();
+			long node2 = it.getKey().getNode2().getID().asLong();
+			ret.put(Math.min(node1, node2)+"-"+Math.max(node1, node2), it.getValue().asLong());
+		}
+		return ret;
+	}
+
+	/**
+	 * Generates a random history of relation 1. It has the sub-relation 2 from the start and gets the
+	 * sub-relation 3 only at some points of time. Ways and nodes are changed, ways are added to and removed from
+	 * the relations, and often several of these changes happen at the same time in one changeset.
+	 * @param a_seed The seed for the random numbers.
+	 * @param a_nodeMoves Whether nodes are moved.
+	 */
+	protected static HistoryTransport generate(long a_seed, boolean a_nodeMoves)
+	{
+		HistoryTransport ret = new HistoryTransport();
+		Random random = new Random(a_seed);
+
+		// The initial state is created in one changeset
+		long time = 1;
+		for(long node=1; node<=40; node++)
+			ret.addNode(node, time, 1000+time, random.nextInt(50), random.nextInt(50));
+		List<List<Long>> wayNodes = new ArrayList<List<Long>>();
+		for(int way=0; way<8; way++)
+		{
+			List<Long> nodes = new ArrayList<Long>();
+			int length = 2+random.nextInt(5);
+			for(int i=0; i<length; i++)
+				nodes.add(1L+random.nextInt(40));
+			wayNodes.add(nodes);
+			ret.addWay(101+way, time, 1000+time, nodes);
+		}
+		List<TreeSet<Long>> relationWays = new ArrayList<TreeSet<Long>>();
+		relationWays.add(new TreeSet<Long>(Arrays.asList(103L, 104L)));
+		relationWays.add(new TreeSet<Long>(Arrays.asList(101L, 102L)));
+		relationWays.add(new TreeSet<Long>(Arrays.asList(105L, 106L)));
+		TreeSet<Long> nodeMembers = new TreeSet<Long>(Arrays.asList(5L));
+		TreeSet<Long> subRelations = new TreeSet<Long>(Arrays.asList(2L));
+		ret.addRelation(2, time, 1000+time, getMembers(relationWays.get(1), null, null));
+		ret.addRelation(3, time, 1000+time, getMembers(relationWays.get(2), null, null));
+		time++;
+		ret.addRelation(1, time, 1000+time, getMembers(relationWays.get(0), nodeMembers, subRelations));
+
+		Set<String> changedNow = new HashSet<String>();
+		for(int step=0; step<80; step++)
+		{
+			String object;
+			int action = random.nextInt(a_nodeMoves ? 6 : 5);
+			if(action == 0)
+				object = "way "+(101+random.nextInt(8));
+			else if(action == 1 || action == 4)
+				object = "relation 1";
+			else if(action == 2 || action == 3)
+				object = "relation "+action;
+			else
+				object = "node "+(1+random.nextInt(40));
+
+			// Often several objects are changed at the same time in one changeset
+			if(random.nextInt(3) != 0 || changedNow.contains(object))
+			{
+				time += 1+random.nextInt(3);
+				changedNow.clear();
+			}
+			changedNow.add(object);
+			long id = Long.parseLong(object.split(" ")[1]);
+
+			if(action == 0)
+			{
+				List<Long> nodes = wayNodes.get((int)id-101);
+				if(random.nextBoolean() || nodes.size() < 3)
+					nodes.add(random.nextInt(nodes.size()+1), 1L+random.nextInt(40));
+				else
+					nodes.remove(random.nextInt(nodes.size()));
+				ret.addWay(id, time, 1000+time, nodes);
+			}
+			else if(action == 1 || action == 4)
+			{
+				if(action == 1)
+				{
+					toggle(relationWays.get(0), 101L+random.nextInt(8));
+					if(random.nextInt(4) == 0)
+						toggle(nodeMembers, 1L+random.nextInt(40));
+				}
+				else
+					toggle(subRelations, 3L); // Relation 3 is only a member at some points of time
+				ret.addRelation(1, time, 1000+time, getMembers(relationWays.get(0), nodeMembers, subRelations));
+			}
+			else if(action == 2 || action == 3)
+			{
+				toggle(relationWays.get((int)id-1), 101L+random.nextInt(8));
+				ret.addRelation(id, time, 1000+time, getMembers(relationWays.get((int)id-1), null, null));
+			}
+			else
+				ret.addNode(id, time, 1000+time, random.nextInt(50), random.nextInt(50));
+		}
+		return ret;
+	}
+
+	private static void toggle(Set<Long> a_set, Long a_value)
+	{
+		if(!a_set.remove(a_value))
+			a_set.add(a_value);
+	}
+
+	private static List<String> getMembers(Set<Long> a_ways, Set<Long> a_nodes, Set<Long> a_relations)
+	{
+		List<String> ret = new ArrayList<String>();
+		for(Long way : a_ways)
+			ret.add("way "+way);
+		if(a_nodes != null)
+		{
+			for(Long node : a_nodes)
+				ret.add("node "+node);
+		}
+		if(a_relations != null)
+		{
+			for(Long relation : a_relations)
+				ret.add("relation "+relation);
+		}
+		return ret;
+	}
+
+	@Test
+	public void simpleHistory() throws Exception
+	{
+		HistoryTransport history = new HistoryTransport();
+		for(long node=1; node<=4; node++)
+			history.addNode(node, 1, 11, node, 0);
+		history.addWay(10, 1, 11, Arrays.asList(1L, 2L));
+		history.addWay(20, 1, 11, Arrays.asList(3L, 4L));
+		history.addRelation(3, 1, 11, Arrays.asList("way 10"));
+		history.addRelation(1, 1, 11, Arrays.asList("way 20"));
+
+		// Way 10 becomes part of relation 1 through relation 3
+		history.addRelation(1, 2, 12, Arrays.asList("way 20", "relation 3"));
+
+		// Way 10 is moved from relation 3 to relation 1 in one changeset, it is a member all the time
+		history.addRelation(1, 3, 13, Arrays.asList("way 20", "way 10", "relation 3"));
+		history.addRelation(3, 3, 13, new ArrayList<String>());
+
+		// A node is moved and a new way is added in one changeset
+		history.addNode(4, 4, 14, 4, 1);
+		history.addNode(5, 4, 14, 5, 1);
+		history.addWay(30, 4, 14, Arrays.asList(4L, 5L));
+		history.addRelation(1, 4, 14, Arrays.asList("way 20", "way 10", "relation 3", "way 30"));
+
+		Map<String,Long> expected = new HashMap<String,Long>();
+		expected.put("1-2", 12L);
+		expected.put("3-4", 14L);
+		expected.put("4-5", 14L);
+
+		Map<Segment,ID> blame = new BlameTimeline(history.makeAPI(), RELATION).run();
+		assertEquals(expected, byNodes(blame));
+		assertEquals(replay(history), blame);
+	}
+
+	@Test
+	public void wayAndMemberChanges() throws Exception
+	{
+		for(long seed=1; seed<=30; seed++)
+		{
+			HistoryTransport history = generate(seed, false);
+			assertEquals("Seed "+seed, replay(history), new BlameTimeline(history.makeAPI(), RELATION).run());
+		}
+	}
+
+	@Test
+	public void nodeMoves() throws Exception
+	{
+		for(long seed=1; seed<=30; seed++)
+		{
+			HistoryTransport history = generate(seed, true);
+			assertEquals("Seed "+seed, replay(history), new BlameTimeline(history.makeAPI(), RELATION).run());
+		}
+	}
+
+	@Test
+	public void resume() throws Exception
+	{
+		for(long seed=1; seed<=40; seed++)
+		{
+			HistoryTransport history = generate(seed, seed%2 == 0);
+			Map<Segment,ID> full = new BlameTimeline(history.makeAPI(), RELATION).run();
+
+			// The previous result was created when only a part of the history existed
+			long lastTime = history.getChangesets().lastKey();
+			long cutoff = lastTime*(30+seed%60)/100;
+			HistoryTransport truncated = history.getHistoryUpTo(cutoff);
+			BlameTimeline previous = new BlameTimeline(truncated.makeAPI(), RELATION);
+			Map<Segment,ID> previousBlame = previous.run();
+			assertFalse(previous.getCoveredUpTo().after(HistoryTransport.getDate(cutoff)));
+
+			Map<Segment,ID> resumed = new BlameTimeline(history.makeAPI(), RELATION).run(previous.getCoveredUpTo(), previousBlame);
+			assertEquals("Seed "+seed, full, resumed);
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/*
+	This file is part of the OSM History Viewer.
+
+	OSM History Viewer is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM History Viewer is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+
+	Copyright © 2010 Candid Dauth
+*/
+
+package eu.cdauth.osm.web.osmhv;
+
+import eu.cdauth.osm.lib.APIError;
+import eu.cdauth.osm.lib.ID;
+import eu.cdauth.osm.lib.api06.API06API;
+import eu.cdauth.osm.lib.api06.API06Transport;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Answers API requests from an in-memory history of nodes, ways and relations. Times of versions are given in
+ * seconds after {@link #START}, versions have to be added in chronological order.
+ */
+public class HistoryTransport implements API06Transport
+{
+	public static final String PREFIX = "http://localhost/api/0.6";
+
+	/**
+	 * 2010-01-01T00:00:00Z
+	 */
+	public static final long START = 1262304000000L;
+
+	protected static class ItemVersion
+	{
+		public final long time;
+		public final long changeset;
+		public final String attributes;
+		public final String content;
+
+		public ItemVersion(long a_time, long a_changeset, String a_attributes, String a_content)
+		{
+			time = a_time;
+			changeset = a_changeset;
+			attributes = a_attributes;
+			content = a_content;
+		}
+	}
+
+	private final Map<String,Map<Long,List<ItemVersion>>> m_items = new HashMap<String,Map<Long,List<ItemVersion>>>();
+	private final TreeMap<Long,Long> m_changesets = new TreeMap<Long,Long>();
+
+	public HistoryTransport()
+	{
+		m_items.put("node", new HashMap<Long,List<ItemVersion>>());
+		m_items.put("way", new HashMap<Long,List<ItemVersion>>());
+		m_items.put("relation", new HashMap<Long,List<ItemVersion>>());
+	}
+
+	/**
+	 * Creates an API object that uses this transport.
+	 * @return A new API object with empty caches. They are small, as the request threads of the API keep it in the
+	 * memory for a while after the last request and the tests create many of them.
+	 */
+	public API06API makeAPI()
+	{
+		API06API ret = new API06API(PREFIX, this);
+		ret.setCacheMaxWeight(10000);
+		return ret;
+	}
+
+	public static Date getDate(long a_time)
+	{
+		return new Date(START+a_time*1000);
+	}
+
+	public synchronized void addNode(long a_id, long a_time, long a_changeset, double a_lon, double a_lat)
+	{
+		add("node", a_id, new ItemVersion(a_time, a_changeset, "lon=\""+a_lon+"\" lat=\""+a_lat+"\"", ""));
+	}
+
+	public synchronized void addWay(long a_id, long a_time, long a_changeset, List<Long> a_nodes)
+	{
+		StringBuilder content = new StringBuilder();
+		for(Long node : a_nodes)
+			content.append("<nd ref=\"").append(node).append("\"/>");
+		add("way", a_id, new ItemVersion(a_time, a_changeset, "", content.toString()));
+	}
+
+	/**
+	 * Adds a version of a relation.
+	 * @param a_members The members, for example <code>"way 1"</code>.
+	 */
+	public synchronized void addRelation(long a_id, long a_time, long a_changeset, List<String> a_members)
+	{
+		StringBuilder content = new StringBuilder();
+		for(String member : a_members)
+		{
+			String[] parts = member.split(" ");
+			content.append("<member type=\"").append(parts[0]).append("\" ref=\"").append(parts[1]).append("\" role=\"\"/>");
+		}
+		add("relation", a_id, new ItemVersion(a_time, a_changeset, "", content.toString()));
+	}
+
+	private void add(String a_type, long a_id, ItemVersion a_version)
+	{
+		Long changeset = m_changesets.get(a_version.time);
+		if(changeset != null && changeset != a_version.changeset)
+			throw new IllegalArgumentException("Only one changeset per point of time is supported.");
+		m_changesets.put(a_version.time, a_version.changeset);
+
+		List<ItemVersion> versions = m_items.get(a_type).get(a_id);
+		if(versions == null)
+		{
+			versions = new ArrayList<ItemVersion>();
+			m_items.get(a_type).put(a_id, versions);
+		}
+		versions.add(a_version);
+	}
+
+	/**
+	 * Returns the points of time of all versions and the changesets that were committed at them.
+	 */
+	public synchronized TreeMap<Long,Long> getChangesets()
+	{
+		return new TreeMap<Long,Long>(m_changesets);
+	}
+
+	/**
+	 * Makes a copy of this history that only contains the versions up to the given time.
+	 */
+	public synchronized HistoryTransport getHistoryUpTo(long a_time)
+	{
+		HistoryTransport ret = new HistoryTransport();
+		for(Map.Entry<String,Map<Long,List<ItemVersion>>> type : m_items.entrySet())
+		{
+			for(Map.Entry<Long,List<ItemVersion>> item : type.getValue().entrySet())
+			{
+				for(ItemVersion version : item.getValue())
+				{
+					if(version.time <= a_time)
+						ret.add(type.getKey(), item.getKey(), version);
+				}
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public synchronized InputStream get(String a_url, String a_userAgent) throws APIError, IOException
+	{
+		String request = a_url.substring(PREFIX.length());
+		String[] parts = request.split("/");
+		StringBuilder xml = new StringBuilder("<osm version=\"0.6\" generator=\"HistoryTransport\">");
+		if(parts[1].endsWith("s") && parts.length == 3 && parts[2].startsWith("?"))
+		{ // Multi-fetch
+			String type = parts[1].substring(0, parts[1].length()-1);
+			for(String id : parts[2].substring(parts[2].indexOf('=')+1).split(","))
+				appendCurrent(xml, type, Long.parseLong(id));
+		}
+		else if(parts.length == 3)
+			appendCurrent(xml, parts[1], Long.parseLong(parts[2]));
+		else if(parts.length == 4 && parts[3].equals("history"))
+		{
+			List<ItemVersion> versions = getVersions(parts[1], Long.parseLong(parts[2]));
+			for(int i=0; i<versions.size(); i++)
+				appendVersion(xml, parts[1], Long.parseLong(parts[2]), i+1, versions.get(i));
+		}
+		else if(parts.length == 4 && parts[3].equals("full"))
+			appendFull(xml, parts[1], Long.parseLong(parts[2]));
+		else if(parts.length == 4 && parts[3].matches("\\d+"))
+		{
+			List<ItemVersion> versions = getVersions(parts[1], Long.parseLong(parts[2]));
+			int version = Integer.parseInt(parts[3]);
+			if(version < 1 || version > versions.size())
+				throw notFound(a_url);
+			appendVersion(xml, parts[1], Long.parseLong(parts[2]), version, versions.get(version-1));
+		}
+		else
+			throw notFound(a_url);
+		xml.append("</osm>");
+		return new ByteArrayInputStream(xml.toString().getBytes("UTF-8"));
+	}
+
+	private static APIError notFound(String a_url)
+	{
+		return new APIError("ResponseCode is 404 for URL "+a_url+".", new API06API.StatusCodeError(404));
+	}
+
+	private List<ItemVersion> getVersions(String a_type, long a_id) throws APIError
+	{
+		Map<Long,List<ItemVersion>> items = m_items.get(a_type);
+		List<ItemVersion> ret = (items == null ? null : items.get(a_id));
+		if(ret == null)
+			throw notFound("/"+a_type+"/"+a_id);
+		return ret;
+	}
+
+	private void appendCurrent(StringBuilder a_xml, String a_type, long a_id) throws APIError
+	{
+		List<ItemVersion> versions = getVersions(a_type, a_id);
+		appendVersion(a_xml, a_type, a_id, versions.size(), versions.get(versions.size()-1));
+	}
+
+	private void appendFull(StringBuilder a_xml, String a_type, long a_id) throws APIError
+	{
+		appendCurrent(a_xml, a_type, a_id);
+		List<ItemVersion> versions = getVersions(a_type, a_id);
+		String content = versions.get(versions.size()-1).content;
+		for(String element : content.split("/>"))
+		{
+			if(element.length() == 0)
+				continue;
+			String ref = element.substring(element.indexOf("ref=\"")+5);
+			long id = Long.parseLong(ref.substring(0, ref.indexOf('"')));
+			if(a_type.equals("way"))
+				appendCurrent(a_xml, "node", id);
+			else
+			{
+				String type = element.substring(element.indexOf("type=\"")+6);
+				type = type.substring(0, type.indexOf('"'));
+				if(type.equals("way"))
+					appendFull(a_xml, "way", id);
+				else
+					appendCurrent(a_xml, type, id);
+			}
+		}
+	}
+
+	private static void appendVersion(StringBuilder a_xml, String a_type, long a_id, int a_version, ItemVersion a_item)
+	{
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		a_xml.append("<").append(a_type).append(" id=\"").append(a_id).append("\" version=\"").append(a_version)
+			.append("\" changeset=\"").append(a_item.changeset).append("\" user=\"test\" uid=\"1\" visible=\"true\" timestamp=\"")
+			.append(format.format(getDate(a_item.time))).append("\" ").append(a_item.attributes).append(">")
+			.append(a_item.content).append("</").append(a_type).append(">");
+	}
+
+	/**
+	 * Returns the ID of the changeset that was committed at the given time.
+	 */
+	public synchronized ID getChangeset(long a_time)
+	{
+		return new ID(m_changesets.get(a_time));
+	}
+}
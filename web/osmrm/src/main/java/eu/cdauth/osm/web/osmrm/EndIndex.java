@@ -0,0 +1,165 @@
+/*
+	This file is part of the OSM Route Manager.
+
+	OSM Route Manager is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+
+	Copyright © 2010 Candid Dauth
+*/
+
+
+package eu.cdauth.osm.web.osmrm;
+
+import eu.cdauth.osm.lib.LonLat;
+import java.util.Arrays;
+
+/**
+ * A hash index of the ends of ways or segments, to find the ones that share an end without comparing all pairs.
+ * The coordinates are quantised to the precision of the OSM API (7 decimal places). As {@link LonLat#equals}
+ * has a tolerance, the neighbouring cells are searched as well and the candidates are compared using
+ * {@link LonLat#equals}.
+ * @author cdauth
+ */
+class EndIndex
+{
+	/**
+	 * A growable list of primitive ints.
+	 */
+	public static class IntList
+	{
+		private int[] m_values = new int[8];
+		private int m_size = 0;
+
+		public void add(int a_value)
+		{
+			if(m_size == m_values.length)
+				m_values = Arrays.copyOf(m_values, m_size*2);
+			m_values[m_size++] = a_value;
+		}
+
+		public int get(int a_index)
+		{
+			return m_values[a_index];
+		}
+
+		public int size()
+		{
+			return m_size;
+		}
+
+		public void clear()
+		{
+			m_size = 0;
+		}
+
+		/**
+		 * Sorts the values.
+		 */
+		public void sort()
+		{
+			Arrays.sort(m_values, 0, m_size);
+		}
+
+		/**
+		 * Sorts the values and removes duplicates.
+		 */
+		public void sortUnique()
+		{
+			Arrays.sort(m_values, 0, m_size);
+			int size = 0;
+			for(int i=0; i<m_size; i++)
+			{
+				if(size == 0 || m_values[size-1] != m_values[i])
+					m_values[size++] = m_values[i];
+			}
+			m_size = size;
+		}
+	}
+
+	private static final double PRECISION = 10000000D;
+
+	private final LonLat[] m_ends;
+	private final long[] m_keys;
+	private final int[] m_heads;
+	private final int[] m_next;
+	private final int m_mask;
+
+	/**
+	 * Indexes the ends of some objects.
+	 * @param a_ends1 The first ends of the objects.
+	 * @param a_ends2 The second ends of the objects, in the same order.
+	 */
+	public EndIndex(LonLat[] a_ends1, LonLat[] a_ends2)
+	{
+		int count = a_ends1.length*2;
+		int capacity = 16;
+		while(capacity < count*2)
+			capacity <<= 1;
+		m_mask = capacity-1;
+		m_heads = new int[capacity];
+		Arrays.fill(m_heads, -1);
+		m_ends = new LonLat[count];
+		m_keys = new long[count];
+		m_next = new int[count];
+
+		for(int i=0; i<count; i++)
+		{
+			LonLat end = ((i & 1) == 0 ? a_ends1[i >> 1] : a_ends2[i >> 1]);
+			m_ends[i] = end;
+			m_keys[i] = makeKey(quantise(end.getLon()), quantise(end.getLat()));
+			int slot = slot(m_keys[i]);
+			m_next[i] = m_heads[slot];
+			m_heads[slot] = i;
+		}
+	}
+
+	private static long quantise(double a_coordinate)
+	{
+		return Math.round(a_coordinate*PRECISION);
+	}
+
+	private static long makeKey(long a_lon, long a_lat)
+	{
+		return (a_lon << 32) | (a_lat & 0xFFFFFFFFL);
+	}
+
+	private int slot(long a_key)
+	{
+		long hash = a_key*0x9E3779B97F4A7C15L;
+		return (int)(hash >>> 32) & m_mask;
+	}
+
+	/**
+	 * Finds the objects that have an end equal to the given coordinates.
+	 * @param a_lonLat The coordinates to look up.
+	 * @param a_ret The indexes of the objects are added to this list, an object may be added twice if both of its
+	 *              ends match.
+	 */
+	public void find(LonLat a_lonLat, IntList a_ret)
+	{
+		long lon = quantise(a_lonLat.getLon());
+		long lat = quantise(a_lonLat.getLat());
+		for(long i=lon-1; i<=lon+1; i++)
+		{
+			for(long j=lat-1; j<=lat+1; j++)
+			{
+				long key = makeKey(i, j);
+				for(int it = m_heads[slot(key)]; it != -1; it = m_next[it])
+				{
+					if(m_keys[it] == key && m_ends[it].equals(a_lonLat))
+						a_ret.add(it >> 1);
+				}
+			}
+		}
+	}
+}
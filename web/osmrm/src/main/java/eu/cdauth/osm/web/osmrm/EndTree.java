@@ -0,0 +1,217 @@
+/*
+	This file is part of the OSM Route Manager.
+
+	OSM Route Manager is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+
+	Copyright © 2010 Candid Dauth
+*/
+
+
+package eu.cdauth.osm.web.osmrm;
+
+import eu.cdauth.osm.lib.LonLat;
+
+/**
+ * A k-d tree of the ends of segments to look up the nearest end of another segment. The tree is built over the
+ * positions of the ends as unit vectors in three dimensions, where the straight-line distance grows with the
+ * distance on the sphere. The distances of the candidates are calculated using {@link LonLat#getDistance}, so the
+ * results are exactly the same as when comparing all ends.
+ * @author cdauth
+ */
+class EndTree
+{
+	/**
+	 * Relative tolerance for pruning, so that rounding differences between the straight-line distance and
+	 * {@link LonLat#getDistance} cannot make the search skip an end that is equally near.
+	 */
+	private static final double TOLERANCE = 1e-6;
+
+	private final LonLat[] m_ends;
+	private final double[][] m_coordinates;
+	private final int[] m_tree;
+
+	private LonLat m_query;
+	private double[] m_queryCoordinates;
+	private int m_exclude;
+	private int m_best;
+	private double m_bestDistance;
+	private double m_bestChord2;
+
+	/**
+	 * Builds the tree.
+	 * @param a_ends1 The first ends of the segments.
+	 * @param a_ends2 The second ends of the segments, in the same order.
+	 */
+	public EndTree(LonLat[] a_ends1, LonLat[] a_ends2)
+	{
+		int count = a_ends1.length*2;
+		m_ends = new LonLat[count];
+		m_coordinates = new double[3][count];
+		m_tree = new int[count];
+		for(int i=0; i<count; i++)
+		{
+			LonLat end = ((i & 1) == 0 ? a_ends1[i >> 1] : a_ends2[i >> 1]);
+			m_ends[i] = end;
+			double lat = end.getLat()*Math.PI/180;
+			double lon = end.getLon()*Math.PI/180;
+			m_coordinates[0][i] = Math.cos(lat)*Math.cos(lon);
+			m_coordinates[1][i] = Math.cos(lat)*Math.sin(lon);
+			m_coordinates[2][i] = Math.sin(lat);
+			m_tree[i] = i;
+		}
+		build(0, count, 0);
+	}
+
+	/**
+	 * Arranges the ends between a_from and a_to so that the median by the coordinate of this depth is in the middle,
+	 * the smaller ones before and the greater ones after it, and continues recursively with both halves.
+	 */
+	private void build(int a_from, int a_to, int a_depth)
+	{
+		if(a_to-a_from <= 1)
+			return;
+		double[] coordinates = m_coordinates[a_depth%3];
+		int middle = (a_from+a_to) >>> 1;
+
+		// Quickselect
+		int from = a_from;
+		int to = a_to-1;
+		while(from < to)
+		{
+			double pivot = coordinates[m_tree[(from+to) >>> 1]];
+			int i = from;
+			int j = to;
+			while(i <= j)
+			{
+				while(coordinates[m_tree[i]] < pivot)
+					i++;
+				while(coordinates[m_tree[j]] > pivot)
+					j--;
+				if(i <= j)
+				{
+					int tmp = m_tree[i];
+					m_tree[i] = m_tree[j];
+					m_tree[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if(middle <= j)
+				to = j;
+			else if(middle >= i)
+				from = i;
+			else
+				break;
+		}
+
+		build(a_from, middle, a_depth+1);
+		build(middle+1, a_to, a_depth+1);
+	}
+
+	/**
+	 * Finds the end of another segment that is nearest to the given end. If multiple ends are equally near, the one
+	 * of the segment with the lowest index is chosen, and the second end if both ends of that segment are equally
+	 * near.
+	 * @param a_segment The index of the segment whose end is looked up.
+	 * @param a_end 1 or 2, the end of the segment.
+	 * @return The index of the nearest end (twice the segment index plus 0 for the first and 1 for the second end)
+	 *         or -1 if there are no other segments.
+	 */
+	public int findNearest(int a_segment, int a_end)
+	{
+		int end = a_segment*2+a_end-1;
+		m_query = m_ends[end];
+		m_queryCoordinates = new double[] { m_coordinates[0][end], m_coordinates[1][end], m_coordinates[2][end] };
+		m_exclude = a_segment;
+		m_best = -1;
+		m_bestDistance = Double.MAX_VALUE;
+		m_bestChord2 = Double.MAX_VALUE;
+		search(0, m_tree.length, 0);
+		return m_best;
+	}
+
+	/**
+	 * Returns the end with the given index.
+	 * @param a_index The index as returned by {@link #findNearest}.
+	 * @return The coordinates of the end.
+	 */
+	public LonLat getEnd(int a_index)
+	{
+		return m_ends[a_index];
+	}
+
+	/**
+	 * Returns the distance between the query of the last {@link #findNearest} call and its result.
+	 * @return The distance in km.
+	 */
+	public double getDistance()
+	{
+		return m_bestDistance;
+	}
+
+	private void search(int a_from, int a_to, int a_depth)
+	{
+		if(a_from >= a_to)
+			return;
+		int middle = (a_from+a_to) >>> 1;
+		int it = m_tree[middle];
+		consider(it);
+
+		int axis = a_depth%3;
+		double diff = m_queryCoordinates[axis]-m_coordinates[axis][it];
+		if(diff < 0)
+		{
+			search(a_from, middle, a_depth+1);
+			if(diff*diff <= m_bestChord2*(1+TOLERANCE))
+				search(middle+1, a_to, a_depth+1);
+		}
+		else
+		{
+			search(middle+1, a_to, a_depth+1);
+			if(diff*diff <= m_bestChord2*(1+TOLERANCE))
+				search(a_from, middle, a_depth+1);
+		}
+	}
+
+	private void consider(int a_end)
+	{
+		int segment = a_end >> 1;
+		if(segment == m_exclude)
+			return;
+
+		double distance = m_query.getDistance(m_ends[a_end]);
+		boolean better;
+		if(m_best == -1 || distance < m_bestDistance)
+			better = true;
+		else if(distance > m_bestDistance)
+			better = false;
+		else if(segment != (m_best >> 1))
+			better = (segment < (m_best >> 1));
+		else
+			better = ((a_end & 1) == 1);
+
+		if(better)
+		{
+			m_best = a_end;
+			m_bestDistance = distance;
+			double chord2 = 0;
+			for(int i=0; i<3; i++)
+			{
+				double diff = m_queryCoordinates[i]-m_coordinates[i][a_end];
+				chord2 += diff*diff;
+			}
+			m_bestChord2 = chord2;
+		}
+	}
+}
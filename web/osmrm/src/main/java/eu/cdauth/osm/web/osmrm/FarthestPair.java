@@ -0,0 +1,320 @@
+/*
+	This file is part of the OSM Route Manager.
+
+	OSM Route Manager is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+
+	Copyright © 2010 Candid Dauth
+*/
+
+
+package eu.cdauth.osm.web.osmrm;
+
+import eu.cdauth.osm.lib.LonLat;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds the two points of a set that are the most distant from each other (by {@link LonLat#getDistance}) without
+ * comparing all pairs.
+ *
+ * <p>First the diameter of the convex hull of the points in an equirectangular projection is determined using
+ * rotating calipers. On the sphere this is only an approximation, so it is used as a lower bound: for each point,
+ * the points that could be farther away than the best pair found so far are looked up in a k-d tree of the points
+ * as unit vectors, where the straight-line distance grows with the distance on the sphere. Subtrees whose bounding
+ * box is nearer than the best pair are skipped, which are nearly all of them for the usual point sets. The result is
+ * exact: if multiple pairs have the greatest distance, the same pair is returned as when comparing all pairs
+ * <code>(i, j)</code> with <code>i &lt; j</code> in ascending order.
+ * @author cdauth
+ */
+class FarthestPair
+{
+	/**
+	 * Relative tolerance for pruning, so that rounding differences between the straight-line distance and
+	 * {@link LonLat#getDistance} cannot make the search skip an equally distant pair.
+	 */
+	private static final double TOLERANCE = 1e-6;
+
+	private final LonLat[] m_points;
+	private final double[][] m_coordinates;
+	private final int[] m_tree;
+	private final double[][] m_boxMin;
+	private final double[][] m_boxMax;
+
+	private int m_best1 = -1;
+	private int m_best2 = -1;
+	private double m_bestDistance = -1;
+	private double m_bestChord2 = -1;
+
+	/**
+	 * Finds the most distant pair of points.
+	 * @param a_points The points.
+	 */
+	public FarthestPair(LonLat[] a_points)
+	{
+		m_points = a_points;
+		int count = a_points.length;
+		m_coordinates = new double[3][count];
+		m_tree = new int[count];
+		m_boxMin = new double[3][count];
+		m_boxMax = new double[3][count];
+
+		if(count < 2)
+			return;
+
+		for(int i=0; i<count; i++)
+		{
+			double lat = a_points[i].getLat()*Math.PI/180;
+			double lon = a_points[i].getLon()*Math.PI/180;
+			m_coordinates[0][i] = Math.cos(lat)*Math.cos(lon);
+			m_coordinates[1][i] = Math.cos(lat)*Math.sin(lon);
+			m_coordinates[2][i] = Math.sin(lat);
+			m_tree[i] = i;
+		}
+		build(0, count, 0);
+
+		int[] hullPair = getHullDiameter();
+		consider(Math.min(hullPair[0], hullPair[1]), Math.max(hullPair[0], hullPair[1]));
+
+		for(int i=0; i<count; i++)
+			search(i, 0, count, 0);
+	}
+
+	/**
+	 * Returns the first point of the most distant pair, the one with the lower index.
+	 * @return The point or null if there are less than two points.
+	 */
+	public LonLat getPoint1()
+	{
+		return (m_best1 == -1 ? null : m_points[m_best1]);
+	}
+
+	/**
+	 * Returns the second point of the most distant pair.
+	 * @return The point or null if there are less than two points.
+	 */
+	public LonLat getPoint2()
+	{
+		return (m_best2 == -1 ? null : m_points[m_best2]);
+	}
+
+	/**
+	 * Returns the distance between the most distant points.
+	 * @return The distance in km or -1 if there are less than two points.
+	 */
+	public double getDistance()
+	{
+		return m_bestDistance;
+	}
+
+	/**
+	 * Determines the two points of the convex hull of the projected points that are the most distant in the
+	 * projection.
+	 * @return The indexes of the two points.
+	 */
+	private int[] getHullDiameter()
+	{
+		int count = m_points.length;
+		double latSum = 0;
+		for(LonLat point : m_points)
+			latSum += point.getLat();
+		final double scale = Math.cos(latSum/count*Math.PI/180);
+
+		Integer[] sorted = new Integer[count];
+		for(int i=0; i<count; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a_index1, Integer a_index2)
+			{
+				int ret = Double.compare(m_points[a_index1].getLon(), m_points[a_index2].getLon());
+				if(ret == 0)
+					ret = Double.compare(m_points[a_index1].getLat(), m_points[a_index2].getLat());
+				return ret;
+			}
+		});
+
+		// Andrew’s monotone chain
+		int[] hull = new int[count*2];
+		int size = 0;
+		for(int pass=0; pass<2; pass++)
+		{
+			int start = size;
+			for(int k=0; k<count; k++)
+			{
+				int it = sorted[pass == 0 ? k : count-1-k];
+				while(size >= start+2 && cross(hull[size-2], hull[size-1], it, scale) <= 0)
+					size--;
+				hull[size++] = it;
+			}
+			size--; // The last point is the first one of the other chain
+		}
+
+		if(size < 2)
+			return new int[] { sorted[0], sorted[count-1] };
+
+		// Rotating calipers
+		int[] ret = new int[] { hull[0], hull[1] };
+		double retDistance = -1;
+		int j = 1;
+		for(int i=0; i<size; i++)
+		{
+			int next = (i+1)%size;
+			while(true)
+			{
+				int jNext = (j+1)%size;
+				if(Math.abs(cross(hull[i], hull[next], hull[jNext], scale)) > Math.abs(cross(hull[i], hull[next], hull[j], scale)))
+					j = jNext;
+				else
+					break;
+			}
+			for(int it : new int[] { hull[i], hull[next] })
+			{
+				double distance = projectedDistance2(it, hull[j], scale);
+				if(distance > retDistance)
+				{
+					retDistance = distance;
+					ret[0] = it;
+					ret[1] = hull[j];
+				}
+			}
+		}
+		return ret;
+	}
+
+	private double cross(int a_origin, int a_point1, int a_point2, double a_scale)
+	{
+		double x1 = (m_points[a_point1].getLon()-m_points[a_origin].getLon())*a_scale;
+		double y1 = m_points[a_point1].getLat()-m_points[a_origin].getLat();
+		double x2 = (m_points[a_point2].getLon()-m_points[a_origin].getLon())*a_scale;
+		double y2 = m_points[a_point2].getLat()-m_points[a_origin].getLat();
+		return x1*y2-y1*x2;
+	}
+
+	private double projectedDistance2(int a_point1, int a_point2, double a_scale)
+	{
+		double x = (m_points[a_point1].getLon()-m_points[a_point2].getLon())*a_scale;
+		double y = m_points[a_point1].getLat()-m_points[a_point2].getLat();
+		return x*x+y*y;
+	}
+
+	/**
+	 * Builds the k-d tree between a_from and a_to (see {@link EndTree}) and stores the bounding box of the subtree
+	 * at the index of its middle.
+	 */
+	private void build(int a_from, int a_to, int a_depth)
+	{
+		if(a_from >= a_to)
+			return;
+		double[] coordinates = m_coordinates[a_depth%3];
+		int middle = (a_from+a_to) >>> 1;
+
+		int from = a_from;
+		int to = a_to-1;
+		while(from < to)
+		{
+			double pivot = coordinates[m_tree[(from+to) >>> 1]];
+			int i = from;
+			int j = to;
+			while(i <= j)
+			{
+				while(coordinates[m_tree[i]] < pivot)
+					i++;
+				while(coordinates[m_tree[j]] > pivot)
+					j--;
+				if(i <= j)
+				{
+					int tmp = m_tree[i];
+					m_tree[i] = m_tree[j];
+					m_tree[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if(middle <= j)
+				to = j;
+			else if(middle >= i)
+				from = i;
+			else
+				break;
+		}
+
+		build(a_from, middle, a_depth+1);
+		build(middle+1, a_to, a_depth+1);
+
+		for(int axis=0; axis<3; axis++)
+		{
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for(int i=a_from; i<a_to; i++)
+			{
+				double it = m_coordinates[axis][m_tree[i]];
+				min = Math.min(min, it);
+				max = Math.max(max, it);
+			}
+			m_boxMin[axis][middle] = min;
+			m_boxMax[axis][middle] = max;
+		}
+	}
+
+	private void search(int a_point, int a_from, int a_to, int a_depth)
+	{
+		if(a_from >= a_to)
+			return;
+		int middle = (a_from+a_to) >>> 1;
+
+		double bound = 0;
+		for(int axis=0; axis<3; axis++)
+		{
+			double it = m_coordinates[axis][a_point];
+			double diff = Math.max(Math.abs(it-m_boxMin[axis][middle]), Math.abs(it-m_boxMax[axis][middle]));
+			bound += diff*diff;
+		}
+		if(bound < m_bestChord2*(1-TOLERANCE))
+			return;
+
+		int it = m_tree[middle];
+		if(it != a_point)
+			consider(Math.min(a_point, it), Math.max(a_point, it));
+		search(a_point, a_from, middle, a_depth+1);
+		search(a_point, middle+1, a_to, a_depth+1);
+	}
+
+	private void consider(int a_point1, int a_point2)
+	{
+		if(a_point1 == a_point2)
+			return;
+		double distance = m_points[a_point1].getDistance(m_points[a_point2]);
+		boolean better;
+		if(m_best1 == -1 || distance > m_bestDistance)
+			better = true;
+		else if(distance < m_bestDistance)
+			better = false;
+		else
+			better = (a_point1 < m_best1 || (a_point1 == m_best1 && a_point2 < m_best2));
+
+		if(better)
+		{
+			m_best1 = a_point1;
+			m_best2 = a_point2;
+			m_bestDistance = distance;
+			double chord2 = 0;
+			for(int axis=0; axis<3; axis++)
+			{
+				double diff = m_coordinates[axis][a_point1]-m_coordinates[axis][a_point2];
+				chord2 += diff*diff;
+			}
+			m_bestChord2 = chord2;
+		}
+	}
+}
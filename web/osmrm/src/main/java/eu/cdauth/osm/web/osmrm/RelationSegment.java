@@ -20,72 +20,165 @@
 package eu.cdauth.osm.web.osmrm;
 
 import eu.cdauth.osm.lib.LonLat;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
+/**
+ * A continuous line of nodes of a route. The coordinates are stored in primitive arrays rather than as one
+ * {@link LonLat} object per node, which keeps the segments small in memory and in the serialised cache.
+ */
 
-public class RelationSegment implements Comparable<RelationSegment>,Serializable
+public class RelationSegment implements Serializable
 {
-	private LonLat[] m_nodes;
-	private double m_distance = -1;
-	
+	private final double[] m_lons;
+	private final double[] m_lats;
+
 	/**
-	 * Segments are sorted by their distance to this point. Be sure to set this value before using compareTo() and to unset it afterwards, both inside a block synchronizing this class.
+	 * The length of the segment. This is recalculated after deserialisation.
 	 */
-	private static LonLat sm_sortingReference = null;
+	private transient double m_distance;
 	
 	public RelationSegment(LonLat[] a_nodes)
 	{
 		if(a_nodes.length < 2)
 			throw new IllegalArgumentException("A segment has to consist of minimum two nodes.");
-		m_nodes = a_nodes;
+		m_lons = new double[a_nodes.length];
+		m_lats = new double[a_nodes.length];
+		for(int i=0; i<a_nodes.length; i++)
+		{
+			m_lons[i] = a_nodes[i].getLon();
+			m_lats[i] = a_nodes[i].getLat();
+		}
+		calculateDistance();
 	}
-	
-	private Double getReferenceDistance()
+
+	private void calculateDistance()
 	{
-		return Math.min(m_nodes[0].getDistance(sm_sortingReference), m_nodes[m_nodes.length-1].getDistance(sm_sortingReference));
+		m_distance = 0;
+		for(int i=1; i<m_lons.length; i++)
+			m_distance += LonLat.getDistance(m_lons[i-1], m_lats[i-1], m_lons[i], m_lats[i]);
 	}
-	
-	public synchronized static void setSortingReference(LonLat m_sortingReference)
+
+	private void readObject(ObjectInputStream a_in) throws IOException, ClassNotFoundException
 	{
-		sm_sortingReference = m_sortingReference;
+		a_in.defaultReadObject();
+		if(m_lons == null || m_lats == null || m_lons.length != m_lats.length || m_lons.length < 2)
+			throw new InvalidObjectException("Invalid segment coordinates.");
+		calculateDistance();
 	}
 	
 	/**
-	 * Only works when sm_sortingReference is set, for internal use only. 
+	 * Returns the distance of the nearer end of this segment to a point.
+	 * @param a_reference The point.
+	 * @return The distance in km.
 	 */
+	public double getReferenceDistance(LonLat a_reference)
+	{
+		int last = m_lons.length-1;
+		return Math.min(LonLat.getDistance(m_lons[0], m_lats[0], a_reference.getLon(), a_reference.getLat()),
+		                LonLat.getDistance(m_lons[last], m_lats[last], a_reference.getLon(), a_reference.getLat()));
+	}
 	
-	public int compareTo(RelationSegment o)
+	/**
+	 * Sorts segments by the distance of their nearer end to a reference point, the most distant segments first.
+	 * Segments with the same distance keep their order. The distances are calculated once per segment before
+	 * sorting, no shared state is used, so multiple threads can sort at the same time.
+	 * @param a_segments The segments to sort, the array is sorted in place.
+	 * @param a_reference The reference point.
+	 */
+	public static void sort(RelationSegment[] a_segments, LonLat a_reference)
 	{
-		return o.getReferenceDistance().compareTo(getReferenceDistance());
+		double[] keys = new double[a_segments.length];
+		int[] order = new int[a_segments.length];
+		for(int i=0; i<a_segments.length; i++)
+		{
+			keys[i] = a_segments[i].getReferenceDistance(a_reference);
+			order[i] = i;
+		}
+
+		mergeSort(order, new int[order.length], 0, order.length, keys);
+
+		RelationSegment[] unsorted = a_segments.clone();
+		for(int i=0; i<order.length; i++)
+			a_segments[i] = unsorted[order[i]];
+	}
+
+	/**
+	 * Sorts the indexes between a_from and a_to by their keys in descending order. The sort is stable.
+	 */
+	private static void mergeSort(int[] a_indexes, int[] a_buffer, int a_from, int a_to, double[] a_keys)
+	{
+		if(a_to-a_from < 2)
+			return;
+		int middle = (a_from+a_to) >>> 1;
+		mergeSort(a_indexes, a_buffer, a_from, middle, a_keys);
+		mergeSort(a_indexes, a_buffer, middle, a_to, a_keys);
+		if(Double.compare(a_keys[a_indexes[middle-1]], a_keys[a_indexes[middle]]) >= 0)
+			return; // Already in order
+
+		System.arraycopy(a_indexes, a_from, a_buffer, a_from, a_to-a_from);
+		int i = a_from;
+		int j = middle;
+		for(int k=a_from; k<a_to; k++)
+		{
+			if(j >= a_to || (i < middle && Double.compare(a_keys[a_buffer[i]], a_keys[a_buffer[j]]) >= 0))
+				a_indexes[k] = a_buffer[i++];
+			else
+				a_indexes[k] = a_buffer[j++];
+		}
 	}
 	
 	public LonLat getEnd1()
 	{
-		return m_nodes[0];
+		return getNode(0);
 	}
 	
 	public LonLat getEnd2()
 	{
-		return m_nodes[m_nodes.length-1];
+		return getNode(m_lons.length-1);
 	}
-	
+
+	/**
+	 * Returns the number of nodes of this segment.
+	 * @return The number of nodes, at least 2.
+	 */
+	public int getNodeCount()
+	{
+		return m_lons.length;
+	}
+
+	public double getLon(int a_index)
+	{
+		return m_lons[a_index];
+	}
+
+	public double getLat(int a_index)
+	{
+		return m_lats[a_index];
+	}
+
+	public LonLat getNode(int a_index)
+	{
+		return new LonLat(m_lons[a_index], m_lats[a_index]);
+	}
+
+	/**
+	 * Creates LonLat objects for all nodes of this segment. Use {@link #getLon} and {@link #getLat} to avoid
+	 * creating objects.
+	 * @return The nodes of this segment.
+	 */
 	public LonLat[] getNodes()
 	{
-		return m_nodes;
+		LonLat[] ret = new LonLat[m_lons.length];
+		for(int i=0; i<ret.length; i++)
+			ret[i] = getNode(i);
+		return ret;
 	}
 	
-	public synchronized double getDistance()
+	public double getDistance()
 	{
-		if(m_distance == -1)
-		{
-			m_distance = 0;
-			LonLat lastNode = m_nodes[0];
-			for(int i=1; i<m_nodes.length; i++)
-			{
-				m_distance += lastNode.getDistance(m_nodes[i]);
-				lastNode = m_nodes[i];
-			}
-		}
 		return m_distance;
 	}
 }
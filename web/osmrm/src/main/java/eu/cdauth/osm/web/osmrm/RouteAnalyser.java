@@ -31,13 +31,12 @@ import eu.cdauth.osm.lib.APIError;
 import eu.cdauth.osm.lib.Changeset;
 import eu.cdauth.osm.lib.ID;
 import eu.cdauth.osm.lib.LonLat;
-import eu.cdauth.osm.lib.Node;
 import eu.cdauth.osm.lib.Relation;
 import eu.cdauth.osm.lib.RelationMember;
 import eu.cdauth.osm.lib.Way;
-import eu.cdauth.osm.lib.api06.API06API;
 import eu.cdauth.osm.web.common.Cache;
 import eu.cdauth.osm.web.common.Queue;
+import eu.cdauth.osm.web.common.SharedAPI;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Date;
@@ -49,7 +48,27 @@ public class RouteAnalyser implements Serializable
 
 	public static Cache<RouteAnalyser> cache = null;
 
-	public static final Queue.Worker WORKER = new Queue.Worker() {
+	/**
+	 * Roughly how many milliseconds the analysis takes per member of the relation.
+	 */
+	protected static final int ESTIMATED_COST_PER_MEMBER = 50;
+
+	public static final Queue.Worker WORKER = new Queue.EstimatingWorker() {
+		@Override
+		public long estimateCost(ID a_id)
+		{
+			try
+			{
+				Relation relation = SharedAPI.getInstance().getRelationFactory().getCached(a_id);
+				if(relation != null)
+					return relation.getMembers().length*ESTIMATED_COST_PER_MEMBER;
+			}
+			catch(APIError e)
+			{
+			}
+			return -1;
+		}
+
 		@Override
 		public void work(ID a_id)
 		{
@@ -84,7 +103,7 @@ public class RouteAnalyser implements Serializable
 	{
 		try
 		{
-			API api = new API06API();
+			API api = SharedAPI.getInstance();
 
 			Relation relation = api.getRelationFactory().fetch(a_id);
 			segments = segmentate(relation);
@@ -126,115 +145,54 @@ public class RouteAnalyser implements Serializable
 				distance2[i] = Double.MAX_VALUE;
 			}
 
-			// Calculate segment connections and lengthes
+			// Calculate segment connections and lengthes. The connected segments are looked up in a hash index, the
+			// nearest ends of other segments in a k-d tree.
+			LonLat[] ends1 = new LonLat[segments.length];
+			LonLat[] ends2 = new LonLat[segments.length];
+			for(int i=0; i<segments.length; i++)
+			{
+				ends1[i] = segments[i].getEnd1();
+				ends2[i] = segments[i].getEnd2();
+			}
+			EndIndex endIndex = new EndIndex(ends1, ends2);
+			EndTree endTree = new EndTree(ends1, ends2);
+			EndIndex.IntList connected = new EndIndex.IntList();
+
 			for(int i=0; i<segments.length; i++)
 			{
 				totalLength += segments[i].getDistance();
 
-				LonLat thisEnd1 = segments[i].getEnd1();
-				LonLat thisEnd2 = segments[i].getEnd2();
-				for(int j=i+1; j<segments.length; j++)
+				// A segment is listed once for each of its ends that is connected
+				connected.clear();
+				endIndex.find(ends1[i], connected);
+				connected.sort();
+				for(int k=0; k<connected.size(); k++)
 				{
-					LonLat thatEnd1 = segments[j].getEnd1();
-					LonLat thatEnd2 = segments[j].getEnd2();
-
-					if(thisEnd1.equals(thatEnd1))
-					{
-						connection1[i].add(j);
-						connection1[j].add(i);
-					}
-					if(thisEnd1.equals(thatEnd2))
-					{
-						connection1[i].add(j);
-						connection2[j].add(i);
-					}
-					if(thisEnd2.equals(thatEnd1))
-					{
-						connection2[i].add(j);
-						connection1[j].add(i);
-					}
-					if(thisEnd2.equals(thatEnd2))
-					{
-						connection2[i].add(j);
-						connection2[j].add(i);
-					}
-
-					double it_distance11 = thisEnd1.getDistance(thatEnd1);
-					double it_distance12 = thisEnd1.getDistance(thatEnd2);
-					double it_distance21 = thisEnd2.getDistance(thatEnd1);
-					double it_distance22 = thisEnd2.getDistance(thatEnd2);
-
-					// distance1[i] = Math.min(distance1[i], Math.min(it_distance11, it_distance12));
-					if(it_distance11 < it_distance12)
-					{
-						if(it_distance11 < distance1[i])
-						{
-							distance1[i] = it_distance11;
-							distance1Target[i] = thatEnd1;
-						}
-					}
-					else
-					{
-						if(it_distance12 < distance1[i])
-						{
-							distance1[i] = it_distance12;
-							distance1Target[i] = thatEnd2;
-						}
-					}
+					if(connected.get(k) != i)
+						connection1[i].add(connected.get(k));
+				}
 
-					// distance2[i] = Math.min(distance2[i], Math.min(it_distance21, it_distance22));
-					if(it_distance21 < it_distance22)
-					{
-						if(it_distance21 < distance2[i])
-						{
-							distance2[i] = it_distance21;
-							distance2Target[i] = thatEnd1;
-						}
-					}
-					else
-					{
-						if(it_distance22 < distance2[i])
-						{
-							distance2[i] = it_distance22;
-							distance2Target[i] = thatEnd2;
-						}
-					}
+				connected.clear();
+				endIndex.find(ends2[i], connected);
+				connected.sort();
+				for(int k=0; k<connected.size(); k++)
+				{
+					if(connected.get(k) != i)
+						connection2[i].add(connected.get(k));
+				}
 
-					// distance1[j] = Math.min(distance1[j], Math.min(it_distance11, it_distance21));
-					if(it_distance11 < it_distance21)
-					{
-						if(it_distance11 < distance1[j])
-						{
-							distance1[j] = it_distance11;
-							distance1Target[j] = thisEnd1;
-						}
-					}
-					else
-					{
-						if(it_distance21 < distance1[j])
-						{
-							distance1[j] = it_distance21;
-							distance1Target[j] = thisEnd2;
-						}
-					}
+				int nearest1 = endTree.findNearest(i, 1);
+				if(nearest1 != -1)
+				{
+					distance1[i] = endTree.getDistance();
+					distance1Target[i] = endTree.getEnd(nearest1);
+				}
 
-					// distance2[j] = Math.min(distance2[j], Math.min(it_distance12, it_distance22));
-					if(it_distance12 < it_distance22)
-					{
-						if(it_distance11 < distance2[j])
-						{
-							distance2[j] = it_distance12;
-							distance2Target[j] = thisEnd1;
-						}
-					}
-					else
-					{
-						if(it_distance22 < distance2[j])
-						{
-							distance2[j] = it_distance22;
-							distance2Target[j] = thisEnd2;
-						}
-					}
+				int nearest2 = endTree.findNearest(i, 2);
+				if(nearest2 != -1)
+				{
+					distance2[i] = endTree.getDistance();
+					distance2Target[i] = endTree.getEnd(nearest2);
 				}
 			}
 		}
@@ -270,13 +228,13 @@ public class RouteAnalyser implements Serializable
 		for(int i=0; i<waysList.size(); i++)
 		{
 			LonLat roundaboutCentre = waysList.get(i).getRoundaboutCentre();
-			Node[] nodes = waysList.get(i).getMemberNodes(null);
+			LonLat[] nodes = waysList.get(i).getMemberLonLats();
 			if(nodes.length <= 1)
 				waysList.remove(i--);
 			else if(roundaboutCentre != null)
 			{
-				for(Node it : nodes)
-					roundaboutReplacement.put(it.getLonLat(), roundaboutCentre);
+				for(LonLat it : nodes)
+					roundaboutReplacement.put(it, roundaboutCentre);
 				waysList.remove(i--);
 			}
 		}
@@ -296,13 +254,13 @@ public class RouteAnalyser implements Serializable
 		LonLat i_lonlat;
 		for(int i=0; i<ways.length; i++)
 		{
-			Node[] nodes = ways[i].getMemberNodes(null);
-			i_lonlat = nodes[0].getLonLat();
+			LonLat[] nodes = ways[i].getMemberLonLats();
+			i_lonlat = nodes[0];
 			if(roundaboutReplacement.containsKey(i_lonlat))
 				waysEnds1[i] = roundaboutReplacement.get(i_lonlat);
 			else
 				waysEnds1[i] = i_lonlat;
-			i_lonlat = nodes[nodes.length-1].getLonLat();
+			i_lonlat = nodes[nodes.length-1];
 			if(roundaboutReplacement.containsKey(i_lonlat))
 				waysEnds2[i] = roundaboutReplacement.get(i_lonlat);
 			else
@@ -316,20 +274,31 @@ public class RouteAnalyser implements Serializable
 			startTime = System.currentTimeMillis();
 		}
 		
-		// Look which ways are connected
-		ArrayList<Integer> endsIndexes = new ArrayList<Integer>(); // Contains the indexes of all ways that are on one end of a segment (thus connected to more or less than 1 other way)
-		ArrayList<Integer>[] waysConnections1 = new ArrayList[ways.length];
-		ArrayList<Integer>[] waysConnections2 = new ArrayList[ways.length];
+		// Look which ways are connected. The ways that share an end with a way are looked up in a hash index of the
+		// way ends, so that not all pairs of ways have to be compared.
+		EndIndex endIndex = new EndIndex(waysEnds1, waysEnds2);
+		EndIndex.IntList candidates = new EndIndex.IntList();
+		EndIndex.IntList endsIndexes = new EndIndex.IntList(); // Contains the indexes of all ways that are on one end of a segment (thus connected to more or less than 1 other way)
+		EndIndex.IntList[] waysConnections1 = new EndIndex.IntList[ways.length];
+		EndIndex.IntList[] waysConnections2 = new EndIndex.IntList[ways.length];
 		for(int i=0; i<ways.length; i++)
 		{
-			waysConnections1[i] = new ArrayList<Integer>();
-			waysConnections2[i] = new ArrayList<Integer>();
+			waysConnections1[i] = new EndIndex.IntList();
+			waysConnections2[i] = new EndIndex.IntList();
 		}
 		
 		for(int i=0; i<ways.length; i++)
 		{
-			for(int j=i+1; j<ways.length; j++)
+			candidates.clear();
+			endIndex.find(waysEnds1[i], candidates);
+			endIndex.find(waysEnds2[i], candidates);
+			candidates.sortUnique();
+			for(int k=0; k<candidates.size(); k++)
 			{
+				int j = candidates.get(k);
+				if(j <= i)
+					continue;
+
 				if(waysEnds1[i].equals(waysEnds1[j]))
 				{
 					waysConnections1[i].add(j);
@@ -355,10 +324,11 @@ public class RouteAnalyser implements Serializable
 				endsIndexes.add(i);
 		}
 		
+		endIndex = null;
 		waysEnds1 = null;
 		waysEnds2 = null;
 
-		if(endsIndexes.isEmpty())
+		if(endsIndexes.size() == 0)
 		{ // If the relation is a closed circle, break it up somewhere
 			endsIndexes.add(0);
 			int other = waysConnections1[0].get(0);
@@ -382,17 +352,18 @@ public class RouteAnalyser implements Serializable
 		ArrayList<ArrayList<Way>> segmentsWaysV = new ArrayList<ArrayList<Way>>();
 		
 		// Connect the ways and first create segments of ways (maybe later tags of the ways could be useful)
+		boolean[] segmentEnds = new boolean[ways.length]; // The ways where an already created segment ends
 		for(int i=0; i<endsIndexes.size(); i++)
 		{
-			if(endsIndexes.get(i) == null)
-				continue;
 			int it = endsIndexes.get(i);
+			if(segmentEnds[it])
+				continue;
 			int prevIt;
 
 			ArrayList<Way> segment = new ArrayList<Way>();
 			
 			segment.add(ways[it]);
-			ArrayList<Integer>[] connectionArray = (waysConnections1[it].size() != 1 ? waysConnections2 : waysConnections1);
+			EndIndex.IntList[] connectionArray = (waysConnections1[it].size() != 1 ? waysConnections2 : waysConnections1);
 			while(connectionArray[it].size() == 1)
 			{
 				prevIt = it;
@@ -403,11 +374,10 @@ public class RouteAnalyser implements Serializable
 			
 			segmentsWaysV.add(segment);
 			
-			int indexOf = endsIndexes.indexOf(new Integer(it));
-			if(indexOf > -1)
-				endsIndexes.set(indexOf, null);
+			segmentEnds[it] = true;
 		}
 		
+		segmentEnds = null;
 		waysConnections1 = null;
 		waysConnections2 = null;
 		endsIndexes = null;
@@ -426,29 +396,34 @@ public class RouteAnalyser implements Serializable
 		{
 			ArrayList<Way> segmentWays = segmentsWays[i];
 			ArrayList<LonLat> segmentNodes = new ArrayList<LonLat>();
-			Node lastEndNode = null;
+			ID lastEndNode = null;
+			LonLat lastEndLonLat = null;
 			boolean lastWasRoundabout = false;
 			for(int j=0; j<segmentWays.size(); j++)
 			{
-				Node[] nodes = segmentWays.get(j).getMemberNodes(null);
+				ID[] nodes = segmentWays.get(j).getMembers();
+				LonLat[] lonLats = segmentWays.get(j).getMemberLonLats();
 				boolean reverse = false;
 				if(lastEndNode == null)
 				{
 					if(j+1 < segmentWays.size())
 					{
-						Node[] nextNodes = segmentWays.get(j+1).getMemberNodes(null);
+						ID[] nextNodes = segmentWays.get(j+1).getMembers();
 						reverse = (nodes[0].equals(nextNodes[0]) || nodes[0].equals(nextNodes[nextNodes.length-1]));
 					}
-					if(roundaboutReplacement.containsKey(nodes[0].getLonLat()))
-						segmentNodes.add(roundaboutReplacement.get(nodes[reverse ? nodes.length-1 : 0].getLonLat()));
+					if(roundaboutReplacement.containsKey(lonLats[0]))
+						segmentNodes.add(roundaboutReplacement.get(lonLats[reverse ? lonLats.length-1 : 0]));
 				}
 				else
-					reverse = (nodes[nodes.length-1].equals(lastEndNode) || (lastWasRoundabout && roundaboutReplacement.get(lastEndNode.getLonLat()).equals(roundaboutReplacement.get(nodes[nodes.length-1].getLonLat()))));
+					reverse = (nodes[nodes.length-1].equals(lastEndNode) || (lastWasRoundabout && roundaboutReplacement.get(lastEndLonLat).equals(roundaboutReplacement.get(lonLats[lonLats.length-1]))));
 				
 				for(int k = (reverse ? nodes.length-1 : 0) + (lastEndNode == null || lastWasRoundabout ? 0 : (reverse ? -1 : 1)); (reverse) ? (k >= 0) : (k < nodes.length); k += (reverse ? -1 : 1))
-					segmentNodes.add((lastEndNode = nodes[k]).getLonLat());
-				if(lastWasRoundabout = roundaboutReplacement.containsKey(lastEndNode.getLonLat()))
-					segmentNodes.add(roundaboutReplacement.get(lastEndNode.getLonLat()));
+				{
+					lastEndNode = nodes[k];
+					segmentNodes.add(lastEndLonLat = lonLats[k]);
+				}
+				if(lastWasRoundabout = roundaboutReplacement.containsKey(lastEndLonLat))
+					segmentNodes.add(roundaboutReplacement.get(lastEndLonLat));
 			}
 			segmentsNodesV.add(segmentNodes);
 		}
@@ -472,44 +447,39 @@ public class RouteAnalyser implements Serializable
 		// Calculate the distance between all segment ends that aren’t connected to any other segment and find the greatest distance
 		ArrayList<LonLat> endsCoordinatesV = new ArrayList<LonLat>();
 		
+		LonLat[] segmentsEnds1 = new LonLat[segmentsNodes.length];
+		LonLat[] segmentsEnds2 = new LonLat[segmentsNodes.length];
+		for(int i=0; i<segmentsNodes.length; i++)
+		{
+			segmentsEnds1[i] = segmentsNodes[i].getEnd1();
+			segmentsEnds2[i] = segmentsNodes[i].getEnd2();
+		}
+		EndIndex segmentsEndIndex = new EndIndex(segmentsEnds1, segmentsEnds2);
 		for(int i=0; i<segmentsNodes.length; i++)
 		{
 			boolean end1 = true;
 			boolean end2 = true;
-			for(int j=0; j<segmentsNodes.length; j++)
-			{
-				if(i == j) continue;
-				
-				if(end1 && (segmentsNodes[i].getEnd1().equals(segmentsNodes[j].getEnd1()) || segmentsNodes[i].getEnd1().equals(segmentsNodes[j].getEnd2())))
-					end1 = false;
-				if(end2 && (segmentsNodes[i].getEnd2().equals(segmentsNodes[j].getEnd1()) || segmentsNodes[i].getEnd2().equals(segmentsNodes[j].getEnd2())))
-					end2 = false;
-				if(end1 && end2)
-					break;
-			}
+			candidates.clear();
+			segmentsEndIndex.find(segmentsEnds1[i], candidates);
+			for(int k=0; k<candidates.size() && end1; k++)
+				end1 = (candidates.get(k) == i);
+			candidates.clear();
+			segmentsEndIndex.find(segmentsEnds2[i], candidates);
+			for(int k=0; k<candidates.size() && end2; k++)
+				end2 = (candidates.get(k) == i);
 			if(end1)
-				endsCoordinatesV.add(segmentsNodes[i].getEnd1());
+				endsCoordinatesV.add(segmentsEnds1[i]);
 			if(end2)
-				endsCoordinatesV.add(segmentsNodes[i].getEnd2());
+				endsCoordinatesV.add(segmentsEnds2[i]);
 		}
+		segmentsEndIndex = null;
 		
 		LonLat[] endsCoordinates = endsCoordinatesV.toArray(new LonLat[endsCoordinatesV.size()]);
 		endsCoordinatesV = null;
-		LonLat[] greatestDistancePoints = new LonLat[2];
-		double greatestDistance = -1;
-		for(int i=0; i<endsCoordinates.length; i++)
-		{
-			for(int j=i+1; j<endsCoordinates.length; j++)
-			{
-				double distance = endsCoordinates[i].getDistance(endsCoordinates[j]);
-				if(distance > greatestDistance)
-				{
-					greatestDistance = distance;
-					greatestDistancePoints[0] = endsCoordinates[i];
-					greatestDistancePoints[1] = endsCoordinates[j];
-				}
-			}
-		}
+		FarthestPair farthestPair = new FarthestPair(endsCoordinates);
+		LonLat[] greatestDistancePoints = new LonLat[] { farthestPair.getPoint1(), farthestPair.getPoint2() };
+		double greatestDistance = farthestPair.getDistance();
+		farthestPair = null;
 		
 		if(greatestDistance != -1)
 		{
@@ -521,12 +491,7 @@ public class RouteAnalyser implements Serializable
 			else
 				referencePoint = greatestDistancePoints[greatestDistancePoints[0].getLon() < greatestDistancePoints[1].getLon() ? 0 : 1];
 			
-			synchronized(RelationSegment.class)
-			{
-				RelationSegment.setSortingReference(referencePoint);
-				Arrays.sort(segmentsNodes);
-				RelationSegment.setSortingReference(null);
-			}
+			RelationSegment.sort(segmentsNodes, referencePoint);
 		}
 
 		if(sm_logger.isLoggable(Level.FINE))
@@ -20,6 +20,7 @@
 <%@page import="eu.cdauth.osm.web.osmrm.*"%>
 <%@page import="eu.cdauth.osm.web.common.Cache"%>
 <%@page import="eu.cdauth.osm.web.common.Queue"%>
+<%@page import="eu.cdauth.osm.web.common.SharedAPI"%>
 <%@page import="java.util.*" %>
 <%@page import="java.util.logging.Logger"%>
 <%@page import="java.util.logging.Level"%>
@@ -31,6 +32,9 @@
 
 	public void jspInit()
 	{
+		SharedAPI.configure(getServletContext());
+		Queue.configure(getServletContext());
+
 		if(RouteAnalyser.cache == null)
 		{
 			RouteAnalyser.cache = new Cache<RouteAnalyser>(GUI.getCacheDirectory(getServletContext())+"/osmrm");
@@ -58,10 +62,24 @@
 		int queuePosition = queue.getPosition(RouteAnalyser.WORKER, relationId);
 		if(cacheEntry == null)
 		{
-			if(queuePosition == 0)
+			if(queuePosition != 1) // Not running yet, raise the priority if it was scheduled in the background
 			{
-				Queue.Notification notify = queue.scheduleTask(RouteAnalyser.WORKER, relationId);
-				notify.sleep(0);
+				Queue.Notification notify;
+				try
+				{
+					notify = queue.scheduleTask(RouteAnalyser.WORKER, relationId, Queue.Priority.INTERACTIVE, queue.getClient(request));
+				}
+				catch(Queue.QueueFullException e)
+				{
+					e.sendError(response);
+					return;
+				}
+				if(!queue.waitFor(notify, 60000))
+				{
+					response.setHeader("Retry-After", Integer.toString(Queue.RETRY_AFTER));
+					response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The route is still being analysed, please try again later.");
+					return;
+				}
 				cacheEntry = RouteAnalyser.cache.getEntry(relationId.toString());
 				queuePosition = queue.getPosition(RouteAnalyser.WORKER, relationId);
 			}
@@ -162,7 +180,8 @@
 			}
 
 			int maxI = (desiredSegments == null ? route.segments.length : desiredSegments.size());
-			LonLat lastPoint = null;
+			double lastLon = Double.NaN;
+			double lastLat = Double.NaN;
 			for(int i=0; i<maxI; i++)
 			{
 				RelationSegment it;
@@ -170,25 +189,26 @@
 					it = route.segments[i];
 				else
 					it = route.segments[desiredSegments.get(i)];
-				LonLat[] nodes = it.getNodes();
+				int nodes = it.getNodeCount();
 				boolean reverse = (desiredSegments != null && desiredSegmentsReverse.get(i));
 
-				for(int j=(reverse ? nodes.length-1 : 0); (reverse ? j >= 0 : j < nodes.length); j += (reverse ? -1 : 1))
+				for(int j=(reverse ? nodes-1 : 0); (reverse ? j >= 0 : j < nodes); j += (reverse ? -1 : 1))
 				{
-					if(lastPoint != null)
+					if(!Double.isNaN(lastLon))
 					{
-						if(lastPoint == nodes[j])
+						if(lastLon == it.getLon(j) && lastLat == it.getLat(j))
 						{ // Skip duplicated points at segment and and start
-							lastPoint = null;
+							lastLon = lastLat = Double.NaN;
 							continue;
 						}
-						lastPoint = null;
+						lastLon = lastLat = Double.NaN;
 					}
 %>
-		<rtept lat="<%=htmlspecialchars(""+nodes[j].getLat())%>" lon="<%=htmlspecialchars(""+nodes[j].getLon())%>" />
+		<rtept lat="<%=htmlspecialchars(""+it.getLat(j))%>" lon="<%=htmlspecialchars(""+it.getLon(j))%>" />
 <%
 				}
-				lastPoint = nodes[reverse ? 0 : nodes.length-1];
+				lastLon = it.getLon(reverse ? 0 : nodes-1);
+				lastLat = it.getLat(reverse ? 0 : nodes-1);
 			}
 		}
 		catch(Exception e)
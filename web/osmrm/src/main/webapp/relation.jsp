@@ -22,6 +22,7 @@
 <%@page import="eu.cdauth.osm.web.osmrm.*"%>
 <%@page import="eu.cdauth.osm.web.common.Cache"%>
 <%@page import="eu.cdauth.osm.web.common.Queue"%>
+<%@page import="eu.cdauth.osm.web.common.SharedAPI"%>
 <%@page import="static eu.cdauth.osm.web.osmrm.GUI.*"%>
 <%@page import="java.util.*" %>
 <%@page import="java.net.URL" %>
@@ -31,6 +32,9 @@
 
 	public void jspInit()
 	{
+		SharedAPI.configure(getServletContext());
+		Queue.configure(getServletContext());
+
 		if(RouteAnalyser.cache == null)
 		{
 			RouteAnalyser.cache = new Cache<RouteAnalyser>(GUI.getCacheDirectory(getServletContext())+"/osmrm");
@@ -59,13 +63,38 @@
 
 	if(request.getParameter("refresh") != null)
 	{
-		queue.scheduleTask(RouteAnalyser.WORKER, relationId);
+		try
+		{
+			queue.scheduleTask(RouteAnalyser.WORKER, relationId, Queue.Priority.REFRESH, queue.getClient(request));
+		}
+		catch(Queue.QueueFullException e)
+		{
+			e.sendError(response);
+			return;
+		}
 		response.setStatus(HttpServletResponse.SC_SEE_OTHER);
 		URL thisUrl = new URL(request.getRequestURL().toString());
 		response.setHeader("Location", new URL(thisUrl.getProtocol(), thisUrl.getHost(), thisUrl.getPort(), thisUrl.getPath()).toString()+"?id="+GUI.urlencode(request.getParameter("id")));
 		return;
 	}
 
+	// Schedule the task before sending anything, so that it can still be rejected
+	Cache.Entry<RouteAnalyser> cacheEntry = RouteAnalyser.cache.getEntry(relationId.toString());
+	int queuePosition = queue.getPosition(RouteAnalyser.WORKER, relationId);
+	Queue.Notification notify = null;
+	if(cacheEntry == null && queuePosition != 1) // Not running yet, raise the priority if it was scheduled in the background
+	{
+		try
+		{
+			notify = queue.scheduleTask(RouteAnalyser.WORKER, relationId, Queue.Priority.INTERACTIVE, queue.getClient(request));
+		}
+		catch(Queue.QueueFullException e)
+		{
+			e.sendError(response);
+			return;
+		}
+	}
+
 	GUI gui = new GUI(request, response);
 	gui.setTitle(String.format(gui._("Relation %s"), relationId.toString()));
 
@@ -88,17 +117,11 @@
 </ul>
 <noscript><p><strong><%=htmlspecialchars(gui._("Note that many features of this page will not work without JavaScript."))%></strong></p></noscript>
 <%
-	Cache.Entry<RouteAnalyser> cacheEntry = RouteAnalyser.cache.getEntry(relationId.toString());
-	int queuePosition = queue.getPosition(RouteAnalyser.WORKER, relationId);
-	if(cacheEntry == null)
+	if(notify != null)
 	{
-		if(queuePosition == 0)
-		{
-			Queue.Notification notify = queue.scheduleTask(RouteAnalyser.WORKER, relationId);
-			notify.sleep(20000);
-			cacheEntry = RouteAnalyser.cache.getEntry(relationId.toString());
-			queuePosition = queue.getPosition(RouteAnalyser.WORKER, relationId);
-		}
+		queue.waitFor(notify, 20000);
+		cacheEntry = RouteAnalyser.cache.getEntry(relationId.toString());
+		queuePosition = queue.getPosition(RouteAnalyser.WORKER, relationId);
 	}
 
 	if(cacheEntry != null)
@@ -283,11 +306,12 @@
 	});
 	segments_data[<%=i%>] = [
 <%
-					LonLat[] nodes = route.segments[i].getNodes();
-					for(int j=0; j<nodes.length; j++)
+					RelationSegment segment = route.segments[i];
+					int nodes = segment.getNodeCount();
+					for(int j=0; j<nodes; j++)
 					{
 %>
-		new OpenLayers.Feature(segments[<%=i%>], new OpenLayers.LonLat(<%=nodes[j].getLon()%>, <%=nodes[j].getLat()%>).transform(projection, map.getProjectionObject())) <% if(j == nodes.length-1){%> // <% }%>,
+		new OpenLayers.Feature(segments[<%=i%>], new OpenLayers.LonLat(<%=segment.getLon(j)%>, <%=segment.getLat(j)%>).transform(projection, map.getProjectionObject())) <% if(j == nodes-1){%> // <% }%>,
 <%
 					}
 %>
@@ -0,0 +1,140 @@
+/*
+	This file is part of the OSM Route Manager.
+
+	OSM Route Manager is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+
+	Copyright © 2010 Candid Dauth
+*/
+
+package eu.cdauth.osm.web.osmrm;
+
+import eu.cdauth.osm.lib.LonLat;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EndIndexTest
+{
+	/**
+	 * Compares the result of {@link EndIndex#find} with comparing all ends using {@link LonLat#equals}, including
+	 * how often an object is returned.
+	 */
+	private static void assertSameAsPairwise(LonLat[] a_ends1, LonLat[] a_ends2, LonLat a_query)
+	{
+		EndIndex.IntList found = new EndIndex.IntList();
+		new EndIndex(a_ends1, a_ends2).find(a_query, found);
+		found.sort();
+
+		EndIndex.IntList expected = new EndIndex.IntList();
+		for(int i=0; i<a_ends1.length; i++)
+		{
+			if(a_ends1[i].equals(a_query))
+				expected.add(i);
+			if(a_ends2[i].equals(a_query))
+				expected.add(i);
+		}
+
+		assertEquals("Query "+a_query, expected.size(), found.size());
+		for(int i=0; i<expected.size(); i++)
+			assertEquals("Query "+a_query, expected.get(i), found.get(i));
+	}
+
+	@Test
+	public void tolerance()
+	{
+		LonLat query = new LonLat(10.0000001, 50.0000001);
+		LonLat[] ends1 = new LonLat[] {
+			new LonLat(10.0000001, 50.0000001), // Same
+			new LonLat(10.0000001+4.9e-8, 50.0000001), // Just within the tolerance
+			new LonLat(10.0000001-5.1e-8, 50.0000001), // Just outside of it
+			new LonLat(10.0000001, 50.0000001-4.9e-8),
+			new LonLat(10.0000001, 50.0000001+5.1e-8),
+			new LonLat(10.0000001+4.9e-8, 50.0000001-4.9e-8)
+		};
+		LonLat[] ends2 = new LonLat[] {
+			new LonLat(0, 0),
+			new LonLat(0, 0),
+			new LonLat(0, 0),
+			new LonLat(0, 0),
+			new LonLat(0, 0),
+			new LonLat(10.0000001, 50.0000001) // Both ends match
+		};
+
+		EndIndex.IntList found = new EndIndex.IntList();
+		new EndIndex(ends1, ends2).find(query, found);
+		found.sort();
+		assertEquals(5, found.size());
+		assertEquals(0, found.get(0));
+		assertEquals(1, found.get(1));
+		assertEquals(3, found.get(2));
+		assertEquals(5, found.get(3));
+		assertEquals(5, found.get(4));
+		assertSameAsPairwise(ends1, ends2, query);
+	}
+
+	@Test
+	public void cellBoundaries()
+	{
+		// Coordinates exactly between two quantisation steps are rounded into different cells than coordinates
+		// that are slightly smaller, also for negative coordinates.
+		double[] boundaries = new double[] { 0.00000015, -0.00000015, 13.12345675, -13.12345675, 179.99999995, -89.99999995 };
+		double[] offsets = new double[] { -5.1e-8, -4.9e-8, -2.5e-8, -1e-9, 0, 1e-9, 2.5e-8, 4.9e-8, 5.1e-8 };
+		for(double lon : boundaries)
+		{
+			for(double lat : boundaries)
+			{
+				LonLat[] ends1 = new LonLat[offsets.length*offsets.length];
+				LonLat[] ends2 = new LonLat[ends1.length];
+				for(int i=0; i<offsets.length; i++)
+				{
+					for(int j=0; j<offsets.length; j++)
+					{
+						ends1[i*offsets.length+j] = new LonLat(lon+offsets[i], lat+offsets[j]);
+						ends2[i*offsets.length+j] = new LonLat(lon-offsets[j], lat-offsets[i]);
+					}
+				}
+
+				for(double queryOffset : offsets)
+				{
+					assertSameAsPairwise(ends1, ends2, new LonLat(lon+queryOffset, lat));
+					assertSameAsPairwise(ends1, ends2, new LonLat(lon, lat-queryOffset));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void random()
+	{
+		Random random = new Random(1);
+		for(int run=0; run<50; run++)
+		{
+			// Points on a small grid with a few tolerance-sized offsets, so that many of them are (nearly) equal
+			LonLat[] ends1 = new LonLat[200];
+			LonLat[] ends2 = new LonLat[ends1.length];
+			for(int i=0; i<ends1.length; i++)
+			{
+				ends1[i] = randomPoint(random);
+				ends2[i] = randomPoint(random);
+			}
+			for(int i=0; i<20; i++)
+				assertSameAsPairwise(ends1, ends2, randomPoint(random));
+		}
+	}
+
+	private static LonLat randomPoint(Random a_random)
+	{
+		return new LonLat(8+a_random.nextInt(5)*1e-7+a_random.nextInt(7)*2e-8, 50+a_random.nextInt(5)*1e-7+a_random.nextInt(7)*2e-8);
+	}
+}
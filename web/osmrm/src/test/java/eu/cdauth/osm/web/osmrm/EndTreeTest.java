@@ -0,0 +1,172 @@
+/*
+	This file is part of the OSM Route Manager.
+
+	OSM Route Manager is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+
+	Copyright © 2010 Candid Dauth
+*/
+
+package eu.cdauth.osm.web.osmrm;
+
+import eu.cdauth.osm.lib.LonLat;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EndTreeTest
+{
+	/**
+	 * Compares {@link EndTree#findNearest} for all ends with comparing all ends of the other segments: the nearest
+	 * one wins, on equal distances the one of the lowest segment and then the second end of that segment.
+	 */
+	private static void assertSameAsAllEnds(LonLat[] a_ends1, LonLat[] a_ends2)
+	{
+		EndTree tree = new EndTree(a_ends1, a_ends2);
+		for(int i=0; i<a_ends1.length; i++)
+		{
+			for(int end=1; end<=2; end++)
+			{
+				LonLat query = (end == 1 ? a_ends1[i] : a_ends2[i]);
+				int expected = -1;
+				double expectedDistance = Double.MAX_VALUE;
+				for(int j=0; j<a_ends1.length; j++)
+				{
+					if(j == i)
+						continue;
+					for(int k=0; k<2; k++)
+					{
+						double distance = query.getDistance(k == 0 ? a_ends1[j] : a_ends2[j]);
+						if(distance < expectedDistance || (distance == expectedDistance && j == (expected >> 1)))
+						{
+							expected = j*2+k;
+							expectedDistance = distance;
+						}
+					}
+				}
+
+				int nearest = tree.findNearest(i, end);
+				assertEquals("Segment "+i+" end "+end, expected, nearest);
+				if(expected != -1)
+				{
+					assertEquals(expectedDistance, tree.getDistance(), 0);
+					assertSame(expected % 2 == 0 ? a_ends1[expected >> 1] : a_ends2[expected >> 1], tree.getEnd(nearest));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void oneSegment()
+	{
+		EndTree tree = new EndTree(new LonLat[] { new LonLat(10, 50) }, new LonLat[] { new LonLat(11, 50) });
+		assertEquals(-1, tree.findNearest(0, 1));
+		assertEquals(-1, tree.findNearest(0, 2));
+	}
+
+	@Test
+	public void equalDistances()
+	{
+		// All ends of the other segments have the same distance from the ends of the first one
+		assertSameAsAllEnds(
+			new LonLat[] { new LonLat(0, 0), new LonLat(1, 0), new LonLat(0, 1), new LonLat(-1, 0) },
+			new LonLat[] { new LonLat(0, 0), new LonLat(0, -1), new LonLat(-1, 0), new LonLat(0, 1) }
+		);
+
+		// Duplicated ends
+		LonLat[] ends1 = new LonLat[20];
+		LonLat[] ends2 = new LonLat[ends1.length];
+		for(int i=0; i<ends1.length; i++)
+		{
+			ends1[i] = new LonLat(10+(i%3)*0.001, 50);
+			ends2[i] = new LonLat(10+(i%4)*0.001, 50.001);
+		}
+		assertSameAsAllEnds(ends1, ends2);
+
+		// A regular grid
+		ends1 = new LonLat[50];
+		ends2 = new LonLat[ends1.length];
+		for(int i=0; i<ends1.length; i++)
+		{
+			ends1[i] = new LonLat((i%10)*0.5, (i/10)*0.5);
+			ends2[i] = new LonLat((i*3%10)*0.5, (i*7%5)*0.5);
+		}
+		assertSameAsAllEnds(ends1, ends2);
+	}
+
+	@Test
+	public void poles()
+	{
+		// Points around the poles, many of them with equal distances
+		LonLat[] ends1 = new LonLat[24];
+		LonLat[] ends2 = new LonLat[ends1.length];
+		for(int i=0; i<ends1.length; i++)
+		{
+			ends1[i] = new LonLat(i*15-180, 89.9999);
+			ends2[i] = new LonLat(i*45%360-180, (i%2 == 0 ? 90 : -89.99999));
+		}
+		assertSameAsAllEnds(ends1, ends2);
+	}
+
+	@Test
+	public void antipodes()
+	{
+		// Each end has only ends on the opposite side of the earth and nearly opposite ones to choose from
+		LonLat[] ends1 = new LonLat[16];
+		LonLat[] ends2 = new LonLat[ends1.length];
+		for(int i=0; i<ends1.length; i++)
+		{
+			double offset = (i%4)*1e-7;
+			if(i%2 == 0)
+			{
+				ends1[i] = new LonLat(offset, 10);
+				ends2[i] = new LonLat(-offset, 10+offset);
+			}
+			else
+			{
+				ends1[i] = new LonLat(180-offset, -10);
+				ends2[i] = new LonLat(-180+offset, -10-offset);
+			}
+		}
+		assertSameAsAllEnds(ends1, ends2);
+
+		ends1 = new LonLat[] { new LonLat(0, 0), new LonLat(180, 0), new LonLat(-180, 0), new LonLat(90, 90) };
+		ends2 = new LonLat[] { new LonLat(0, 0), new LonLat(179.9999999, 0), new LonLat(0, -90), new LonLat(-90, 0) };
+		assertSameAsAllEnds(ends1, ends2);
+	}
+
+	@Test
+	public void random()
+	{
+		Random random = new Random(1);
+		for(int run=0; run<100; run++)
+		{
+			LonLat[] ends1 = new LonLat[2+random.nextInt(150)];
+			LonLat[] ends2 = new LonLat[ends1.length];
+			double size = (run%4 == 0 ? 180 : run%4 == 1 ? 10 : 0.01);
+			double lon = random.nextDouble()*360-180;
+			double lat = random.nextDouble()*160-80;
+			for(int i=0; i<ends1.length; i++)
+			{
+				ends1[i] = randomPoint(random, lon, lat, size);
+				ends2[i] = (random.nextInt(5) == 0 ? ends1[random.nextInt(i+1)] : randomPoint(random, lon, lat, size));
+			}
+			assertSameAsAllEnds(ends1, ends2);
+		}
+	}
+
+	private static LonLat randomPoint(Random a_random, double a_lon, double a_lat, double a_size)
+	{
+		return new LonLat(a_lon+(a_random.nextDouble()-0.5)*a_size*2, Math.max(-90, Math.min(90, a_lat+(a_random.nextDouble()-0.5)*a_size)));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+	This file is part of the OSM Route Manager.
+
+	OSM Route Manager is free software: you can redistribute it and/or modify
+	it under the terms of the GNU Affero General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+
+	OSM Route Manager is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+	GNU Affero General Public License for more details.
+
+	You should have received a copy of the GNU Affero General Public License
+	along with this software. If not, see <http://www.gnu.org/licenses/>.
+
+	Copyright © 2010 Candid Dauth
+*/
+
+package eu.cdauth.osm.web.osmrm;
+
+import eu.cdauth.osm.lib.LonLat;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FarthestPairTest
+{
+	/**
+	 * Compares {@link FarthestPair} with the loop over all pairs that {@link RouteAnalyser#segmentate} used
+	 * before.
+	 */
+	private static void assertSameAsAllPairs(LonLat[] a_points)
+	{
+		LonLat[] greatestDistancePoints = new LonLat[2];
+		double greatestDistance = -1;
+		for(int i=0; i<a_points.length; i++)
+		{
+			for(int j=i+1; j<a_points.length; j++)
+			{
+				double distance = a_points[i].getDistance(a_points[j]);
+				if(distance > greatestDistance)
+				{
+					greatestDistance = distance;
+					greatestDistancePoints[0] = a_points[i];
+					greatestDistancePoints[1] = a_points[j];
+				}
+			}
+		}
+
+		FarthestPair pair = new FarthestPair(a_points);
+		assertEquals(greatestDistance, pair.getDistance(), 0);
+		assertSame(greatestDistancePoints[0], pair.getPoint1());
+		assertSame(greatestDistancePoints[1], pair.getPoint2());
+	}
+
+	@Test
+	public void fewPoints()
+	{
+		assertSameAsAllPairs(new LonLat[0]);
+		assertSameAsAllPairs(new LonLat[] { new LonLat(10, 50) });
+		assertSameAsAllPairs(new LonLat[] { new LonLat(10, 50), new LonLat(11, 51) });
+		assertSameAsAllPairs(new LonLat[] { new LonLat(10, 50), new LonLat(10, 50) });
+		assertSameAsAllPairs(new LonLat[] { new LonLat(10, 50), new LonLat(10, 50), new LonLat(10, 50) });
+
+		FarthestPair pair = new FarthestPair(new LonLat[] { new LonLat(10, 50) });
+		assertNull(pair.getPoint1());
+		assertNull(pair.getPoint2());
+		assertEquals(-1, pair.getDistance(), 0);
+	}
+
+	@Test
+	public void collinear()
+	{
+		LonLat[] points = new LonLat[20];
+		for(int i=0; i<points.length; i++)
+			points[i] = new LonLat(10+(i*7%20)*0.01, 50+(i*7%20)*0.02);
+		assertSameAsAllPairs(points);
+
+		for(int i=0; i<points.length; i++)
+			points[i] = new LonLat(10, 50+(i*3%20)*0.01); // Same longitude
+		assertSameAsAllPairs(points);
+
+		for(int i=0; i<points.length; i++)
+			points[i] = new LonLat(10+(i*3%20)*0.01, 0); // On the equator
+		assertSameAsAllPairs(points);
+	}
+
+	@Test
+	public void duplicates()
+	{
+		LonLat[] points = new LonLat[30];
+		for(int i=0; i<points.length; i++)
+			points[i] = new LonLat(10+(i%3)*0.1, 50+(i%5)*0.1);
+		assertSameAsAllPairs(points);
+	}
+
+	@Test
+	public void ties()
+	{
+		// Both diagonals of a square around a point on the equator have the same length
+		assertSameAsAllPairs(new LonLat[] { new LonLat(0, 1), new LonLat(1, 0), new LonLat(0, -1), new LonLat(-1, 0) });
+		assertSameAsAllPairs(new LonLat[] { new LonLat(1, 0), new LonLat(0, 1), new LonLat(-1, 0), new LonLat(0, -1), new LonLat(0, 0) });
+
+		// Points on a circle around the north pole, each has the same distance to the opposite one
+		LonLat[] points = new LonLat[12];
+		for(int i=0; i<points.length; i++)
+			points[i] = new LonLat(i*30-180, 80);
+		assertSameAsAllPairs(points);
+
+		// A regular grid has many pairs of the same distance
+		points = new LonLat[25];
+		for(int i=0; i<points.length; i++)
+			points[i] = new LonLat((i%5)*0.5, (i/5)*0.5);
+		assertSameAsAllPairs(points);
+	}
+
+	@Test
+	public void random()
+	{
+		Random random = new Random(1);
+		for(int run=0; run<200; run++)
+		{
+			LonLat[] points = new LonLat[1+random.nextInt(300)];
+			double size = (run%4 == 0 ? 180 : run%4 == 1 ? 10 : 0.1);
+			double lon = random.nextDouble()*360-180;
+			double lat = random.nextDouble()*160-80;
+			for(int i=0; i<points.length; i++)
+			{
+				double pointLat = Math.max(-90, Math.min(90, lat+(random.nextDouble()-0.5)*size));
+				points[i] = new LonLat(lon+(random.nextDouble()-0.5)*size*2, pointLat);
+			}
+			assertSameAsAllPairs(points);
+		}
+	}
+}